@@ -1,5 +1,7 @@
 package com.andrewgilmartin.common.query;
 
+import java.util.Objects;
+
 public class BooleanQuery extends Query {
 
     private final String field;
@@ -22,6 +24,17 @@ public class BooleanQuery extends Query {
     public boolean getBoolean() {
         return value;
     }
+
+    @Override
+    protected boolean equalsQuery(Query other) {
+        BooleanQuery that = (BooleanQuery) other;
+        return super.equalsQuery(other) && Objects.equals(field, that.field) && value == that.value;
+    }
+
+    @Override
+    protected int hashCodeQuery() {
+        return 31 * (31 * super.hashCodeQuery() + Objects.hashCode(field)) + Boolean.hashCode(value);
+    }
 }
 
 // END
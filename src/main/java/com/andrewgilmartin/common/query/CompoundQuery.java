@@ -1,6 +1,7 @@
 package com.andrewgilmartin.common.query;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -8,7 +9,7 @@ import java.util.List;
  */
 public class CompoundQuery extends Query {
 
-    private final List<Query> queries = new ArrayList<>();
+    private List<Query> queries = new ArrayList<>();
 
     protected CompoundQuery(float weight) {
         super(weight);
@@ -22,9 +23,14 @@ public class CompoundQuery extends Query {
         if (query == null) {
             throw new IllegalArgumentException("query is null");
         }
+        checkNotFrozen();
         queries.add(query);
     }
 
+    /**
+     * Returns the sub-queries. The list is unmodifiable once the query is
+     * frozen.
+     */
     public List<Query> getQueries() {
         return queries;
     }
@@ -32,4 +38,37 @@ public class CompoundQuery extends Query {
     public boolean hasQueries() {
         return !queries.isEmpty();
     }
+
+    @Override
+    public CompoundQuery copy() {
+        return copy(queries);
+    }
+
+    /**
+     * Returns an unfrozen copy of this query with the given sub-queries in
+     * place of this query's sub-queries.
+     */
+    public CompoundQuery copy(List<Query> queries) {
+        CompoundQuery copy = (CompoundQuery) super.copy();
+        copy.queries = new ArrayList<>(queries);
+        return copy;
+    }
+
+    @Override
+    protected void freezeQueries() {
+        for (Query query : queries) {
+            query.freeze();
+        }
+        queries = Collections.unmodifiableList(queries);
+    }
+
+    @Override
+    protected boolean equalsQuery(Query other) {
+        return super.equalsQuery(other) && queries.equals(((CompoundQuery) other).queries);
+    }
+
+    @Override
+    protected int hashCodeQuery() {
+        return 31 * super.hashCodeQuery() + queries.hashCode();
+    }
 }
@@ -1,7 +1,9 @@
 package com.andrewgilmartin.common.query;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Objects;
 
 /**
  * See Query
@@ -9,7 +11,7 @@ import java.util.List;
 public class CompoundTermQuery extends Query {
 
     private final String field;
-    private final List<String> terms = new ArrayList<>();
+    private List<String> terms = new ArrayList<>();
 
     protected CompoundTermQuery(float weight, String field) {
         super(weight);
@@ -24,6 +26,9 @@ public class CompoundTermQuery extends Query {
         return field;
     }
 
+    /**
+     * Returns the terms. The list is unmodifiable once the query is frozen.
+     */
     public List<String> getTerms() {
         return terms;
     }
@@ -32,10 +37,34 @@ public class CompoundTermQuery extends Query {
         if (term == null) {
             throw new IllegalArgumentException("term is null");
         }
+        checkNotFrozen();
         terms.add(term);
     }
 
     public boolean hasTerms() {
         return !terms.isEmpty();
     }
+
+    @Override
+    public CompoundTermQuery copy() {
+        CompoundTermQuery copy = (CompoundTermQuery) super.copy();
+        copy.terms = new ArrayList<>(terms);
+        return copy;
+    }
+
+    @Override
+    protected void freezeQueries() {
+        terms = Collections.unmodifiableList(terms);
+    }
+
+    @Override
+    protected boolean equalsQuery(Query other) {
+        CompoundTermQuery that = (CompoundTermQuery) other;
+        return super.equalsQuery(other) && Objects.equals(field, that.field) && terms.equals(that.terms);
+    }
+
+    @Override
+    protected int hashCodeQuery() {
+        return 31 * (31 * super.hashCodeQuery() + Objects.hashCode(field)) + terms.hashCode();
+    }
 }
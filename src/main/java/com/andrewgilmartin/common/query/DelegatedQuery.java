@@ -1,11 +1,13 @@
 package com.andrewgilmartin.common.query;
 
+import java.util.Objects;
+
 /**
  * See Query
  */
 public class DelegatedQuery extends Query {
 
-    private final Query query;
+    private Query query;
 
     public DelegatedQuery(Query query) {
         this.query = query;
@@ -24,4 +26,36 @@ public class DelegatedQuery extends Query {
     public Query getQuery() {
         return query;
     }
+
+    @Override
+    public DelegatedQuery copy() {
+        DelegatedQuery copy = (DelegatedQuery) super.copy();
+        copy.query = query.copy();
+        return copy;
+    }
+
+    /**
+     * Returns an unfrozen copy of this query that delegates to the given
+     * query.
+     */
+    public DelegatedQuery copy(Query query) {
+        DelegatedQuery copy = (DelegatedQuery) super.copy();
+        copy.query = query;
+        return copy;
+    }
+
+    @Override
+    protected void freezeQueries() {
+        query.freeze();
+    }
+
+    @Override
+    protected boolean equalsQuery(Query other) {
+        return Objects.equals(query, ((DelegatedQuery) other).query);
+    }
+
+    @Override
+    protected int hashCodeQuery() {
+        return 31 * getClass().getName().hashCode() + Objects.hashCode(query);
+    }
 }
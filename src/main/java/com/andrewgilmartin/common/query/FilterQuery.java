@@ -0,0 +1,45 @@
+package com.andrewgilmartin.common.query;
+
+/**
+ * All the sub-queries are required but they do not contribute to the score.
+ * A filter-query within an and-query only restricts the documents matched by
+ * its siblings, eg a tenant, permission, or status restriction. Lucene can
+ * cache a filter's matches and reuse them across searches. A weighted
+ * filter-query scores each match by its weight.
+ */
+public class FilterQuery extends CompoundQuery {
+
+    public static FilterQuery create(float weight, Query... queries) {
+        // do we have any non-null queries?
+        for (Query query : queries) {
+            if (query != null) {
+                // we do so let's create the filter query
+                return new FilterQuery(weight, queries);
+            }
+        }
+        return null;
+    }
+
+    public static FilterQuery create(Query... queries) {
+        return create(Float.NaN, queries);
+    }
+
+    public FilterQuery(float weight, Query... queries) {
+        super(weight);
+        for (Query q : queries) {
+            if (q != null) {
+                addQuery(q);
+            }
+        }
+    }
+
+    public FilterQuery(Query... queries) {
+        this(Float.NaN, queries);
+    }
+
+    public FilterQuery() {
+        // empty
+    }
+}
+
+// END
@@ -1,5 +1,7 @@
 package com.andrewgilmartin.common.query;
 
+import java.util.Objects;
+
 public class LuceneQuery extends Query {
 
     private final org.apache.lucene.search.Query luceneQuery;
@@ -16,6 +18,16 @@ public class LuceneQuery extends Query {
     public org.apache.lucene.search.Query getLuceneQuery() {
         return luceneQuery;
     }
+
+    @Override
+    protected boolean equalsQuery(Query other) {
+        return super.equalsQuery(other) && Objects.equals(luceneQuery, ((LuceneQuery) other).luceneQuery);
+    }
+
+    @Override
+    protected int hashCodeQuery() {
+        return 31 * super.hashCodeQuery() + Objects.hashCode(luceneQuery);
+    }
 }
 
 // END
\ No newline at end of file
@@ -1,5 +1,7 @@
 package com.andrewgilmartin.common.query;
 
+import java.util.Objects;
+
 public class NumberQuery extends Query {
 
     private final String field;
@@ -22,6 +24,17 @@ public class NumberQuery extends Query {
     public Number getNumber() {
         return number;
     }
+
+    @Override
+    protected boolean equalsQuery(Query other) {
+        NumberQuery that = (NumberQuery) other;
+        return super.equalsQuery(other) && Objects.equals(field, that.field) && Objects.equals(number, that.number);
+    }
+
+    @Override
+    protected int hashCodeQuery() {
+        return 31 * (31 * super.hashCodeQuery() + Objects.hashCode(field)) + Objects.hashCode(number);
+    }
 }
 
 // END
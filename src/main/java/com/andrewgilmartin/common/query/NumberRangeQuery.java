@@ -0,0 +1,78 @@
+package com.andrewgilmartin.common.query;
+
+import java.util.Objects;
+
+/**
+ * Matches the numbers of the field between the lower and upper bounds. A null
+ * bound is open, eg a null lower bound matches all numbers up to the upper
+ * bound. Each bound can be inclusive or exclusive. See Query
+ */
+public class NumberRangeQuery extends Query {
+
+    private final String field;
+    private final Number lower;
+    private final Number upper;
+    private final boolean includeLower;
+    private final boolean includeUpper;
+
+    public NumberRangeQuery(float weight, String field, Number lower, Number upper, boolean includeLower, boolean includeUpper) {
+        super(weight);
+        this.field = field;
+        this.lower = lower;
+        this.upper = upper;
+        this.includeLower = includeLower;
+        this.includeUpper = includeUpper;
+    }
+
+    public NumberRangeQuery(String field, Number lower, Number upper, boolean includeLower, boolean includeUpper) {
+        this(Float.NaN, field, lower, upper, includeLower, includeUpper);
+    }
+
+    /**
+     * Matches the numbers between the inclusive bounds.
+     */
+    public NumberRangeQuery(String field, Number lower, Number upper) {
+        this(Float.NaN, field, lower, upper, true, true);
+    }
+
+    public String getField() {
+        return field;
+    }
+
+    public Number getLower() {
+        return lower;
+    }
+
+    public Number getUpper() {
+        return upper;
+    }
+
+    public boolean isIncludeLower() {
+        return includeLower;
+    }
+
+    public boolean isIncludeUpper() {
+        return includeUpper;
+    }
+
+    @Override
+    protected boolean equalsQuery(Query other) {
+        NumberRangeQuery that = (NumberRangeQuery) other;
+        return super.equalsQuery(other)
+                && Objects.equals(field, that.field)
+                && Objects.equals(lower, that.lower)
+                && Objects.equals(upper, that.upper)
+                && includeLower == that.includeLower
+                && includeUpper == that.includeUpper;
+    }
+
+    @Override
+    protected int hashCodeQuery() {
+        int hashCode = 31 * super.hashCodeQuery() + Objects.hashCode(field);
+        hashCode = 31 * hashCode + Objects.hashCode(lower);
+        hashCode = 31 * hashCode + Objects.hashCode(upper);
+        return 31 * hashCode + (includeLower ? 2 : 0) + (includeUpper ? 1 : 0);
+    }
+}
+
+// END
@@ -1,10 +1,13 @@
 package com.andrewgilmartin.common.query;
 
 /**
- * At least one of the sub-queries is required.
+ * At least one of the sub-queries is required. With a minimum should match of
+ * N at least N of the sub-queries, not counting not-queries, are required.
  */
 public class OrQuery extends CompoundQuery {
 
+    private int minimumShouldMatch = 0;
+
     public static OrQuery create(float weight, Query... queries) {
         // do we have any non-null queries?
         for (Query query : queries) {
@@ -36,6 +39,39 @@ public class OrQuery extends CompoundQuery {
     public OrQuery() {
         // empty
     }
+
+    /**
+     * Sets the least number of sub-queries, not counting not-queries, that a
+     * document must match. The default is 0, which is the same as 1.
+     */
+    public void setMinimumShouldMatch(int minimumShouldMatch) {
+        if (minimumShouldMatch < 0) {
+            throw new IllegalArgumentException("minimum should match must not be negative");
+        }
+        checkNotFrozen();
+        this.minimumShouldMatch = minimumShouldMatch;
+    }
+
+    public int getMinimumShouldMatch() {
+        return minimumShouldMatch;
+    }
+
+    /**
+     * Are more than one of the sub-queries required?
+     */
+    public boolean hasMinimumShouldMatch() {
+        return minimumShouldMatch > 1;
+    }
+
+    @Override
+    protected boolean equalsQuery(Query other) {
+        return super.equalsQuery(other) && minimumShouldMatch == ((OrQuery) other).minimumShouldMatch;
+    }
+
+    @Override
+    protected int hashCodeQuery() {
+        return 31 * super.hashCodeQuery() + minimumShouldMatch;
+    }
 }
 
 // END
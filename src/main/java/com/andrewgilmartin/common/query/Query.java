@@ -10,12 +10,19 @@ import java.io.Serializable;
  * allow visitation or walking of their query classes and so query rewriting is
  * not possible. Query rewriting is a necessary facility for intelligent
  * reshaping of human and machine generated queries.
+ *
+ * Queries are equal when they have the same class and the same structure,
+ * including weights. A query can be frozen to make it, and all its
+ * sub-queries, immutable. A frozen query computes its hash code once and so
+ * can be used as a cache key or shared among query trees. See QueryInterner.
  */
-public class Query implements Serializable {
+public class Query implements Serializable, Cloneable {
 
     public final static float DEFAULT_WEIGHT = Float.NaN;
 
     private float weight = DEFAULT_WEIGHT;
+    private boolean frozen = false;
+    private transient int hashCode = 0; // computed once frozen
 
     public Query() {
         // empty
@@ -26,14 +33,101 @@ public class Query implements Serializable {
     }
 
     public void setWeight(float weight) {
+        checkNotFrozen();
         this.weight = weight;
     }
 
     public boolean hasWeight() {
-        return !Float.isNaN(weight);
+        return !Float.isNaN(getWeight());
     }
 
     public float getWeight() {
         return weight;
     }
+
+    /**
+     * Makes this query and all its sub-queries immutable. Returns this query.
+     */
+    public Query freeze() {
+        if (!frozen) {
+            freezeQueries();
+            frozen = true;
+        }
+        return this;
+    }
+
+    public boolean isFrozen() {
+        return frozen;
+    }
+
+    /**
+     * Returns an unfrozen copy of this query. The copy shares this query's
+     * sub-queries.
+     */
+    public Query copy() {
+        try {
+            Query copy = (Query) clone();
+            copy.frozen = false;
+            copy.hashCode = 0;
+            return copy;
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Freeze the sub-queries, if any.
+     */
+    protected void freezeQueries() {
+        // empty
+    }
+
+    protected void checkNotFrozen() {
+        if (frozen) {
+            throw new IllegalStateException("query is frozen");
+        }
+    }
+
+    @Override
+    public final boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (other == null || getClass() != other.getClass()) {
+            return false;
+        }
+        Query that = (Query) other;
+        if (frozen && that.frozen && hashCode() != that.hashCode()) {
+            return false;
+        }
+        return equalsQuery(that);
+    }
+
+    @Override
+    public final int hashCode() {
+        if (!frozen) {
+            return hashCodeQuery();
+        }
+        if (hashCode == 0) {
+            hashCode = hashCodeQuery();
+        }
+        return hashCode;
+    }
+
+    /**
+     * Returns true if the other query, which is of the same class as this
+     * query, has the same structure as this query. Subclasses extend this to
+     * compare their own state.
+     */
+    protected boolean equalsQuery(Query other) {
+        return Float.floatToIntBits(getWeight()) == Float.floatToIntBits(other.getWeight());
+    }
+
+    /**
+     * Returns the structural hash code of this query. Subclasses extend this
+     * to include their own state.
+     */
+    protected int hashCodeQuery() {
+        return 31 * getClass().getName().hashCode() + Float.floatToIntBits(getWeight());
+    }
 }
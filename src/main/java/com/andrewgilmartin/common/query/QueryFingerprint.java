@@ -0,0 +1,89 @@
+package com.andrewgilmartin.common.query;
+
+import java.io.Serializable;
+
+/**
+ * A 128 bit fingerprint of a query. Equivalent queries have the same
+ * fingerprint and, with near certainty, queries that are not equivalent have
+ * different fingerprints. A fingerprint is the same across JVMs and so can be
+ * used to identify a query in logs or caches shared by many nodes. See
+ * FingerprintQueryVisitor.
+ */
+public final class QueryFingerprint implements Serializable, Comparable<QueryFingerprint> {
+
+    private final long high;
+    private final long low;
+
+    public QueryFingerprint(long high, long low) {
+        this.high = high;
+        this.low = low;
+    }
+
+    /**
+     * Returns the fingerprint of the 32 hexadecimal digits returned by
+     * toString().
+     */
+    public static QueryFingerprint valueOf(String digits) {
+        if (digits == null || digits.length() != 32) {
+            throw new IllegalArgumentException("fingerprint must be 32 hexadecimal digits: " + digits);
+        }
+        try {
+            return new QueryFingerprint(
+                    Long.parseUnsignedLong(digits.substring(0, 16), 16),
+                    Long.parseUnsignedLong(digits.substring(16), 16));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("fingerprint must be 32 hexadecimal digits: " + digits, e);
+        }
+    }
+
+    public long getHigh() {
+        return high;
+    }
+
+    public long getLow() {
+        return low;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof QueryFingerprint)) {
+            return false;
+        }
+        QueryFingerprint that = (QueryFingerprint) other;
+        return high == that.high && low == that.low;
+    }
+
+    @Override
+    public int hashCode() {
+        // the bits are already well mixed
+        return (int) low;
+    }
+
+    @Override
+    public int compareTo(QueryFingerprint that) {
+        int c = Long.compareUnsigned(high, that.high);
+        return c != 0 ? c : Long.compareUnsigned(low, that.low);
+    }
+
+    /**
+     * Returns the fingerprint as 32 hexadecimal digits.
+     */
+    @Override
+    public String toString() {
+        StringBuilder buffer = new StringBuilder(32);
+        appendHex(buffer, high);
+        appendHex(buffer, low);
+        return buffer.toString();
+    }
+
+    private static void appendHex(StringBuilder buffer, long value) {
+        for (int shift = 60; shift >= 0; shift -= 4) {
+            buffer.append(Character.forDigit((int) (value >>> shift) & 0xf, 16));
+        }
+    }
+}
+
+// END
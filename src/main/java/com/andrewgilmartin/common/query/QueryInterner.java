@@ -0,0 +1,68 @@
+package com.andrewgilmartin.common.query;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * A pool of frozen queries. Interning a query returns the pooled query equal
+ * to it, pooling a frozen copy of the query if there is none. The query
+ * itself is not changed. The sub-queries of an unfrozen compound query are
+ * interned before its copy is frozen so that a repeated sub-query, eg a
+ * tenant restriction, exists once in memory and compares to its other uses
+ * by identity. The pool holds its queries weakly and so a pooled query is
+ * dropped once it is no longer used elsewhere.
+ */
+public class QueryInterner {
+
+    // guarded by itself
+    private final Map<Query, WeakReference<Query>> queries = new WeakHashMap<>();
+
+    @SuppressWarnings("unchecked")
+    public <T extends Query> T intern(T query) {
+        if (query == null) {
+            return null;
+        }
+        Query frozen = query;
+        if (!frozen.isFrozen()) {
+            if (frozen instanceof CompoundQuery) {
+                List<Query> subqueries = ((CompoundQuery) frozen).getQueries();
+                List<Query> internedQueries = new ArrayList<>(subqueries.size());
+                for (Query q : subqueries) {
+                    internedQueries.add(intern(q));
+                }
+                frozen = ((CompoundQuery) frozen).copy(internedQueries);
+            } else if (frozen instanceof DelegatedQuery) {
+                frozen = ((DelegatedQuery) frozen).copy(intern(((DelegatedQuery) frozen).getQuery()));
+            } else {
+                frozen = frozen.copy();
+            }
+            frozen.freeze();
+        }
+        synchronized (queries) {
+            WeakReference<Query> reference = queries.get(frozen);
+            Query pooled = reference != null ? reference.get() : null;
+            if (pooled == null) {
+                queries.put(frozen, new WeakReference<>(frozen));
+                pooled = frozen;
+            }
+            return (T) pooled;
+        }
+    }
+
+    public int size() {
+        synchronized (queries) {
+            return queries.size();
+        }
+    }
+
+    public void clear() {
+        synchronized (queries) {
+            queries.clear();
+        }
+    }
+}
+
+// END
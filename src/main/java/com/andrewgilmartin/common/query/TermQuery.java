@@ -1,5 +1,7 @@
 package com.andrewgilmartin.common.query;
 
+import java.util.Objects;
+
 /**
  * See Query
  */
@@ -26,4 +28,15 @@ public class TermQuery extends Query {
     public String getTerm() {
         return this.term;
     }
+
+    @Override
+    protected boolean equalsQuery(Query other) {
+        TermQuery that = (TermQuery) other;
+        return super.equalsQuery(other) && Objects.equals(field, that.field) && Objects.equals(term, that.term);
+    }
+
+    @Override
+    protected int hashCodeQuery() {
+        return 31 * (31 * super.hashCodeQuery() + Objects.hashCode(field)) + Objects.hashCode(term);
+    }
 }
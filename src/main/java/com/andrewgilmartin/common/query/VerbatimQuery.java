@@ -1,5 +1,7 @@
 package com.andrewgilmartin.common.query;
 
+import java.util.Objects;
+
 /**
  * See Query
  */
@@ -26,6 +28,17 @@ public class VerbatimQuery extends Query {
     public String getTerm() {
         return this.term;
     }
+
+    @Override
+    protected boolean equalsQuery(Query other) {
+        VerbatimQuery that = (VerbatimQuery) other;
+        return super.equalsQuery(other) && Objects.equals(field, that.field) && Objects.equals(term, that.term);
+    }
+
+    @Override
+    protected int hashCodeQuery() {
+        return 31 * (31 * super.hashCodeQuery() + Objects.hashCode(field)) + Objects.hashCode(term);
+    }
 }
 
 
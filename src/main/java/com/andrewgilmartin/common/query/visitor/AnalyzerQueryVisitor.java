@@ -0,0 +1,264 @@
+package com.andrewgilmartin.common.query.visitor;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import com.andrewgilmartin.common.query.PhraseQuery;
+import com.andrewgilmartin.common.query.Query;
+import com.andrewgilmartin.common.query.TermQuery;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+
+/**
+ * Analyzes the terms of term and phrase queries with the Lucene Analyzer of
+ * their field, and so the query's terms are the same as those indexed. A
+ * term that is analyzed to one token is replaced with a term query of the
+ * token, a term that is analyzed to several tokens is replaced with a phrase
+ * query of the tokens, and a term that is analyzed to no tokens, eg a stop
+ * word, is dropped. A phrase query's terms are replaced with all of their
+ * tokens. For example,
+ *
+ * <blockquote>
+ * AnalyzerQueryVisitor visitor = new AnalyzerQueryVisitor(new StandardAnalyzer());
+ * visitor.setAnalyzer("id", new KeywordAnalyzer());
+ * Query analyzed = visitor.visit(query);
+ * </blockquote>
+ *
+ * The queries of fields without an analyzer are unchanged. Tokens stacked
+ * at the same position as the previous token, eg synonyms, are ignored, as
+ * are the position gaps left by removed tokens, as a phrase query has no
+ * positions. Queries whose terms are unchanged by the analysis are returned
+ * as-is.
+ *
+ * The analyzers reuse their token streams per thread and so, once
+ * configured, the visitor can be shared among threads. The tokens of
+ * recently analyzed terms can be cached. See setCacheSize(). See also
+ * StandardAnalyzerQueryVisitor.
+ */
+public class AnalyzerQueryVisitor extends QueryVisitorAdaptor<Void> {
+
+    private static final String[] NO_TOKENS = new String[0];
+
+    private final Map<String, Analyzer> analyzers = new HashMap<>();
+    private Analyzer defaultAnalyzer;
+    private int cacheSize = 0;
+    private Map<Key, String[]> cache; // guarded by itself
+
+    public AnalyzerQueryVisitor() {
+        this(null);
+    }
+
+    /**
+     * Creates a visitor that analyzes the terms of all fields with the
+     * analyzer, unless another is set for the field.
+     */
+    public AnalyzerQueryVisitor(Analyzer defaultAnalyzer) {
+        this.defaultAnalyzer = defaultAnalyzer;
+    }
+
+    public Query visit(Query query) {
+        return visit(query, null);
+    }
+
+    /**
+     * Sets the analyzer of the field. A null analyzer removes the field's
+     * analyzer and the field's terms are then analyzed by the default
+     * analyzer, if any.
+     */
+    public void setAnalyzer(String field, Analyzer analyzer) {
+        if (field == null) {
+            throw new IllegalArgumentException("field must not be null");
+        }
+        if (analyzer != null) {
+            analyzers.put(field, analyzer);
+        } else {
+            analyzers.remove(field);
+        }
+        clearCache();
+    }
+
+    /**
+     * Returns the analyzer used for the field, or null if the field's terms
+     * are not analyzed.
+     */
+    public Analyzer getAnalyzer(String field) {
+        Analyzer analyzer = analyzers.get(field);
+        return analyzer != null ? analyzer : defaultAnalyzer;
+    }
+
+    /**
+     * Sets the analyzer of the fields without their own analyzer. A null
+     * analyzer leaves the terms of those fields unchanged.
+     */
+    public void setDefaultAnalyzer(Analyzer defaultAnalyzer) {
+        this.defaultAnalyzer = defaultAnalyzer;
+        clearCache();
+    }
+
+    public Analyzer getDefaultAnalyzer() {
+        return defaultAnalyzer;
+    }
+
+    /**
+     * Sets the number of recently analyzed terms whose tokens are
+     * remembered. The default is 0, ie none are remembered.
+     */
+    public void setCacheSize(final int cacheSize) {
+        if (cacheSize < 0) {
+            throw new IllegalArgumentException("cache size must not be negative");
+        }
+        this.cacheSize = cacheSize;
+        this.cache = cacheSize > 0
+                ? new LinkedHashMap<Key, String[]>(16, 0.75f, true) {
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<Key, String[]> eldest) {
+                        return size() > cacheSize;
+                    }
+                }
+                : null;
+    }
+
+    public int getCacheSize() {
+        return cacheSize;
+    }
+
+    @Override
+    protected Query visit(TermQuery query, Void data) {
+        Analyzer analyzer = getAnalyzer(query.getField());
+        if (analyzer == null) {
+            return query;
+        }
+        String[] tokens = analyze(analyzer, query.getField(), query.getTerm());
+        switch (tokens.length) {
+            case 0:
+                return null;
+            case 1:
+                return tokens[0].equals(query.getTerm()) ? query : new TermQuery(query.getWeight(), query.getField(), tokens[0]);
+            default:
+                return new PhraseQuery(query.getWeight(), query.getField(), tokens);
+        }
+    }
+
+    @Override
+    protected Query visit(PhraseQuery query, Void data) {
+        Analyzer analyzer = getAnalyzer(query.getField());
+        if (analyzer == null) {
+            return query;
+        }
+        List<String> terms = query.getTerms();
+        List<String> tokens = new ArrayList<>(terms.size());
+        boolean changed = false;
+        for (String term : terms) {
+            String[] t = analyze(analyzer, query.getField(), term);
+            changed |= t.length != 1 || !t[0].equals(term);
+            for (String token : t) {
+                tokens.add(token);
+            }
+        }
+        if (!changed) {
+            return query;
+        }
+        if (tokens.isEmpty()) {
+            return null;
+        }
+        return new PhraseQuery(query.getWeight(), query.getField(), tokens.toArray(new String[tokens.size()]));
+    }
+
+    private String[] analyze(Analyzer analyzer, String field, String term) {
+        Map<Key, String[]> c = cache;
+        if (c == null) {
+            return tokenize(analyzer, field, term);
+        }
+        Key key = new Key(field, term);
+        String[] tokens;
+        synchronized (c) {
+            tokens = c.get(key);
+        }
+        if (tokens == null) {
+            tokens = tokenize(analyzer, field, term);
+            synchronized (c) {
+                c.put(key, tokens);
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * Returns the tokens of the term. The analyzer's reuse strategy gives
+     * this thread's token stream for the field, which must be reset, ended,
+     * and closed before it is next used.
+     */
+    private static String[] tokenize(Analyzer analyzer, String field, String term) {
+        try (TokenStream stream = analyzer.tokenStream(field, term)) {
+            CharTermAttribute termAttribute = stream.addAttribute(CharTermAttribute.class);
+            PositionIncrementAttribute positionAttribute = stream.addAttribute(PositionIncrementAttribute.class);
+            stream.reset();
+            String first = null;
+            List<String> tokens = null;
+            while (stream.incrementToken()) {
+                if (positionAttribute.getPositionIncrement() == 0 && first != null) {
+                    continue; // stacked on the previous token
+                }
+                String token = termAttribute.toString();
+                if (first == null) {
+                    first = token;
+                } else {
+                    if (tokens == null) {
+                        tokens = new ArrayList<>();
+                        tokens.add(first);
+                    }
+                    tokens.add(token);
+                }
+            }
+            stream.end();
+            return tokens != null ? tokens.toArray(new String[tokens.size()])
+                    : first != null ? new String[]{first}
+                    : NO_TOKENS;
+        } catch (IOException e) {
+            throw new UncheckedIOException("can't analyze term " + term + " of field " + field, e);
+        }
+    }
+
+    private void clearCache() {
+        Map<Key, String[]> c = cache;
+        if (c != null) {
+            synchronized (c) {
+                c.clear();
+            }
+        }
+    }
+
+    private static final class Key {
+
+        final String field;
+        final String term;
+
+        Key(String field, String term) {
+            this.field = field;
+            this.term = term;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            Key that = (Key) other;
+            return Objects.equals(field, that.field) && Objects.equals(term, that.term);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Objects.hashCode(field) + Objects.hashCode(term);
+        }
+    }
+}
+
+// END
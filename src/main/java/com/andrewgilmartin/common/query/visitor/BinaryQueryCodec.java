@@ -0,0 +1,536 @@
+package com.andrewgilmartin.common.query.visitor;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import com.andrewgilmartin.common.query.AndQuery;
+import com.andrewgilmartin.common.query.BooleanQuery;
+import com.andrewgilmartin.common.query.CompoundQuery;
+import com.andrewgilmartin.common.query.FilterQuery;
+import com.andrewgilmartin.common.query.LuceneQuery;
+import com.andrewgilmartin.common.query.NotQuery;
+import com.andrewgilmartin.common.query.NumberQuery;
+import com.andrewgilmartin.common.query.NumberRangeQuery;
+import com.andrewgilmartin.common.query.OrQuery;
+import com.andrewgilmartin.common.query.PhraseQuery;
+import com.andrewgilmartin.common.query.Query;
+import com.andrewgilmartin.common.query.TermQuery;
+import com.andrewgilmartin.common.query.VerbatimQuery;
+
+/**
+ * Encodes a query tree in a compact binary form and decodes it. This is an
+ * alternative to Java serialization for sending queries between JVMs. For
+ * example,
+ *
+ * <blockquote>
+ * BinaryQueryCodec codec = new BinaryQueryCodec();
+ * byte[] bytes = codec.encode(query);
+ * ...
+ * Query query = codec.decode(ByteBuffer.wrap(bytes));
+ * </blockquote>
+ *
+ * The encoding starts with the format's version. Each query is a header byte
+ * of its kind and flags, its weight as four bytes if it has one, and then its
+ * values. Counts and integral numbers are varints. Strings, ie fields and
+ * terms, are written once and then referred to by their index in a
+ * dictionary built as the query is encoded and decoded. A number is one of
+ * the Java primitive wrappers, a BigInteger, or a BigDecimal.
+ *
+ * A delegated query is encoded as the query it delegates to, and a subclass
+ * of a query class is decoded as the query class. A Lucene query can't be
+ * encoded. Null sub-queries are not encoded. An encoding of queries nested
+ * deeper than MAX_DEPTH is rejected when decoded, as is any other invalid
+ * encoding, with an IllegalArgumentException. The codec can be shared by many
+ * threads.
+ */
+public class BinaryQueryCodec extends QueryVisitor<Void, BinaryQueryCodec.Output> {
+
+    public static final int VERSION = 1;
+
+    /**
+     * The greatest nesting of compound queries that is decoded. This bounds
+     * the decoder's recursion.
+     */
+    public static final int MAX_DEPTH = 1000;
+
+    private static final int TERM = 1;
+    private static final int VERBATIM = 2;
+    private static final int PHRASE = 3;
+    private static final int NUMBER = 4;
+    private static final int NUMBER_RANGE = 5;
+    private static final int BOOLEAN = 6;
+    private static final int AND = 7;
+    private static final int OR = 8;
+    private static final int NOT = 9;
+    private static final int FILTER = 10;
+
+    private static final int KIND_MASK = 0x0F;
+    private static final int WEIGHTED = 0x10;
+    private static final int FLAG_1 = 0x20; // boolean value or range's include lower
+    private static final int FLAG_2 = 0x40; // range's include upper
+
+    private static final int NULL_NUMBER = 0;
+    private static final int INTEGER = 1;
+    private static final int LONG = 2;
+    private static final int FLOAT = 3;
+    private static final int DOUBLE = 4;
+    private static final int SHORT = 5;
+    private static final int BYTE = 6;
+    private static final int BIG_INTEGER = 7;
+    private static final int BIG_DECIMAL = 8;
+
+    /**
+     * The encoding being written. The buffer grows as needed.
+     */
+    public static final class Output {
+
+        ByteBuffer buffer;
+        final Map<String, Integer> strings = new HashMap<>();
+
+        Output(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+    }
+
+    /**
+     * Returns the encoding of the query.
+     */
+    public byte[] encode(Query query) {
+        ByteBuffer buffer = encode(query, ByteBuffer.allocate(256));
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Writes the encoding of the query to the buffer starting at its position.
+     * Returns the buffer flipped so that its remaining bytes are the
+     * encoding. This is the given buffer, or a larger one of the same kind if
+     * the encoding did not fit, and so a buffer can be reused for many
+     * queries.
+     */
+    public ByteBuffer encode(Query query, ByteBuffer buffer) throws IllegalArgumentException {
+        if (query == null) {
+            throw new IllegalArgumentException("query must not be null");
+        }
+        Output output = new Output(buffer);
+        writeVarint(output, VERSION);
+        visit(query, output);
+        output.buffer.flip();
+        return output.buffer;
+    }
+
+    /**
+     * Returns the query decoded from the buffer starting at its position. The
+     * buffer's position is moved past the encoding. Only the strings are
+     * copied out of the buffer.
+     */
+    public Query decode(ByteBuffer buffer) throws IllegalArgumentException {
+        try {
+            int version = readVarint(buffer);
+            if (version != VERSION) {
+                throw new IllegalArgumentException("unsupported version " + version);
+            }
+            return read(buffer, new ArrayList<String>(), 0);
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("truncated encoding", e);
+        }
+    }
+
+    @Override
+    protected Void visit(TermQuery query, Output output) {
+        begin(output, TERM, 0, query);
+        writeString(output, query.getField());
+        writeString(output, query.getTerm());
+        return null;
+    }
+
+    @Override
+    protected Void visit(VerbatimQuery query, Output output) {
+        begin(output, VERBATIM, 0, query);
+        writeString(output, query.getField());
+        writeString(output, query.getTerm());
+        return null;
+    }
+
+    @Override
+    protected Void visit(PhraseQuery query, Output output) {
+        begin(output, PHRASE, 0, query);
+        writeString(output, query.getField());
+        List<String> terms = query.getTerms();
+        writeVarint(output, terms.size());
+        for (int i = 0; i < terms.size(); i++) {
+            writeString(output, terms.get(i));
+        }
+        return null;
+    }
+
+    @Override
+    protected Void visit(NumberQuery query, Output output) {
+        begin(output, NUMBER, 0, query);
+        writeString(output, query.getField());
+        writeNumber(output, query.getNumber());
+        return null;
+    }
+
+    @Override
+    protected Void visit(NumberRangeQuery query, Output output) {
+        begin(output, NUMBER_RANGE, (query.isIncludeLower() ? FLAG_1 : 0) | (query.isIncludeUpper() ? FLAG_2 : 0), query);
+        writeString(output, query.getField());
+        writeNumber(output, query.getLower());
+        writeNumber(output, query.getUpper());
+        return null;
+    }
+
+    @Override
+    protected Void visit(BooleanQuery query, Output output) {
+        begin(output, BOOLEAN, query.getBoolean() ? FLAG_1 : 0, query);
+        writeString(output, query.getField());
+        return null;
+    }
+
+    @Override
+    protected Void visit(LuceneQuery query, Output output) {
+        throw new IllegalArgumentException("can't encode lucene query " + query.getLuceneQuery());
+    }
+
+    @Override
+    protected Void visit(AndQuery query, Output output) {
+        return visitQueries(AND, query, output);
+    }
+
+    @Override
+    protected Void visit(OrQuery query, Output output) {
+        visitQueries(OR, query, output);
+        writeVarint(output, query.getMinimumShouldMatch());
+        return null;
+    }
+
+    @Override
+    protected Void visit(NotQuery query, Output output) {
+        return visitQueries(NOT, query, output);
+    }
+
+    @Override
+    protected Void visit(FilterQuery query, Output output) {
+        return visitQueries(FILTER, query, output);
+    }
+
+    private Void visitQueries(int kind, CompoundQuery query, Output output) {
+        begin(output, kind, 0, query);
+        List<Query> queries = query.getQueries();
+        int count = 0;
+        for (int i = 0; i < queries.size(); i++) {
+            if (queries.get(i) != null) {
+                count++;
+            }
+        }
+        writeVarint(output, count);
+        for (int i = 0; i < queries.size(); i++) {
+            Query q = queries.get(i);
+            if (q != null) {
+                visit(q, output);
+            }
+        }
+        return null;
+    }
+
+    private static void begin(Output output, int kind, int flags, Query query) {
+        if (query.hasWeight()) {
+            ensureRemaining(output, 5);
+            output.buffer.put((byte) (kind | flags | WEIGHTED));
+            output.buffer.putFloat(query.getWeight());
+        } else {
+            ensureRemaining(output, 1);
+            output.buffer.put((byte) (kind | flags));
+        }
+    }
+
+    /**
+     * Writes the string as 0 followed by its UTF-8 length and bytes the first
+     * time it is written, and as its dictionary index plus 1 after that. A
+     * null string is written as the length -1.
+     */
+    private static void writeString(Output output, String value) {
+        Integer index = value != null ? output.strings.get(value) : null;
+        if (index != null) {
+            writeVarint(output, index + 1);
+            return;
+        }
+        writeVarint(output, 0);
+        if (value == null) {
+            writeVarint(output, -1);
+            return;
+        }
+        output.strings.put(value, output.strings.size());
+        int length = utf8Length(value);
+        writeVarint(output, length);
+        ensureRemaining(output, length);
+        ByteBuffer buffer = output.buffer;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                buffer.put((byte) c);
+            } else if (c < 0x800) {
+                buffer.put((byte) (0xC0 | (c >>> 6)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                buffer.put((byte) (0xF0 | (codePoint >>> 18)));
+                buffer.put((byte) (0x80 | ((codePoint >>> 12) & 0x3F)));
+                buffer.put((byte) (0x80 | ((codePoint >>> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (codePoint & 0x3F)));
+            } else if (Character.isSurrogate(c)) {
+                buffer.put((byte) '?'); // as String.getBytes() does
+            } else {
+                buffer.put((byte) (0xE0 | (c >>> 12)));
+                buffer.put((byte) (0x80 | ((c >>> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+
+    private static int utf8Length(String value) {
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                length += 1;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    private static void writeNumber(Output output, Number number) {
+        if (number == null) {
+            writeVarint(output, NULL_NUMBER);
+        } else if (number instanceof Integer) {
+            writeVarint(output, INTEGER);
+            writeVarlong(output, zigzag(number.longValue()));
+        } else if (number instanceof Long) {
+            writeVarint(output, LONG);
+            writeVarlong(output, zigzag(number.longValue()));
+        } else if (number instanceof Short) {
+            writeVarint(output, SHORT);
+            writeVarlong(output, zigzag(number.longValue()));
+        } else if (number instanceof Byte) {
+            writeVarint(output, BYTE);
+            writeVarlong(output, zigzag(number.longValue()));
+        } else if (number instanceof Float) {
+            writeVarint(output, FLOAT);
+            ensureRemaining(output, 4);
+            output.buffer.putFloat(number.floatValue());
+        } else if (number instanceof Double) {
+            writeVarint(output, DOUBLE);
+            ensureRemaining(output, 8);
+            output.buffer.putDouble(number.doubleValue());
+        } else if (number instanceof BigInteger) {
+            writeVarint(output, BIG_INTEGER);
+            writeString(output, number.toString());
+        } else if (number instanceof BigDecimal) {
+            writeVarint(output, BIG_DECIMAL);
+            writeString(output, number.toString());
+        } else {
+            throw new IllegalArgumentException("can't encode number " + number.getClass().getName());
+        }
+    }
+
+    private static void writeVarint(Output output, int value) {
+        writeVarlong(output, value & 0xFFFFFFFFL);
+    }
+
+    private static void writeVarlong(Output output, long value) {
+        ensureRemaining(output, 10);
+        ByteBuffer buffer = output.buffer;
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static void ensureRemaining(Output output, int length) {
+        ByteBuffer buffer = output.buffer;
+        if (buffer.remaining() < length) {
+            int capacity = Math.max(buffer.capacity() * 2, buffer.position() + length);
+            ByteBuffer grown = buffer.isDirect() ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+            buffer.flip();
+            grown.put(buffer);
+            output.buffer = grown;
+        }
+    }
+
+    private static Query read(ByteBuffer buffer, List<String> strings, int depth) {
+        int header = buffer.get() & 0xFF;
+        float weight = (header & WEIGHTED) != 0 ? buffer.getFloat() : Float.NaN;
+        switch (header & KIND_MASK) {
+            case TERM:
+                return new TermQuery(weight, readString(buffer, strings), readString(buffer, strings));
+            case VERBATIM:
+                return new VerbatimQuery(weight, readString(buffer, strings), readString(buffer, strings));
+            case PHRASE: {
+                String field = readString(buffer, strings);
+                String[] terms = new String[readItemCount(buffer)];
+                for (int i = 0; i < terms.length; i++) {
+                    terms[i] = readString(buffer, strings);
+                }
+                return new PhraseQuery(weight, field, terms);
+            }
+            case NUMBER:
+                return new NumberQuery(weight, readString(buffer, strings), readNumber(buffer, strings));
+            case NUMBER_RANGE:
+                return new NumberRangeQuery(weight, readString(buffer, strings), readNumber(buffer, strings), readNumber(buffer, strings),
+                        (header & FLAG_1) != 0, (header & FLAG_2) != 0);
+            case BOOLEAN:
+                return new BooleanQuery(weight, readString(buffer, strings), (header & FLAG_1) != 0);
+            case AND:
+                return readQueries(buffer, strings, new AndQuery(weight), depth);
+            case OR: {
+                OrQuery query = readQueries(buffer, strings, new OrQuery(weight), depth);
+                query.setMinimumShouldMatch(readCount(buffer));
+                return query;
+            }
+            case NOT:
+                return readQueries(buffer, strings, new NotQuery(weight), depth);
+            case FILTER:
+                return readQueries(buffer, strings, new FilterQuery(weight), depth);
+            default:
+                throw new IllegalArgumentException("unknown query kind " + (header & KIND_MASK));
+        }
+    }
+
+    private static <T extends CompoundQuery> T readQueries(ByteBuffer buffer, List<String> strings, T query, int depth) {
+        if (depth >= MAX_DEPTH) {
+            throw new IllegalArgumentException("queries nested deeper than " + MAX_DEPTH);
+        }
+        int count = readItemCount(buffer);
+        for (int i = 0; i < count; i++) {
+            query.addQuery(read(buffer, strings, depth + 1));
+        }
+        return query;
+    }
+
+    private static String readString(ByteBuffer buffer, List<String> strings) {
+        int index = readVarint(buffer);
+        if (index != 0) {
+            if (index > strings.size()) {
+                throw new IllegalArgumentException("unknown string " + (index - 1));
+            }
+            return strings.get(index - 1);
+        }
+        int length = readVarint(buffer);
+        if (length == -1) {
+            return null;
+        }
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IllegalArgumentException("invalid string length " + length);
+        }
+        String value;
+        if (buffer.hasArray()) {
+            value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+            buffer.position(buffer.position() + length);
+        } else {
+            byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            value = new String(bytes, StandardCharsets.UTF_8);
+        }
+        strings.add(value);
+        return value;
+    }
+
+    private static Number readNumber(ByteBuffer buffer, List<String> strings) {
+        int type = readVarint(buffer);
+        switch (type) {
+            case NULL_NUMBER:
+                return null;
+            case INTEGER:
+                return (int) unzigzag(readVarlong(buffer));
+            case LONG:
+                return unzigzag(readVarlong(buffer));
+            case SHORT:
+                return (short) unzigzag(readVarlong(buffer));
+            case BYTE:
+                return (byte) unzigzag(readVarlong(buffer));
+            case FLOAT:
+                return buffer.getFloat();
+            case DOUBLE:
+                return buffer.getDouble();
+            case BIG_INTEGER:
+                return new BigInteger(readNumberString(buffer, strings));
+            case BIG_DECIMAL:
+                return new BigDecimal(readNumberString(buffer, strings));
+            default:
+                throw new IllegalArgumentException("unknown number type " + type);
+        }
+    }
+
+    private static String readNumberString(ByteBuffer buffer, List<String> strings) {
+        String value = readString(buffer, strings);
+        if (value == null) {
+            throw new IllegalArgumentException("invalid number null");
+        }
+        return value;
+    }
+
+    private static int readCount(ByteBuffer buffer) {
+        int count = readVarint(buffer);
+        if (count < 0) {
+            throw new IllegalArgumentException("invalid count " + count);
+        }
+        return count;
+    }
+
+    /**
+     * Reads the count of the strings or queries that follow. Each is encoded
+     * in at least one byte, and so a corrupt count is found before anything
+     * is allocated for it.
+     */
+    private static int readItemCount(ByteBuffer buffer) {
+        int count = readCount(buffer);
+        if (count > buffer.remaining()) {
+            throw new IllegalArgumentException("invalid count " + count);
+        }
+        return count;
+    }
+
+    private static int readVarint(ByteBuffer buffer) {
+        return (int) readVarlong(buffer);
+    }
+
+    private static long readVarlong(ByteBuffer buffer) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("invalid varint");
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
+
+// END
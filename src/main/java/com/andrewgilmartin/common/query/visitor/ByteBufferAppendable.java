@@ -0,0 +1,235 @@
+package com.andrewgilmartin.common.query.visitor;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * An Appendable that encodes the characters appended as UTF-8 directly into a
+ * ByteBuffer. The buffer grows as needed and is kept across clear() and so a
+ * single ByteBufferAppendable can be reused to render many queries without
+ * further allocation. A grown buffer is direct if the original buffer is
+ * direct.
+ *
+ * When form encoding is on the bytes are also encoded as
+ * application/x-www-form-urlencoded, ie the letters, digits, and "-_.*" are
+ * as-is, a space is "+", and all other bytes are "%XX". This is the form of a
+ * Solr request's parameter values and so the rendered query can be used as a
+ * request body without an intermediate String. The parameter's name and
+ * "=" are appended as-is with appendRaw().
+ *
+ * A surrogate pair split across appends is encoded as one code point. An
+ * unpaired surrogate is encoded as "?". This is not thread safe.
+ */
+public class ByteBufferAppendable implements Appendable {
+
+    private static final byte[] HEX_DIGITS = {
+        '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'A', 'B', 'C', 'D', 'E', 'F'
+    };
+
+    private final boolean formEncoded;
+    private ByteBuffer buffer;
+    private char highSurrogate; // 0 if there is no pending high surrogate
+
+    public ByteBufferAppendable() {
+        this(1024, false);
+    }
+
+    public ByteBufferAppendable(int capacity, boolean formEncoded) {
+        this(ByteBuffer.allocate(capacity), formEncoded);
+    }
+
+    /**
+     * Creates an appendable that writes into the buffer, which is cleared.
+     */
+    public ByteBufferAppendable(ByteBuffer buffer, boolean formEncoded) {
+        if (buffer == null) {
+            throw new IllegalArgumentException("buffer must not be null");
+        }
+        if (buffer.isReadOnly()) {
+            throw new IllegalArgumentException("buffer must not be read only");
+        }
+        this.buffer = buffer;
+        this.formEncoded = formEncoded;
+        buffer.clear();
+    }
+
+    public boolean isFormEncoded() {
+        return formEncoded;
+    }
+
+    /**
+     * Returns the number of bytes written.
+     */
+    public int size() {
+        return buffer.position() + (highSurrogate != 0 ? (formEncoded ? 3 : 1) : 0);
+    }
+
+    /**
+     * Returns a read-only view of the bytes written, positioned at zero and
+     * limited to size(). A pending high surrogate is first written as "?". The
+     * view shares the underlying buffer and so is only valid until the next
+     * append or clear.
+     */
+    public ByteBuffer getByteBuffer() {
+        flush();
+        ByteBuffer bytes = buffer.asReadOnlyBuffer();
+        bytes.flip();
+        return bytes;
+    }
+
+    /**
+     * Returns a copy of the bytes written.
+     */
+    public byte[] toByteArray() {
+        ByteBuffer bytes = getByteBuffer();
+        byte[] array = new byte[bytes.remaining()];
+        bytes.get(array);
+        return array;
+    }
+
+    /**
+     * Discards the bytes written. The buffer is kept for reuse.
+     */
+    public void clear() {
+        buffer.clear();
+        highSurrogate = 0;
+    }
+
+    @Override
+    public ByteBufferAppendable append(CharSequence value) {
+        if (value == null) {
+            value = "null";
+        }
+        return append(value, 0, value.length());
+    }
+
+    @Override
+    public ByteBufferAppendable append(CharSequence value, int start, int end) {
+        if (value == null) {
+            value = "null";
+        }
+        if (start < 0 || start > end || end > value.length()) {
+            throw new IndexOutOfBoundsException("start " + start + ", end " + end + ", length " + value.length());
+        }
+        for (int i = start; i < end; i++) {
+            encode(value.charAt(i));
+        }
+        return this;
+    }
+
+    @Override
+    public ByteBufferAppendable append(char value) {
+        encode(value);
+        return this;
+    }
+
+    /**
+     * Appends the characters encoded as UTF-8 but not form encoded, eg the
+     * "q=" of a request body. A pending high surrogate is first written as
+     * "?".
+     */
+    public ByteBufferAppendable appendRaw(CharSequence value) {
+        if (value == null) {
+            value = "null";
+        }
+        flush();
+        for (int i = 0; i < value.length();) {
+            int codePoint = Character.codePointAt(value, i);
+            i += Character.charCount(codePoint);
+            if (codePoint >= Character.MIN_SURROGATE && codePoint <= Character.MAX_SURROGATE) {
+                put((byte) '?', true);
+            } else {
+                encode(codePoint, true);
+            }
+        }
+        return this;
+    }
+
+    private void encode(char c) {
+        if (highSurrogate != 0) {
+            char high = highSurrogate;
+            highSurrogate = 0;
+            if (Character.isLowSurrogate(c)) {
+                encode(Character.toCodePoint(high, c), false);
+                return;
+            }
+            put((byte) '?');
+        }
+        if (Character.isHighSurrogate(c)) {
+            highSurrogate = c;
+        } else if (Character.isLowSurrogate(c)) {
+            put((byte) '?');
+        } else {
+            encode(c, false);
+        }
+    }
+
+    private void encode(int codePoint, boolean raw) {
+        if (codePoint < 0x80) {
+            put((byte) codePoint, raw);
+        } else if (codePoint < 0x800) {
+            put((byte) (0xC0 | (codePoint >>> 6)), raw);
+            put((byte) (0x80 | (codePoint & 0x3F)), raw);
+        } else if (codePoint < 0x10000) {
+            put((byte) (0xE0 | (codePoint >>> 12)), raw);
+            put((byte) (0x80 | ((codePoint >>> 6) & 0x3F)), raw);
+            put((byte) (0x80 | (codePoint & 0x3F)), raw);
+        } else {
+            put((byte) (0xF0 | (codePoint >>> 18)), raw);
+            put((byte) (0x80 | ((codePoint >>> 12) & 0x3F)), raw);
+            put((byte) (0x80 | ((codePoint >>> 6) & 0x3F)), raw);
+            put((byte) (0x80 | (codePoint & 0x3F)), raw);
+        }
+    }
+
+    private void put(byte b) {
+        put(b, false);
+    }
+
+    private void put(byte b, boolean raw) {
+        if (raw || !formEncoded) {
+            ensureRemaining(1);
+            buffer.put(b);
+        } else if ((b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || (b >= '0' && b <= '9')
+                || b == '-' || b == '_' || b == '.' || b == '*') {
+            ensureRemaining(1);
+            buffer.put(b);
+        } else if (b == ' ') {
+            ensureRemaining(1);
+            buffer.put((byte) '+');
+        } else {
+            ensureRemaining(3);
+            buffer.put((byte) '%');
+            buffer.put(HEX_DIGITS[(b >>> 4) & 0xF]);
+            buffer.put(HEX_DIGITS[b & 0xF]);
+        }
+    }
+
+    private void flush() {
+        if (highSurrogate != 0) {
+            highSurrogate = 0;
+            put((byte) '?');
+        }
+    }
+
+    private void ensureRemaining(int length) {
+        if (buffer.remaining() < length) {
+            int capacity = Math.max(buffer.capacity() * 2, buffer.position() + length);
+            ByteBuffer grown = buffer.isDirect() ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+            buffer.flip();
+            grown.put(buffer);
+            buffer = grown;
+        }
+    }
+
+    /**
+     * Returns the bytes written decoded as UTF-8. When form encoded these are
+     * the encoded characters.
+     */
+    @Override
+    public String toString() {
+        return new String(toByteArray(), StandardCharsets.UTF_8);
+    }
+}
+
+// END
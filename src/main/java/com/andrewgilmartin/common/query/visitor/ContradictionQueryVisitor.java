@@ -0,0 +1,261 @@
+package com.andrewgilmartin.common.query.visitor;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import com.andrewgilmartin.common.query.AndQuery;
+import com.andrewgilmartin.common.query.BooleanQuery;
+import com.andrewgilmartin.common.query.FilterQuery;
+import com.andrewgilmartin.common.query.CompoundQuery;
+import com.andrewgilmartin.common.query.LuceneQuery;
+import com.andrewgilmartin.common.query.NotQuery;
+import com.andrewgilmartin.common.query.OrQuery;
+import com.andrewgilmartin.common.query.Query;
+import org.apache.lucene.search.MatchNoDocsQuery;
+
+/**
+ * Finds the sub-queries that can't match any document, and the prohibited
+ * sub-queries that can't exclude any document, without searching. A query
+ * that can't match is replaced by a LuceneQuery of a MatchNoDocsQuery, which
+ * Lucene answers without visiting the index. Use isUnsatisfiable() to
+ * return an empty result without searching at all. For example,
+ *
+ * <blockquote>
+ * Query q = new ContradictionQueryVisitor().visitQuery(query);
+ * if (ContradictionQueryVisitor.isUnsatisfiable(q)) {
+ * // no need to search
+ * }
+ * </blockquote>
+ *
+ * The contradictions found are
+ *
+ * <ul>
+ * <li>a sub-query of an and-query that is also prohibited by a sibling
+ * not-query, eg (a AND NOT (a)), which makes the and-query unsatisfiable;</li>
+ * <li>a sub-query of an or-query that is also prohibited by a sibling
+ * not-query, eg (a OR b OR NOT (a)), which is removed, and if no sub-queries
+ * remain the or-query is unsatisfiable;</li>
+ * <li>boolean queries of the same field but different values within an
+ * and-query, eg (f: true AND f: false), which makes the and-query
+ * unsatisfiable;</li>
+ * <li>an unsatisfiable sub-query of an and-query, which makes the and-query
+ * unsatisfiable, and of an or-query, which is removed;</li>
+ * <li>an or-query with fewer sub-queries, not counting not-queries, than its
+ * minimum should match, which makes the or-query unsatisfiable.</li>
+ * </ul>
+ *
+ * The redundant clauses removed are
+ *
+ * <ul>
+ * <li>an unsatisfiable sub-query of a not-query;</li>
+ * <li>a sub-query of a not-query already prohibited by a sibling not-query,
+ * eg (a AND NOT (b) AND NOT (b c)) becomes (a AND NOT (b) AND NOT (c));</li>
+ * <li>a boolean query within a not-query whose field has a different value
+ * in a sibling of the not-query, eg (f: true AND NOT (f: false)) becomes (f:
+ * true).</li>
+ * </ul>
+ *
+ * A not-query left without sub-queries is removed. A filter-query is
+ * analyzed as an and-query. Sub-queries are compared ignoring their weights.
+ * Boolean fields are assumed to have one value per document.
+ */
+public class ContradictionQueryVisitor extends QueryVisitorAdaptor<Void> {
+
+    /**
+     * Returns true if the query is the replacement of a query that can't
+     * match any document.
+     */
+    public static boolean isUnsatisfiable(Query query) {
+        return query instanceof LuceneQuery && ((LuceneQuery) query).getLuceneQuery() instanceof MatchNoDocsQuery;
+    }
+
+    public Query visit(Query query) {
+        return visit(query, null);
+    }
+
+    @Override
+    protected Query visit(AndQuery query, Void data) {
+        return analyze(query, visitSubqueries(query, data));
+    }
+
+    @Override
+    protected Query visit(OrQuery query, Void data) {
+        return analyze(query, visitSubqueries(query, data));
+    }
+
+    @Override
+    protected Query visit(NotQuery query, Void data) {
+        return analyze(query, visitSubqueries(query, data));
+    }
+
+    @Override
+    protected Query visit(FilterQuery query, Void data) {
+        return analyze(query, visitSubqueries(query, data));
+    }
+
+    @Override
+    protected Query leave(CompoundQuery query, List<Query> results, Void data) {
+        return analyze(query, rewrittenQueries(query, results));
+    }
+
+    /**
+     * Returns the visited sub-queries of the compound query. The compound
+     * query's own list is returned if no sub-query was rewritten.
+     */
+    private List<Query> visitSubqueries(CompoundQuery query, Void data) {
+        List<Query> queries = query.getQueries();
+        List<Query> results = new ArrayList<>(queries.size());
+        for (Query q : queries) {
+            results.add(visit(q, data));
+        }
+        return rewrittenQueries(query, results);
+    }
+
+    private Query analyze(CompoundQuery originalQuery, List<Query> queries) {
+        if (originalQuery instanceof NotQuery) {
+            List<Query> prohibitedQueries = prohibit(queries, new HashSet<Query>(), null);
+            if (prohibitedQueries.isEmpty()) {
+                return null;
+            }
+            return rewritten(originalQuery, prohibitedQueries);
+        }
+
+        boolean and = originalQuery instanceof AndQuery || originalQuery instanceof FilterQuery;
+
+        // the boolean values required of the fields
+        Map<String, Boolean> values = new HashMap<>();
+        if (and) {
+            for (Query q : queries) {
+                if (q instanceof BooleanQuery) {
+                    BooleanQuery b = (BooleanQuery) q;
+                    Boolean value = values.put(b.getField(), b.getBoolean());
+                    if (value != null && value != b.getBoolean()) {
+                        return unsatisfiable(originalQuery);
+                    }
+                }
+            }
+        }
+
+        // the prohibited sub-queries, less those that are redundant
+        Set<Query> prohibited = new HashSet<>();
+        List<Query> remainingQueries = new ArrayList<>(queries.size());
+        for (Query q : queries) {
+            if (q instanceof NotQuery) {
+                List<Query> prohibitedQueries = prohibit(((CompoundQuery) q).getQueries(), prohibited, values);
+                if (!prohibitedQueries.isEmpty()) {
+                    remainingQueries.add(rewritten((CompoundQuery) q, prohibitedQueries));
+                }
+            } else {
+                remainingQueries.add(q);
+            }
+        }
+
+        // the required or optional sub-queries that can't match
+        int positiveQueries = 0;
+        for (int i = 0; i < remainingQueries.size();) {
+            Query q = remainingQueries.get(i);
+            if (q instanceof NotQuery) {
+                i++;
+                continue;
+            }
+            positiveQueries++;
+            if (isUnsatisfiable(q) || prohibited.contains(unweighted(q))) {
+                if (and) {
+                    return unsatisfiable(originalQuery);
+                }
+                remainingQueries.remove(i);
+            } else {
+                i++;
+            }
+        }
+        if (positiveQueries > 0 && countPositiveQueries(remainingQueries) == 0) {
+            // every optional sub-query was removed
+            return unsatisfiable(originalQuery);
+        }
+        if (originalQuery instanceof OrQuery && countPositiveQueries(remainingQueries) < ((OrQuery) originalQuery).getMinimumShouldMatch()) {
+            // too few optional sub-queries remain to match the minimum
+            return unsatisfiable(originalQuery);
+        }
+
+        return rewritten(originalQuery, isSame(remainingQueries, queries) ? queries : remainingQueries);
+    }
+
+    /**
+     * Returns the sub-queries of a not-query that can exclude documents not
+     * already excluded. The prohibited set is updated with the sub-queries
+     * returned. The values are the boolean values required by the not-query's
+     * siblings, if any.
+     */
+    private static List<Query> prohibit(List<Query> queries, Set<Query> prohibited, Map<String, Boolean> values) {
+        List<Query> prohibitedQueries = null;
+        for (int i = 0; i < queries.size(); i++) {
+            Query q = queries.get(i);
+            boolean redundant = isUnsatisfiable(q) || !prohibited.add(unweighted(q));
+            if (!redundant && values != null && q instanceof BooleanQuery) {
+                Boolean value = values.get(((BooleanQuery) q).getField());
+                redundant = value != null && value != ((BooleanQuery) q).getBoolean();
+            }
+            if (redundant && prohibitedQueries == null) {
+                prohibitedQueries = new ArrayList<>(queries.subList(0, i));
+            }
+            if (!redundant && prohibitedQueries != null) {
+                prohibitedQueries.add(q);
+            }
+        }
+        return prohibitedQueries != null ? prohibitedQueries : queries;
+    }
+
+    private static boolean isSame(List<Query> a, List<Query> b) {
+        if (a.size() != b.size()) {
+            return false;
+        }
+        for (int i = 0; i < a.size(); i++) {
+            if (a.get(i) != b.get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int countPositiveQueries(List<Query> queries) {
+        int count = 0;
+        for (Query q : queries) {
+            if (!(q instanceof NotQuery)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the query without its weight.
+     */
+    private static Query unweighted(Query query) {
+        if (!query.hasWeight()) {
+            return query;
+        }
+        Query q = query.copy();
+        q.setWeight(Query.DEFAULT_WEIGHT);
+        return q;
+    }
+
+    /**
+     * Returns the original query if the sub-queries are its own, otherwise a
+     * copy of it with the sub-queries.
+     */
+    private static Query rewritten(CompoundQuery originalQuery, List<Query> queries) {
+        return queries == originalQuery.getQueries() ? originalQuery : originalQuery.copy(queries);
+    }
+
+    /**
+     * Returns the replacement for the query that can't match.
+     */
+    protected Query unsatisfiable(CompoundQuery query) {
+        return new LuceneQuery(new MatchNoDocsQuery("contradiction in " + query.getClass().getSimpleName()));
+    }
+}
+
+// END
@@ -0,0 +1,341 @@
+package com.andrewgilmartin.common.query.visitor;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import com.andrewgilmartin.common.query.AndQuery;
+import com.andrewgilmartin.common.query.BooleanQuery;
+import com.andrewgilmartin.common.query.CompoundQuery;
+import com.andrewgilmartin.common.query.FilterQuery;
+import com.andrewgilmartin.common.query.LuceneQuery;
+import com.andrewgilmartin.common.query.NotQuery;
+import com.andrewgilmartin.common.query.NumberQuery;
+import com.andrewgilmartin.common.query.NumberRangeQuery;
+import com.andrewgilmartin.common.query.OrQuery;
+import com.andrewgilmartin.common.query.PhraseQuery;
+import com.andrewgilmartin.common.query.Query;
+import com.andrewgilmartin.common.query.TermQuery;
+import com.andrewgilmartin.common.query.VerbatimQuery;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+
+/**
+ * Estimates the number of documents the query can match using the index's
+ * document frequencies and rewrites the query using the estimates. For
+ * example,
+ *
+ * <blockquote>
+ * Cost cost = new CostQueryVisitor(CostQueryVisitor.statistics(indexReader)).visitQuery(query);
+ * if (cost.getCost() == 0) {
+ * // no need to search
+ * }
+ * </blockquote>
+ *
+ * The estimate of a term, verbatim, or boolean query is the document
+ * frequency of its term. The estimate of a phrase query is that of its rarest
+ * term. The estimate of a number, number range, or Lucene query is all of the
+ * documents. The estimate of an and-query or filter-query is that of its
+ * rarest sub-query and of an or-query is the sum of its sub-queries.
+ * Not-queries only exclude documents and so don't contribute to their
+ * parent's estimate.
+ * <p>
+ * The rewriting
+ *
+ * <ul>
+ * <li>eliminates an and-query that has a sub-query that can't match, as the
+ * and-query can't match either;</li>
+ * <li>eliminates the sub-queries of an or-query or not-query that can't
+ * match, and eliminates an or-query left with fewer sub-queries than its
+ * minimum should match;</li>
+ * <li>orders the sub-queries of and-queries and or-queries from the rarest to
+ * the most common, with any not-queries last.</li>
+ * </ul>
+ *
+ * A query that can't match is rewritten to null with an estimate of zero. An
+ * unchanged query is returned as-is. Apply ReduceQueryVisitor to the rewritten
+ * query to reduce compound queries that are left with only one sub-query.
+ */
+public class CostQueryVisitor extends QueryVisitor<CostQueryVisitor.Cost, Void> {
+
+    /**
+     * The index statistics needed to estimate costs. An implementation can be
+     * backed by a live IndexReader or by a snapshot of its statistics.
+     */
+    public interface Statistics {
+
+        /**
+         * Returns the number of documents that contain the term in the
+         * field.
+         */
+        int docFreq(String field, String term);
+
+        /**
+         * Returns the number of documents in the index.
+         */
+        int maxDoc();
+    }
+
+    /**
+     * The rewritten query and its estimated cost. The costs of the rewritten
+     * query's sub-queries, if any, are in the order of the sub-queries.
+     */
+    public static final class Cost {
+
+        private final Query query;
+        private final long cost;
+        private final List<Cost> costs;
+
+        Cost(Query query, long cost, List<Cost> costs) {
+            this.query = query;
+            this.cost = cost;
+            this.costs = costs;
+        }
+
+        /**
+         * Returns the rewritten query or null if it can't match.
+         */
+        public Query getQuery() {
+            return query;
+        }
+
+        /**
+         * Returns the estimated number of documents matched.
+         */
+        public long getCost() {
+            return cost;
+        }
+
+        public List<Cost> getCosts() {
+            return costs;
+        }
+
+        @Override
+        public String toString() {
+            return String.valueOf(cost);
+        }
+    }
+
+    private static final Cost NONE = new Cost(null, 0, Collections.<Cost>emptyList());
+
+    private static final Comparator<Cost> RAREST_FIRST = new Comparator<Cost>() {
+        @Override
+        public int compare(Cost a, Cost b) {
+            boolean aNot = a.getQuery() instanceof NotQuery;
+            boolean bNot = b.getQuery() instanceof NotQuery;
+            if (aNot != bNot) {
+                return aNot ? 1 : -1;
+            }
+            return aNot ? 0 : Long.compare(a.getCost(), b.getCost());
+        }
+    };
+
+    private final Statistics statistics;
+
+    public CostQueryVisitor(Statistics statistics) {
+        if (statistics == null) {
+            throw new IllegalArgumentException("statistics must not be null");
+        }
+        this.statistics = statistics;
+    }
+
+    /**
+     * Returns statistics backed by the index reader.
+     */
+    public static Statistics statistics(final IndexReader indexReader) {
+        if (indexReader == null) {
+            throw new IllegalArgumentException("index reader must not be null");
+        }
+        return new Statistics() {
+            @Override
+            public int docFreq(String field, String term) {
+                try {
+                    return indexReader.docFreq(new Term(field, term));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+
+            @Override
+            public int maxDoc() {
+                return indexReader.maxDoc();
+            }
+        };
+    }
+
+    @Override
+    protected Cost visit(TermQuery query, Void data) {
+        return leaf(query, query.getField(), query.getTerm());
+    }
+
+    @Override
+    protected Cost visit(VerbatimQuery query, Void data) {
+        return leaf(query, query.getField(), query.getTerm());
+    }
+
+    /**
+     * The number may be indexed as a point, which has no document frequency,
+     * and so could match any document.
+     */
+    @Override
+    protected Cost visit(NumberQuery query, Void data) {
+        return query.getNumber() != null ? new Cost(query, statistics.maxDoc(), Collections.<Cost>emptyList()) : NONE;
+    }
+
+    /**
+     * The range could match any document.
+     */
+    @Override
+    protected Cost visit(NumberRangeQuery query, Void data) {
+        return new Cost(query, statistics.maxDoc(), Collections.<Cost>emptyList());
+    }
+
+    @Override
+    protected Cost visit(BooleanQuery query, Void data) {
+        return leaf(query, query.getField(), Boolean.toString(query.getBoolean()));
+    }
+
+    /**
+     * The phrase can't match more documents than its rarest term.
+     */
+    @Override
+    protected Cost visit(PhraseQuery query, Void data) {
+        long cost = statistics.maxDoc();
+        for (String term : query.getTerms()) {
+            cost = Math.min(cost, statistics.docFreq(query.getField(), term));
+            if (cost == 0) {
+                return NONE;
+            }
+        }
+        return new Cost(query, cost, Collections.<Cost>emptyList());
+    }
+
+    /**
+     * The Lucene query is opaque and so could match any document.
+     */
+    @Override
+    protected Cost visit(LuceneQuery query, Void data) {
+        return new Cost(query, statistics.maxDoc(), Collections.<Cost>emptyList());
+    }
+
+    @Override
+    protected Cost visit(AndQuery query, Void data) {
+        return cost(query, visitQueries(query, data));
+    }
+
+    @Override
+    protected Cost visit(OrQuery query, Void data) {
+        return cost(query, visitQueries(query, data));
+    }
+
+    @Override
+    protected Cost visit(NotQuery query, Void data) {
+        return cost(query, visitQueries(query, data));
+    }
+
+    @Override
+    protected Cost visit(FilterQuery query, Void data) {
+        return cost(query, visitQueries(query, data));
+    }
+
+    @Override
+    protected Cost leave(CompoundQuery query, List<Cost> costs, Void data) {
+        return cost(query, costs);
+    }
+
+    private List<Cost> visitQueries(CompoundQuery query, Void data) {
+        List<Query> queries = query.getQueries();
+        List<Cost> costs = new ArrayList<>(queries.size());
+        for (Query q : queries) {
+            costs.add(visit(q, data));
+        }
+        return costs;
+    }
+
+    private Cost leaf(Query query, String field, String term) {
+        if (term == null) {
+            return NONE;
+        }
+        int docFreq = statistics.docFreq(field, term);
+        return docFreq > 0 ? new Cost(query, docFreq, Collections.<Cost>emptyList()) : NONE;
+    }
+
+    /**
+     * Returns the cost of the compound query given the costs of its
+     * sub-queries, in the order of its sub-queries.
+     */
+    private Cost cost(CompoundQuery query, List<Cost> costs) {
+        boolean and = query instanceof AndQuery || query instanceof FilterQuery;
+        List<Query> queries = query.getQueries();
+        List<Cost> remainingCosts = new ArrayList<>(costs.size());
+        int positiveQueries = 0;
+        int remainingPositiveQueries = 0;
+        for (int i = 0; i < costs.size(); i++) {
+            Cost c = costs.get(i);
+            if (c == null) {
+                continue;
+            }
+            if (!(queries.get(i) instanceof NotQuery)) {
+                positiveQueries++;
+                if (c.getQuery() != null) {
+                    remainingPositiveQueries++;
+                }
+            }
+            if (c.getQuery() != null) {
+                remainingCosts.add(c);
+            } else if (and && !(queries.get(i) instanceof NotQuery)) {
+                // the conjunction can't match
+                return NONE;
+            }
+        }
+        if (remainingCosts.isEmpty()) {
+            return NONE;
+        }
+        if (query instanceof OrQuery && positiveQueries > 0 && remainingPositiveQueries == 0) {
+            // every optional sub-query can't match and the remaining
+            // not-queries would otherwise match all other documents
+            return NONE;
+        }
+        if (query instanceof OrQuery && ((OrQuery) query).hasMinimumShouldMatch()) {
+            int optional = 0;
+            for (Cost c : remainingCosts) {
+                if (!(c.getQuery() instanceof NotQuery)) {
+                    optional++;
+                }
+            }
+            if (optional < ((OrQuery) query).getMinimumShouldMatch()) {
+                // too few sub-queries can match to meet the minimum
+                return NONE;
+            }
+        }
+        if (!(query instanceof NotQuery)) {
+            Collections.sort(remainingCosts, RAREST_FIRST);
+        }
+
+        long maxDoc = statistics.maxDoc();
+        long cost = and ? maxDoc : 0;
+        for (Cost c : remainingCosts) {
+            if (c.getQuery() instanceof NotQuery) {
+                continue;
+            }
+            cost = and ? Math.min(cost, c.getCost()) : Math.min(maxDoc, cost + c.getCost());
+        }
+        if (query instanceof OrQuery && cost == 0) {
+            // only not-queries, which match all other documents
+            cost = maxDoc;
+        }
+
+        boolean changed = remainingCosts.size() != queries.size();
+        List<Query> remainingQueries = new ArrayList<>(remainingCosts.size());
+        for (int i = 0; i < remainingCosts.size(); i++) {
+            Query q = remainingCosts.get(i).getQuery();
+            remainingQueries.add(q);
+            changed |= q != queries.get(i);
+        }
+        return new Cost(changed ? query.copy(remainingQueries) : query, cost, remainingCosts);
+    }
+}
+
+// END
@@ -1,34 +1,42 @@
 package com.andrewgilmartin.common.query.visitor;
 
 import java.util.Iterator;
+import java.util.List;
 import com.andrewgilmartin.common.query.AndQuery;
 import com.andrewgilmartin.common.query.BooleanQuery;
+import com.andrewgilmartin.common.query.CompoundQuery;
+import com.andrewgilmartin.common.query.FilterQuery;
 import com.andrewgilmartin.common.query.LuceneQuery;
 import com.andrewgilmartin.common.query.NotQuery;
 import com.andrewgilmartin.common.query.NumberQuery;
+import com.andrewgilmartin.common.query.NumberRangeQuery;
 import com.andrewgilmartin.common.query.OrQuery;
 import com.andrewgilmartin.common.query.PhraseQuery;
 import com.andrewgilmartin.common.query.Query;
 import com.andrewgilmartin.common.query.TermQuery;
 import com.andrewgilmartin.common.query.VerbatimQuery;
 
-public class DebugQueryVisitor extends QueryVisitor {
-
-    private int nesting = 0;
+/**
+ * Describes the query tree. The description is accumulated in the data and so
+ * one visitor can be shared among threads.
+ */
+public class DebugQueryVisitor extends QueryVisitor<Object, Object> {
 
     @Override
     public String visitQuery(Query query) {
-        return visit(query, new StringBuilder()).toString();
+        Output output = new Output();
+        visit(query, output);
+        return output.buffer.toString();
     }
 
     @Override
     protected Object visit(TermQuery query, Object data) {
         append("(" + query.getClass().getName(), data);
-        nesting++;
+        ((Output) data).nesting++;
         append("(weight " + query.getWeight() + ")", data);
         append("(field " + query.getField() + ")", data);
         append("(term " + query.getTerm() + ")", data);
-        nesting--;
+        ((Output) data).nesting--;
         append(")", data);
         return data;
     }
@@ -36,11 +44,11 @@ public class DebugQueryVisitor extends QueryVisitor {
     @Override
     protected Object visit(VerbatimQuery query, Object data) {
         append("(" + query.getClass().getName(), data);
-        nesting++;
+        ((Output) data).nesting++;
         append("(weight " + query.getWeight() + ")", data);
         append("(field " + query.getField() + ")", data);
         append("(term " + query.getTerm() + ")", data);
-        nesting--;
+        ((Output) data).nesting--;
         append(")", data);
         return data;
     }
@@ -48,7 +56,7 @@ public class DebugQueryVisitor extends QueryVisitor {
     @Override
     protected Object visit(PhraseQuery query, Object data) {
         append("(" + query.getClass().getName(), data);
-        nesting++;
+        ((Output) data).nesting++;
         append("(weight " + query.getWeight() + ")", data);
         append("(field " + query.getField() + ")", data);
         Iterator<String> terms = query.getTerms().iterator();
@@ -56,7 +64,7 @@ public class DebugQueryVisitor extends QueryVisitor {
             append("// " + (i + 1), data);
             append("(term " + terms.next() + ")", data);
         }
-        nesting--;
+        ((Output) data).nesting--;
         append(")", data);
         return data;
     }
@@ -64,11 +72,24 @@ public class DebugQueryVisitor extends QueryVisitor {
     @Override
     protected Object visit(NumberQuery query, Object data) {
         append("(" + query.getClass().getName(), data);
-        nesting++;
+        ((Output) data).nesting++;
         append("(weight " + query.getWeight() + ")", data);
         append("(field " + query.getField() + ")", data);
         append("(number " + query.getNumber() + ")", data);
-        nesting--;
+        ((Output) data).nesting--;
+        append(")", data);
+        return data;
+    }
+
+    @Override
+    protected Object visit(NumberRangeQuery query, Object data) {
+        append("(" + query.getClass().getName(), data);
+        ((Output) data).nesting++;
+        append("(weight " + query.getWeight() + ")", data);
+        append("(field " + query.getField() + ")", data);
+        append("(lower " + query.getLower() + (query.isIncludeLower() ? " inclusive" : " exclusive") + ")", data);
+        append("(upper " + query.getUpper() + (query.isIncludeUpper() ? " inclusive" : " exclusive") + ")", data);
+        ((Output) data).nesting--;
         append(")", data);
         return data;
     }
@@ -76,18 +97,18 @@ public class DebugQueryVisitor extends QueryVisitor {
     @Override
     protected Object visit(BooleanQuery query, Object data) {
         append("(" + query.getClass().getName(), data);
-        nesting++;
+        ((Output) data).nesting++;
         append("(weight " + query.getWeight() + ")", data);
         append("(field " + query.getField() + ")", data);
         append("(boolean " + query.getBoolean() + ")", data);
-        nesting--;
+        ((Output) data).nesting--;
         append(")", data);
         return data;
     }
 
     @Override
     protected Object visit(LuceneQuery query, Object data) {
-        StringBuilder buffer = (StringBuilder) data;
+        StringBuilder buffer = ((Output) data).buffer;
         append("(" + query.getClass().getName(), data);
         buffer.append(query.getLuceneQuery().toString());
         append(")", data);
@@ -96,52 +117,65 @@ public class DebugQueryVisitor extends QueryVisitor {
 
     @Override
     protected Object visit(AndQuery query, Object data) {
-        append("(and " + query.getClass().getName(), data);
-        nesting++;
-        append("(weight " + query.getWeight() + ")", data);
-        Iterator<Query> queries = query.getQueries().iterator();
-        for (int i = 0; queries.hasNext(); i++) {
-            append("// " + (i + 1), data);
-            visit(queries.next(), data);
-        }
-        nesting--;
-        append(")", data);
-        return data;
+        return visitQueries(query, data);
+    }
+
+    @Override
+    protected Object visit(FilterQuery query, Object data) {
+        return visitQueries(query, data);
     }
 
     @Override
     protected Object visit(OrQuery query, Object data) {
-        append("(or " + query.getClass().getName(), data);
-        nesting++;
-        append("(weight " + query.getWeight() + ")", data);
-        Iterator<Query> queries = query.getQueries().iterator();
-        for (int i = 0; queries.hasNext(); i++) {
-            append("// " + (i + 1), data);
-            visit(queries.next(), data);
-        }
-        nesting--;
-        append(")", data);
-        return data;
+        return visitQueries(query, data);
     }
 
     @Override
     protected Object visit(NotQuery query, Object data) {
-        append("(not " + query.getClass().getName(), data);
-        nesting++;
+        return visitQueries(query, data);
+    }
+
+    @Override
+    protected Object enter(CompoundQuery query, Object data) {
+        String kind = query instanceof AndQuery ? "and"
+                : query instanceof FilterQuery ? "filter"
+                : query instanceof OrQuery ? "or"
+                : "not";
+        append("(" + kind + " " + query.getClass().getName(), data);
+        ((Output) data).nesting++;
         append("(weight " + query.getWeight() + ")", data);
-        Iterator<Query> queries = query.getQueries().iterator();
-        for (int i = 0; queries.hasNext(); i++) {
-            append("// " + (i + 1), data);
-            visit(queries.next(), data);
+        if (query instanceof OrQuery && ((OrQuery) query).hasMinimumShouldMatch()) {
+            append("(minimumShouldMatch " + ((OrQuery) query).getMinimumShouldMatch() + ")", data);
         }
-        nesting--;
+        return data;
+    }
+
+    @Override
+    protected void next(CompoundQuery query, int index, Object data) {
+        append("// " + (index + 1), data);
+    }
+
+    @Override
+    protected Object leave(CompoundQuery query, List<Object> results, Object data) {
+        ((Output) data).nesting--;
         append(")", data);
         return data;
     }
 
+    private Object visitQueries(CompoundQuery query, Object data) {
+        enter(query, data);
+        List<Query> queries = query.getQueries();
+        for (int i = 0; i < queries.size(); i++) {
+            next(query, i, data);
+            visit(queries.get(i), data);
+        }
+        return leave(query, null, data);
+    }
+
     private void append(String text, Object data) {
-        StringBuilder buffer = (StringBuilder) data;
-        for (int i = 0; i < nesting; i++) {
+        Output output = (Output) data;
+        StringBuilder buffer = output.buffer;
+        for (int i = 0; i < output.nesting; i++) {
             buffer.append("    ");
         }
         for (int i = 0; i < text.length(); i++) {
@@ -160,5 +194,11 @@ public class DebugQueryVisitor extends QueryVisitor {
         buffer.append("\n");
     }
 
+    private static class Output {
+
+        final StringBuilder buffer = new StringBuilder();
+        int nesting = 0;
+    }
+
     private final static char[] HEX_DIGITS = new char[]{'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'};
 }
@@ -0,0 +1,219 @@
+package com.andrewgilmartin.common.query.visitor;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefBuilder;
+import org.apache.lucene.util.BytesRefHash;
+
+/**
+ * The terms of a query grouped by field. The terms of each field are held as
+ * UTF-8 in a Lucene BytesRefHash and so can be given to Lucene, eg to
+ * TermsEnum.seekExact(), without conversion. Each term has an id, from 0 to
+ * the field's size less 1 in the order the terms were added, and with it its
+ * greatest effective weight and whether it was found in a phrase, outside of
+ * a phrase, or both. For example,
+ *
+ * <blockquote>
+ * FieldTerms fieldTerms = TermsGatheringVisitor.getFieldTerms(query);
+ * FieldTerms.Field title = fieldTerms.getField("title");
+ * BytesRef term = new BytesRef();
+ * for (int id = 0; id &lt; title.size(); id++) {
+ *     termsEnum.seekExact(title.getTerm(id, term));
+ *     ... title.getWeight(id) ...
+ * }
+ * </blockquote>
+ *
+ * A FieldTerms can be cleared and reused, keeping its storage. This is not
+ * thread safe. See TermsGatheringVisitor.
+ */
+public class FieldTerms {
+
+    private final Map<String, Field> fields = new LinkedHashMap<>();
+    private final BytesRefBuilder scratch = new BytesRefBuilder();
+
+    /**
+     * The terms of one field.
+     */
+    public static final class Field {
+
+        private static final byte PHRASE = 1;
+        private static final byte TERM = 2;
+
+        private final String name;
+        private final BytesRefHash terms = new BytesRefHash();
+        private float[] weights = new float[8];
+        private byte[] kinds = new byte[8];
+
+        Field(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int size() {
+            return terms.size();
+        }
+
+        /**
+         * Sets the spare to the UTF-8 bytes of the term with the id and
+         * returns it. The bytes are shared with the field and must not be
+         * changed.
+         */
+        public BytesRef getTerm(int id, BytesRef spare) {
+            checkId(id);
+            return terms.get(id, spare);
+        }
+
+        /**
+         * Returns the id of the term, or -1 if the field does not have the
+         * term.
+         */
+        public int find(BytesRef term) {
+            return terms.find(term);
+        }
+
+        /**
+         * Returns the greatest effective weight of the term, ie the product
+         * of its query's weight and the weights of the compound queries
+         * containing it, where an unweighted query has a weight of 1.
+         */
+        public float getWeight(int id) {
+            checkId(id);
+            return weights[id];
+        }
+
+        /**
+         * Was the term found in a phrase?
+         */
+        public boolean isPhrase(int id) {
+            checkId(id);
+            return (kinds[id] & PHRASE) != 0;
+        }
+
+        /**
+         * Was the term found outside of a phrase, ie in a term or verbatim
+         * query?
+         */
+        public boolean isTerm(int id) {
+            checkId(id);
+            return (kinds[id] & TERM) != 0;
+        }
+
+        int add(BytesRef term, float weight, boolean phrase) {
+            int id = terms.add(term);
+            if (id < 0) {
+                id = -id - 1;
+                weights[id] = Math.max(weights[id], weight);
+            } else {
+                if (id == weights.length) {
+                    weights = Arrays.copyOf(weights, id * 2);
+                    kinds = Arrays.copyOf(kinds, id * 2);
+                }
+                weights[id] = weight;
+                kinds[id] = 0;
+            }
+            kinds[id] |= phrase ? PHRASE : TERM;
+            return id;
+        }
+
+        void clear() {
+            terms.clear();
+            terms.reinit(); // clear() frees the hash's storage of term starts
+        }
+
+        private void checkId(int id) {
+            if (id < 0 || id >= terms.size()) {
+                throw new IllegalArgumentException("no term with id " + id + " in field " + name);
+            }
+        }
+    }
+
+    /**
+     * Adds the term of the field. Returns the term's id within the field.
+     */
+    public int add(String field, String term, float weight, boolean phrase) {
+        if (field == null) {
+            throw new IllegalArgumentException("field must not be null");
+        }
+        if (term == null) {
+            throw new IllegalArgumentException("term must not be null");
+        }
+        Field f = fields.get(field);
+        if (f == null) {
+            f = new Field(field);
+            fields.put(field, f);
+        }
+        scratch.copyChars(term);
+        return f.add(scratch.get(), weight, phrase);
+    }
+
+    /**
+     * Returns the fields that have terms, in the order they were first
+     * added.
+     */
+    public Set<String> getFields() {
+        Set<String> names = new LinkedHashSet<>();
+        for (Field field : fields.values()) {
+            if (field.size() != 0) {
+                names.add(field.getName());
+            }
+        }
+        return Collections.unmodifiableSet(names);
+    }
+
+    /**
+     * Returns the terms of the field, or null if the field has none.
+     */
+    public Field getField(String field) {
+        Field f = fields.get(field);
+        return f != null && f.size() != 0 ? f : null;
+    }
+
+    /**
+     * Returns the number of terms of all of the fields.
+     */
+    public int size() {
+        int size = 0;
+        for (Field field : fields.values()) {
+            size += field.size();
+        }
+        return size;
+    }
+
+    /**
+     * Removes all of the terms. The storage is kept for reuse.
+     */
+    public void clear() {
+        for (Field field : fields.values()) {
+            field.clear();
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder buffer = new StringBuilder("FieldTerms(");
+        BytesRef term = new BytesRef();
+        String separator = "";
+        for (Field field : fields.values()) {
+            for (int id = 0; id < field.size(); id++) {
+                buffer.append(separator)
+                        .append(field.getName()).append(':').append(field.getTerm(id, term).utf8ToString())
+                        .append('^').append(field.getWeight(id));
+                if (field.isPhrase(id)) {
+                    buffer.append(field.isTerm(id) ? "(term,phrase)" : "(phrase)");
+                }
+                separator = ", ";
+            }
+        }
+        return buffer.append(')').toString();
+    }
+}
+
+// END
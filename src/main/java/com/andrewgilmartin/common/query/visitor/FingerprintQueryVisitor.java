@@ -0,0 +1,352 @@
+package com.andrewgilmartin.common.query.visitor;
+
+import java.util.List;
+import com.andrewgilmartin.common.query.AndQuery;
+import com.andrewgilmartin.common.query.BooleanQuery;
+import com.andrewgilmartin.common.query.CompoundQuery;
+import com.andrewgilmartin.common.query.FilterQuery;
+import com.andrewgilmartin.common.query.LuceneQuery;
+import com.andrewgilmartin.common.query.NotQuery;
+import com.andrewgilmartin.common.query.NumberQuery;
+import com.andrewgilmartin.common.query.NumberRangeQuery;
+import com.andrewgilmartin.common.query.OrQuery;
+import com.andrewgilmartin.common.query.PhraseQuery;
+import com.andrewgilmartin.common.query.Query;
+import com.andrewgilmartin.common.query.QueryFingerprint;
+import com.andrewgilmartin.common.query.TermQuery;
+import com.andrewgilmartin.common.query.VerbatimQuery;
+
+/**
+ * Computes the fingerprint of a query. The fingerprints of equivalent queries
+ * are equal, where
+ *
+ * <ul>
+ * <li>the order of the sub-queries of and-, or-, not-, and filter-queries
+ * does not matter, eg (a AND b) is equivalent to (b AND a);</li>
+ * <li>weights of 0 and -0 are equivalent;</li>
+ * <li>a delegated query is equivalent to the query it delegates to;</li>
+ * <li>a subclass of a query class is equivalent to the query class.</li>
+ * </ul>
+ *
+ * The fields, terms, and all other values of the queries are included. The
+ * order of a phrase's terms matters. A Lucene query is included as its class
+ * name and hash code, and so the fingerprint of a query with a Lucene query
+ * is only as distinct as Lucene's hash codes and is only comparable within
+ * one JVM. The fingerprint is computed in one pass over the query that does
+ * not allocate, except for the fingerprint itself and the string forms of
+ * numbers other than the Java primitive wrappers, or, when traversed
+ * iteratively, one hash per level of nesting.
+ */
+public class FingerprintQueryVisitor extends QueryVisitor<Void, FingerprintQueryVisitor.Hash> {
+
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+
+    private static final int TERM = 1;
+    private static final int VERBATIM = 2;
+    private static final int PHRASE = 3;
+    private static final int NUMBER = 4;
+    private static final int BOOLEAN = 5;
+    private static final int LUCENE = 6;
+    private static final int AND = 7;
+    private static final int OR = 8;
+    private static final int NOT = 9;
+    private static final int NUMBER_RANGE = 10;
+    private static final int FILTER = 11;
+
+    /**
+     * The fingerprint being computed. Visiting a query sets the hash to the
+     * query's fingerprint.
+     */
+    public static final class Hash {
+
+        long h1;
+        long h2;
+        List<org.apache.lucene.search.Query> luceneQueries;
+        // the iterative traversal's combination of the sub-queries' fingerprints
+        Hash sub;
+        long sum1;
+        long sum2;
+        int count;
+        boolean pending;
+    }
+
+    /**
+     * Returns the fingerprint of the query, or null if the query is null.
+     */
+    public QueryFingerprint fingerprint(Query query) {
+        if (query == null) {
+            return null;
+        }
+        Hash hash = new Hash();
+        visit(query, hash);
+        return new QueryFingerprint(hash.h1, hash.h2);
+    }
+
+    /**
+     * Returns the fingerprint of the query and adds the Lucene queries of its
+     * Lucene sub-queries to the list, in the order visited.
+     */
+    QueryFingerprint fingerprint(Query query, List<org.apache.lucene.search.Query> luceneQueries) {
+        if (query == null) {
+            return null;
+        }
+        Hash hash = new Hash();
+        hash.luceneQueries = luceneQueries;
+        visit(query, hash);
+        return new QueryFingerprint(hash.h1, hash.h2);
+    }
+
+    @Override
+    protected Void visit(TermQuery query, Hash hash) {
+        begin(hash, TERM, query);
+        add(hash, query.getField());
+        add(hash, query.getTerm());
+        return null;
+    }
+
+    @Override
+    protected Void visit(VerbatimQuery query, Hash hash) {
+        begin(hash, VERBATIM, query);
+        add(hash, query.getField());
+        add(hash, query.getTerm());
+        return null;
+    }
+
+    @Override
+    protected Void visit(PhraseQuery query, Hash hash) {
+        begin(hash, PHRASE, query);
+        add(hash, query.getField());
+        List<String> terms = query.getTerms();
+        add(hash, terms.size());
+        for (int i = 0; i < terms.size(); i++) {
+            add(hash, terms.get(i));
+        }
+        return null;
+    }
+
+    @Override
+    protected Void visit(NumberQuery query, Hash hash) {
+        begin(hash, NUMBER, query);
+        add(hash, query.getField());
+        add(hash, query.getNumber());
+        return null;
+    }
+
+    @Override
+    protected Void visit(NumberRangeQuery query, Hash hash) {
+        begin(hash, NUMBER_RANGE, query);
+        add(hash, query.getField());
+        add(hash, query.getLower());
+        add(hash, query.getUpper());
+        add(hash, (query.isIncludeLower() ? 2 : 0) + (query.isIncludeUpper() ? 1 : 0));
+        return null;
+    }
+
+    @Override
+    protected Void visit(BooleanQuery query, Hash hash) {
+        begin(hash, BOOLEAN, query);
+        add(hash, query.getField());
+        add(hash, query.getBoolean() ? 1 : 0);
+        return null;
+    }
+
+    @Override
+    protected Void visit(LuceneQuery query, Hash hash) {
+        begin(hash, LUCENE, query);
+        org.apache.lucene.search.Query luceneQuery = query.getLuceneQuery();
+        if (luceneQuery != null) {
+            add(hash, luceneQuery.getClass().getName());
+            add(hash, luceneQuery.hashCode());
+        } else {
+            add(hash, (String) null);
+        }
+        if (hash.luceneQueries != null) {
+            hash.luceneQueries.add(luceneQuery);
+        }
+        return null;
+    }
+
+    @Override
+    protected Void visit(AndQuery query, Hash hash) {
+        return visitQueries(query, hash);
+    }
+
+    @Override
+    protected Void visit(OrQuery query, Hash hash) {
+        return visitQueries(query, hash);
+    }
+
+    @Override
+    protected Void visit(NotQuery query, Hash hash) {
+        return visitQueries(query, hash);
+    }
+
+    @Override
+    protected Void visit(FilterQuery query, Hash hash) {
+        return visitQueries(query, hash);
+    }
+
+    /**
+     * The sub-queries are fingerprinted with the hash's sub-hash, which is
+     * reused by each compound query at the same level of nesting.
+     */
+    @Override
+    protected Hash enter(CompoundQuery query, Hash hash) {
+        Hash sub = hash.sub;
+        if (sub == null) {
+            sub = hash.sub = new Hash();
+        }
+        sub.sum1 = 0;
+        sub.sum2 = 0;
+        sub.count = 0;
+        sub.pending = false;
+        sub.luceneQueries = hash.luceneQueries;
+        return sub;
+    }
+
+    @Override
+    protected void next(CompoundQuery query, int index, Hash sub) {
+        add(sub);
+    }
+
+    @Override
+    protected Void leave(CompoundQuery query, List<Void> results, Hash hash) {
+        Hash sub = hash.sub;
+        add(sub);
+        return combine(query, hash, sub.count, sub.sum1, sub.sum2);
+    }
+
+    /**
+     * The sub-queries' fingerprints are combined by addition and so their
+     * order does not matter, but their number does.
+     */
+    private Void visitQueries(CompoundQuery query, Hash hash) {
+        List<Query> queries = query.getQueries();
+        long sum1 = 0;
+        long sum2 = 0;
+        int count = 0;
+        for (int i = 0; i < queries.size(); i++) {
+            Query q = queries.get(i);
+            if (q != null) {
+                visit(q, hash);
+                sum1 += mix(hash.h1);
+                sum2 += mix(hash.h2 ^ C1);
+                count++;
+            }
+        }
+        return combine(query, hash, count, sum1, sum2);
+    }
+
+    /**
+     * Adds the fingerprint of the last sub-query visited with the sub-hash,
+     * if any, to the sub-hash's sums.
+     */
+    private static void add(Hash sub) {
+        if (sub.pending) {
+            sub.sum1 += mix(sub.h1);
+            sub.sum2 += mix(sub.h2 ^ C1);
+            sub.count++;
+            sub.pending = false;
+        }
+    }
+
+    /**
+     * Sets the hash to the fingerprint of the compound query given the
+     * number and sums of its sub-queries' fingerprints. An or-query's
+     * minimum should match of 0 or 1 is equivalent to none.
+     */
+    private static Void combine(CompoundQuery query, Hash hash, int count, long sum1, long sum2) {
+        begin(hash, kind(query), query);
+        add(hash, count);
+        add(hash, sum1);
+        add(hash, sum2);
+        if (query instanceof OrQuery && ((OrQuery) query).hasMinimumShouldMatch()) {
+            add(hash, ((OrQuery) query).getMinimumShouldMatch());
+        }
+        return null;
+    }
+
+    private static int kind(CompoundQuery query) {
+        if (query instanceof AndQuery) {
+            return AND;
+        }
+        if (query instanceof OrQuery) {
+            return OR;
+        }
+        if (query instanceof NotQuery) {
+            return NOT;
+        }
+        if (query instanceof FilterQuery) {
+            return FILTER;
+        }
+        throw new IllegalStateException("unknown query subclass " + query.getClass().getName());
+    }
+
+    private static void begin(Hash hash, int kind, Query query) {
+        hash.h1 = kind * C1;
+        hash.h2 = kind * C2;
+        hash.pending = true;
+        // an unweighted query is not equivalent to one with a weight of 1 as
+        // combined weights, eg ReduceQueryVisitor's, differ
+        float weight = query.getWeight();
+        if (weight == 0) {
+            weight = 0; // -0 is 0
+        }
+        add(hash, Float.floatToIntBits(weight));
+    }
+
+    private static void add(Hash hash, String value) {
+        if (value == null) {
+            add(hash, -1);
+            return;
+        }
+        int length = value.length();
+        add(hash, length);
+        int i = 0;
+        for (; i + 4 <= length; i += 4) {
+            add(hash, (long) value.charAt(i) << 48
+                    | (long) value.charAt(i + 1) << 32
+                    | (long) value.charAt(i + 2) << 16
+                    | value.charAt(i + 3));
+        }
+        if (i < length) {
+            long v = 0;
+            for (; i < length; i++) {
+                v = v << 16 | value.charAt(i);
+            }
+            add(hash, v);
+        }
+    }
+
+    private static void add(Hash hash, Number number) {
+        if (number instanceof Long || number instanceof Integer || number instanceof Short || number instanceof Byte) {
+            add(hash, 1);
+            add(hash, number.longValue());
+        } else if (number instanceof Double || number instanceof Float) {
+            add(hash, 2);
+            add(hash, Double.doubleToLongBits(number.doubleValue()));
+        } else {
+            add(hash, 3);
+            add(hash, number != null ? number.toString() : null);
+        }
+    }
+
+    private static void add(Hash hash, long value) {
+        long h1 = hash.h1 ^ mix(value * C1);
+        long h2 = hash.h2 ^ mix(value * C2);
+        hash.h1 = Long.rotateLeft(h1, 27) * 5 + h2 + 0x52dce729;
+        hash.h2 = Long.rotateLeft(h2, 31) * 5 + hash.h1 + 0x38495ab5;
+    }
+
+    /**
+     * The MurmurHash3 64 bit finalizer.
+     */
+    private static long mix(long value) {
+        value = (value ^ (value >>> 33)) * 0xff51afd7ed558ccdL;
+        value = (value ^ (value >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return value ^ (value >>> 33);
+    }
+}
+
+// END
@@ -0,0 +1,40 @@
+package com.andrewgilmartin.common.query.visitor;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+
+/**
+ * A term set held in a HashSet. This has the fastest lookups and is the best
+ * choice for small sets. See SortedTermSet for large ones.
+ */
+public class HashTermSet implements TermSet {
+
+    private final Set<String> terms = new HashSet<>();
+
+    public HashTermSet(Iterable<String> terms) {
+        if (terms != null) {
+            for (String term : terms) {
+                this.terms.add(term);
+            }
+        }
+    }
+
+    @Override
+    public boolean contains(String term) {
+        return terms.contains(term);
+    }
+
+    @Override
+    public int size() {
+        return terms.size();
+    }
+
+    @Override
+    public Iterator<String> iterator() {
+        return Collections.unmodifiableSet(terms).iterator();
+    }
+}
+
+// END
@@ -0,0 +1,276 @@
+package com.andrewgilmartin.common.query.visitor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import com.andrewgilmartin.common.query.Query;
+import com.andrewgilmartin.common.query.QueryFingerprint;
+import org.apache.lucene.util.Accountable;
+
+/**
+ * A bounded cache of compiled Lucene queries. A query is compiled by
+ * rewriting it, by default with ReduceQueryVisitor, and then building the
+ * Lucene query with LuceneQueryVisitor. Repeated queries are compiled once.
+ * Queries are cached by their fingerprint and so equivalent queries, eg (a
+ * AND b) and (b AND a), share a compiled query. See FingerprintQueryVisitor.
+ * The fingerprint of a Lucene query within the query is only its hash code
+ * and so a query with Lucene queries only shares the compiled query of a
+ * query with equal Lucene queries, in the same order. For example,
+ *
+ * <blockquote>
+ * LuceneQueryCache cache = new LuceneQueryCache(10000, 32 * 1024 * 1024);
+ * ...
+ * indexSearcher.search(cache.get(query), 10);
+ * </blockquote>
+ *
+ * The least recently used queries are evicted when either the number of
+ * cached queries or the estimated memory used by them exceeds the cache's
+ * bounds. They are evicted in a batch, to an eighth below the bounds, so that
+ * the scan of the entries that finds them is shared by the misses that next
+ * fill the cache. The memory used by a Lucene query that implements
+ * Accountable is its own estimate, otherwise it is DEFAULT_RAM_BYTES_USED. A
+ * Lucene query that uses more than the cache's memory is not cached.
+ *
+ * The cache can be shared by many threads. A hit does not lock; it only
+ * stamps the entry with the time of its use. The entries are locked only to
+ * evict. The bounds can be briefly exceeded while another thread evicts,
+ * and a concurrent miss of the same query can compile it twice. The
+ * rewriter and compiler are used by many threads at once and must not
+ * depend on anything but the query.
+ */
+public class LuceneQueryCache {
+
+    /**
+     * The memory assumed to be used by a Lucene query that does not estimate
+     * its own.
+     */
+    public static final long DEFAULT_RAM_BYTES_USED = 1024;
+
+    private final int maxSize;
+    private final long maxRamBytesUsed;
+    private final QueryVisitor<Query, Void> rewriter;
+    private final LuceneQueryVisitor compiler;
+    private final FingerprintQueryVisitor fingerprinter = new FingerprintQueryVisitor();
+
+    private final ConcurrentHashMap<QueryFingerprint, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicLong clock = new AtomicLong();
+    private final AtomicLong ramBytesUsed = new AtomicLong();
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder evictionCount = new LongAdder();
+    private final Object evictionLock = new Object();
+
+    /**
+     * The fraction of the bounds below which a batch of entries is evicted.
+     */
+    private static final int EVICTION_BATCH_DIVISOR = 8;
+
+    private static final class Entry {
+
+        final org.apache.lucene.search.Query luceneQuery;
+        final long ramBytesUsed;
+        // the Lucene queries within the cached query, which confirm a hit
+        final List<org.apache.lucene.search.Query> luceneQueries;
+        volatile long lastUsed;
+
+        Entry(org.apache.lucene.search.Query luceneQuery, long ramBytesUsed, List<org.apache.lucene.search.Query> luceneQueries, long lastUsed) {
+            this.luceneQuery = luceneQuery;
+            this.ramBytesUsed = ramBytesUsed;
+            this.luceneQueries = luceneQueries.isEmpty() ? Collections.<org.apache.lucene.search.Query>emptyList() : luceneQueries;
+            this.lastUsed = lastUsed;
+        }
+    }
+
+    public LuceneQueryCache(int maxSize, long maxRamBytesUsed) {
+        this(maxSize, maxRamBytesUsed, new ReduceQueryVisitor(), new LuceneQueryVisitor());
+    }
+
+    /**
+     * Creates a cache of at most maxSize queries using at most
+     * maxRamBytesUsed of memory. The rewriter, if not null, is applied before
+     * the compiler.
+     */
+    public LuceneQueryCache(int maxSize, long maxRamBytesUsed, QueryVisitor<Query, Void> rewriter, LuceneQueryVisitor compiler) {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("max size must not be negative");
+        }
+        if (maxRamBytesUsed < 0) {
+            throw new IllegalArgumentException("max ram bytes used must not be negative");
+        }
+        if (compiler == null) {
+            throw new IllegalArgumentException("compiler must not be null");
+        }
+        this.maxSize = maxSize;
+        this.maxRamBytesUsed = maxRamBytesUsed;
+        this.rewriter = rewriter;
+        this.compiler = compiler;
+    }
+
+    /**
+     * Returns the compiled Lucene query of the query. Returns null if the
+     * query is rewritten to null.
+     */
+    public org.apache.lucene.search.Query get(Query query) {
+        if (query == null) {
+            return null;
+        }
+        List<org.apache.lucene.search.Query> luceneQueries = new ArrayList<>(0);
+        QueryFingerprint key = fingerprinter.fingerprint(query, luceneQueries);
+        Entry entry = entries.get(key);
+        if (entry != null && entry.luceneQueries.equals(luceneQueries)) {
+            entry.lastUsed = clock.incrementAndGet();
+            hitCount.increment();
+            return entry.luceneQuery;
+        }
+        missCount.increment();
+        org.apache.lucene.search.Query luceneQuery = compile(query);
+        if (luceneQuery != null) {
+            put(key, luceneQuery, luceneQueries);
+        }
+        return luceneQuery;
+    }
+
+    private org.apache.lucene.search.Query compile(Query query) {
+        Query q = rewriter != null ? rewriter.visit(query, null) : query;
+        return q != null ? compiler.visit(q, null) : null;
+    }
+
+    private void put(QueryFingerprint key, org.apache.lucene.search.Query luceneQuery, List<org.apache.lucene.search.Query> luceneQueries) {
+        long entryRamBytesUsed = ramBytesUsed(luceneQuery);
+        if (entryRamBytesUsed > maxRamBytesUsed) {
+            // it would evict every other query and then itself
+            return;
+        }
+        Entry entry = new Entry(luceneQuery, entryRamBytesUsed, luceneQueries, clock.incrementAndGet());
+        if (entries.putIfAbsent(key, entry) != null) {
+            // another thread compiled it first, or the cached query has other
+            // Lucene queries with the same hash codes
+            return;
+        }
+        ramBytesUsed.addAndGet(entry.ramBytesUsed);
+        if (isFull()) {
+            evict();
+        }
+    }
+
+    private boolean isFull() {
+        return entries.size() > maxSize || ramBytesUsed.get() > maxRamBytesUsed;
+    }
+
+    /**
+     * Removes the least recently used entries until the cache is an eighth
+     * below its bounds.
+     */
+    private void evict() {
+        synchronized (evictionLock) {
+            if (!isFull()) {
+                // another thread evicted
+                return;
+            }
+            int lowSize = maxSize - maxSize / EVICTION_BATCH_DIVISOR;
+            long lowRamBytesUsed = maxRamBytesUsed - maxRamBytesUsed / EVICTION_BATCH_DIVISOR;
+            // the time of use is copied as a hit can change it while sorting
+            List<Candidate> candidates = new ArrayList<>(entries.size());
+            for (Map.Entry<QueryFingerprint, Entry> e : entries.entrySet()) {
+                candidates.add(new Candidate(e.getKey(), e.getValue()));
+            }
+            Collections.sort(candidates);
+            for (Candidate candidate : candidates) {
+                if (entries.size() <= lowSize && ramBytesUsed.get() <= lowRamBytesUsed) {
+                    break;
+                }
+                if (remove(candidate.key, candidate.entry)) {
+                    evictionCount.increment();
+                }
+            }
+        }
+    }
+
+    private static final class Candidate implements Comparable<Candidate> {
+
+        final QueryFingerprint key;
+        final Entry entry;
+        final long lastUsed;
+
+        Candidate(QueryFingerprint key, Entry entry) {
+            this.key = key;
+            this.entry = entry;
+            this.lastUsed = entry.lastUsed;
+        }
+
+        @Override
+        public int compareTo(Candidate other) {
+            return Long.compare(lastUsed, other.lastUsed);
+        }
+    }
+
+    private boolean remove(QueryFingerprint key, Entry entry) {
+        if (entries.remove(key, entry)) {
+            ramBytesUsed.addAndGet(-entry.ramBytesUsed);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the memory used by the Lucene query.
+     */
+    protected long ramBytesUsed(org.apache.lucene.search.Query luceneQuery) {
+        return luceneQuery instanceof Accountable ? ((Accountable) luceneQuery).ramBytesUsed() : DEFAULT_RAM_BYTES_USED;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long ramBytesUsed() {
+        return ramBytesUsed.get();
+    }
+
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.sum();
+    }
+
+    /**
+     * Returns the fraction of gets answered from the cache.
+     */
+    public double getHitRate() {
+        long hits = hitCount.sum();
+        long total = hits + missCount.sum();
+        return total != 0 ? (double) hits / total : 0;
+    }
+
+    /**
+     * Removes all of the cached queries. The statistics are not reset.
+     */
+    public void clear() {
+        synchronized (evictionLock) {
+            for (Map.Entry<QueryFingerprint, Entry> e : entries.entrySet()) {
+                remove(e.getKey(), e.getValue());
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "LuceneQueryCache(size=" + entries.size()
+                + ", ramBytesUsed=" + ramBytesUsed.get()
+                + ", hits=" + hitCount.sum()
+                + ", misses=" + missCount.sum()
+                + ", evictions=" + evictionCount.sum() + ")";
+    }
+}
+
+// END
@@ -0,0 +1,365 @@
+package com.andrewgilmartin.common.query.visitor;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import com.andrewgilmartin.common.query.AndQuery;
+import com.andrewgilmartin.common.query.CompoundQuery;
+import com.andrewgilmartin.common.query.FilterQuery;
+import com.andrewgilmartin.common.query.LuceneQuery;
+import com.andrewgilmartin.common.query.NotQuery;
+import com.andrewgilmartin.common.query.OrQuery;
+import com.andrewgilmartin.common.query.PhraseQuery;
+import com.andrewgilmartin.common.query.Query;
+import com.andrewgilmartin.common.query.TermQuery;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BoostQuery;
+import org.apache.lucene.search.ConstantScoreQuery;
+
+/**
+ * Converts a Lucene API query into a query tree. This is the inverse of
+ * LuceneQueryVisitor. The conversion uses Lucene's
+ * Query.visit(QueryVisitor) and converts
+ *
+ * <ul>
+ * <li>a Lucene term query to a term query;</li>
+ * <li>a Lucene phrase query without slop or position gaps to a phrase
+ * query;</li>
+ * <li>a Lucene boolean query of required, filter, and prohibited clauses to
+ * an and-query, with the filter clauses as a filter-query, of filter and
+ * prohibited clauses to a filter-query, of optional and prohibited clauses to
+ * an or-query, with the boolean query's minimum number should match, and of
+ * only prohibited clauses to a not-query;</li>
+ * <li>a Lucene constant score query to a filter-query;</li>
+ * <li>a Lucene boost query to its converted query weighted by the
+ * boost.</li>
+ * </ul>
+ *
+ * Any other Lucene query, including a boolean query with both required or
+ * filter clauses and optional clauses, or with a minimum number of optional
+ * clauses but no optional clauses, is converted to a LuceneQuery. The order
+ * of a Lucene boolean query's clauses is not preserved, as Lucene visits
+ * them in the order of its hash sets, and so the conversion is only
+ * equivalent to the original query. See FingerprintQueryVisitor.
+ *
+ * As a visitor this replaces each LuceneQuery in the query tree with its
+ * conversion and so it can be used as a stage of a QueryVisitorPipeline.
+ */
+public class LuceneQueryConverter extends QueryVisitorAdaptor<Void> {
+
+    /**
+     * Returns the query tree of the Lucene query, or null if the Lucene query
+     * is null.
+     */
+    public Query convert(org.apache.lucene.search.Query luceneQuery) {
+        if (luceneQuery == null) {
+            return null;
+        }
+        Collector collector = new Collector();
+        luceneQuery.visit(collector);
+        List<Query> queries = collector.getQueries();
+        return queries.size() == 1 ? queries.get(0) : new LuceneQuery(luceneQuery);
+    }
+
+    public Query visit(Query query) {
+        return visit(query, null);
+    }
+
+    /**
+     * Returns the conversion of the query's Lucene query weighted by the
+     * query's weight. Returns the query itself if its Lucene query can't be
+     * converted.
+     */
+    @Override
+    protected Query visit(LuceneQuery query, Void data) {
+        Query q = convert(query.getLuceneQuery());
+        if (q == null || (q instanceof LuceneQuery && ((LuceneQuery) q).getLuceneQuery() == query.getLuceneQuery())) {
+            return query;
+        }
+        if (query.hasWeight()) {
+            q.setWeight(q.hasWeight() ? q.getWeight() * query.getWeight() : query.getWeight());
+        }
+        return q;
+    }
+
+    private static Query convert(org.apache.lucene.search.Query luceneQuery, Term[] terms) {
+        if (luceneQuery instanceof org.apache.lucene.search.TermQuery && terms.length == 1) {
+            return new TermQuery(terms[0].field(), terms[0].text());
+        }
+        if (luceneQuery instanceof org.apache.lucene.search.PhraseQuery && isSimple((org.apache.lucene.search.PhraseQuery) luceneQuery)) {
+            String[] texts = new String[terms.length];
+            for (int i = 0; i < terms.length; i++) {
+                texts[i] = terms[i].text();
+            }
+            return new PhraseQuery(terms[0].field(), texts);
+        }
+        return new LuceneQuery(luceneQuery);
+    }
+
+    /**
+     * Is the phrase query of consecutive terms?
+     */
+    private static boolean isSimple(org.apache.lucene.search.PhraseQuery query) {
+        int[] positions = query.getPositions();
+        if (query.getSlop() != 0 || positions.length == 0) {
+            return false;
+        }
+        for (int i = 0; i < positions.length; i++) {
+            if (positions[i] != i) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Can the boolean query be represented by an and-, or-, not-, or filter-query?
+     */
+    private static boolean isSimple(org.apache.lucene.search.BooleanQuery query) {
+        if (query.clauses().isEmpty()) {
+            return false;
+        }
+        boolean required = false;
+        boolean optional = false;
+        for (BooleanClause clause : query.clauses()) {
+            switch (clause.getOccur()) {
+                case MUST:
+                case FILTER:
+                    required = true;
+                    break;
+                case SHOULD:
+                    optional = true;
+                    break;
+                default:
+                    break;
+            }
+        }
+        return !(required && optional) && (query.getMinimumNumberShouldMatch() == 0 || optional);
+    }
+
+    /**
+     * Collects the converted queries visited. A compound Lucene query is
+     * collected as the collector of its sub-queries and converted once
+     * Lucene's visit is done.
+     */
+    private static class Collector extends org.apache.lucene.search.QueryVisitor {
+
+        private final List<Object> items = new ArrayList<>();
+        private final Map<org.apache.lucene.search.Query, BooleanCollector> booleans = new IdentityHashMap<>();
+
+        @Override
+        public void consumeTerms(org.apache.lucene.search.Query query, Term... terms) {
+            items.add(convert(query, terms));
+        }
+
+        @Override
+        public void visitLeaf(org.apache.lucene.search.Query query) {
+            items.add(new LuceneQuery(query));
+        }
+
+        @Override
+        public org.apache.lucene.search.QueryVisitor getSubVisitor(BooleanClause.Occur occur, org.apache.lucene.search.Query parent) {
+            if (parent instanceof org.apache.lucene.search.BooleanQuery) {
+                // a boolean query asks for a sub-visitor for each occur of its clauses
+                BooleanCollector collector = booleans.get(parent);
+                if (collector == null || !collector.visit(occur)) {
+                    collector = new BooleanCollector((org.apache.lucene.search.BooleanQuery) parent);
+                    collector.visit(occur);
+                    booleans.put(parent, collector);
+                    items.add(collector);
+                }
+                return collector.getCollector(occur);
+            }
+            if (parent instanceof BoostQuery) {
+                BoostCollector collector = new BoostCollector((BoostQuery) parent);
+                items.add(collector);
+                return collector;
+            }
+            if (parent instanceof ConstantScoreQuery) {
+                FilterCollector collector = new FilterCollector((ConstantScoreQuery) parent);
+                items.add(collector);
+                return collector;
+            }
+            if (parent instanceof org.apache.lucene.search.PhraseQuery) {
+                // the phrase's terms are consumed by the sub-visitor
+                return this;
+            }
+            items.add(new LuceneQuery(parent));
+            return EMPTY_VISITOR;
+        }
+
+        List<Query> getQueries() {
+            List<Query> queries = new ArrayList<>(items.size());
+            for (Object item : items) {
+                queries.add(item instanceof Collector ? ((Collector) item).getQuery() : (Query) item);
+            }
+            return queries;
+        }
+
+        Query getQuery() {
+            throw new IllegalStateException("not a compound query collector");
+        }
+    }
+
+    /**
+     * Collects the required, optional, filter, and prohibited clauses of the
+     * boolean query with their own collectors. A boolean query that can't be
+     * converted is collected as a Lucene query and its clauses are not
+     * visited.
+     */
+    private static class BooleanCollector extends Collector {
+
+        private final org.apache.lucene.search.BooleanQuery query;
+        private final boolean simple;
+        private final Set<BooleanClause.Occur> visited = EnumSet.noneOf(BooleanClause.Occur.class);
+        private final Collector required = new ClauseCollector(this);
+        private final Collector optional = new ClauseCollector(this);
+        private final Collector filter = new ClauseCollector(this);
+        private final Collector prohibited = new ClauseCollector(this);
+
+        BooleanCollector(org.apache.lucene.search.BooleanQuery query) {
+            this.query = query;
+            this.simple = isSimple(query);
+        }
+
+        /**
+         * Notes the visit of the occur's clauses. Returns false if they were
+         * already visited, ie this is another visit of the same query.
+         */
+        boolean visit(BooleanClause.Occur occur) {
+            return visited.add(occur);
+        }
+
+        org.apache.lucene.search.QueryVisitor getCollector(BooleanClause.Occur occur) {
+            if (!simple) {
+                return EMPTY_VISITOR;
+            }
+            switch (occur) {
+                case SHOULD:
+                    return optional;
+                case FILTER:
+                    return filter;
+                case MUST_NOT:
+                    return prohibited;
+                default:
+                    return required;
+            }
+        }
+
+        @Override
+        Query getQuery() {
+            if (!simple) {
+                return new LuceneQuery(query);
+            }
+            List<Query> requiredQueries = required.getQueries();
+            List<Query> optionalQueries = optional.getQueries();
+            List<Query> filterQueries = filter.getQueries();
+            List<Query> prohibitedQueries = prohibited.getQueries();
+            NotQuery notQuery = new NotQuery();
+            for (Query q : prohibitedQueries) {
+                notQuery.addQuery(q);
+            }
+            FilterQuery filterQuery = new FilterQuery();
+            for (Query q : filterQueries) {
+                filterQuery.addQuery(q);
+            }
+            if (requiredQueries.isEmpty() && optionalQueries.isEmpty() && filterQueries.isEmpty()) {
+                return notQuery;
+            }
+            CompoundQuery compoundQuery
+                    = !requiredQueries.isEmpty() ? new AndQuery()
+                    : !filterQueries.isEmpty() ? filterQuery
+                    : new OrQuery();
+            if (compoundQuery instanceof OrQuery) {
+                ((OrQuery) compoundQuery).setMinimumShouldMatch(query.getMinimumNumberShouldMatch());
+            }
+            for (Query q : !requiredQueries.isEmpty() ? requiredQueries : optionalQueries) {
+                compoundQuery.addQuery(q);
+            }
+            if (!requiredQueries.isEmpty() && filterQuery.hasQueries()) {
+                compoundQuery.addQuery(filterQuery);
+            }
+            if (notQuery.hasQueries()) {
+                compoundQuery.addQuery(notQuery);
+            }
+            return compoundQuery;
+        }
+    }
+
+    /**
+     * Collects the clauses of one occur of a boolean query. The boolean
+     * query may instead ask the sub-visitor of its required clauses for the
+     * sub-visitors of its other clauses.
+     */
+    private static class ClauseCollector extends Collector {
+
+        private final BooleanCollector owner;
+
+        ClauseCollector(BooleanCollector owner) {
+            this.owner = owner;
+        }
+
+        @Override
+        public org.apache.lucene.search.QueryVisitor getSubVisitor(BooleanClause.Occur occur, org.apache.lucene.search.Query parent) {
+            if (parent == owner.query && owner.visit(occur)) {
+                return owner.getCollector(occur);
+            }
+            return super.getSubVisitor(occur, parent);
+        }
+    }
+
+    /**
+     * Collects the constant scoring query. Lucene's score of a constant score
+     * query is one, which is the same as an un-weighted filter-query.
+     */
+    private static class FilterCollector extends Collector {
+
+        private final ConstantScoreQuery query;
+
+        FilterCollector(ConstantScoreQuery query) {
+            this.query = query;
+        }
+
+        @Override
+        Query getQuery() {
+            List<Query> queries = getQueries();
+            if (queries.size() != 1) {
+                return new LuceneQuery(query);
+            }
+            Query q = queries.get(0);
+            if (FilterQuery.class == q.getClass() && !q.hasWeight()) {
+                return q;
+            }
+            return new FilterQuery(q);
+        }
+    }
+
+    /**
+     * Collects the boosted query.
+     */
+    private static class BoostCollector extends Collector {
+
+        private final BoostQuery query;
+
+        BoostCollector(BoostQuery query) {
+            this.query = query;
+        }
+
+        @Override
+        Query getQuery() {
+            List<Query> queries = getQueries();
+            if (queries.size() != 1) {
+                return new LuceneQuery(query);
+            }
+            Query q = queries.get(0);
+            q.setWeight(q.hasWeight() ? q.getWeight() * query.getBoost() : query.getBoost());
+            return q;
+        }
+    }
+}
+
+// END
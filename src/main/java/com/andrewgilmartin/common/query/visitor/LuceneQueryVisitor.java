@@ -1,23 +1,131 @@
 package com.andrewgilmartin.common.query.visitor;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import com.andrewgilmartin.common.query.AndQuery;
 import com.andrewgilmartin.common.query.BooleanQuery;
+import com.andrewgilmartin.common.query.CompoundQuery;
+import com.andrewgilmartin.common.query.FilterQuery;
 import com.andrewgilmartin.common.query.LuceneQuery;
 import com.andrewgilmartin.common.query.NotQuery;
 import com.andrewgilmartin.common.query.NumberQuery;
+import com.andrewgilmartin.common.query.NumberRangeQuery;
 import com.andrewgilmartin.common.query.OrQuery;
 import com.andrewgilmartin.common.query.PhraseQuery;
 import com.andrewgilmartin.common.query.Query;
 import com.andrewgilmartin.common.query.TermQuery;
 import com.andrewgilmartin.common.query.VerbatimQuery;
+import org.apache.lucene.document.DoublePoint;
+import org.apache.lucene.document.FloatPoint;
+import org.apache.lucene.document.IntPoint;
+import org.apache.lucene.document.LongPoint;
 import org.apache.lucene.search.BoostQuery;
+import org.apache.lucene.search.ConstantScoreQuery;
+import org.apache.lucene.search.MatchNoDocsQuery;
+import org.apache.lucene.search.SynonymQuery;
+import org.apache.lucene.search.TermInSetQuery;
+import org.apache.lucene.util.BytesRef;
 
 /**
  * Builds a Lucene API query. Recommend that you use ReduceQueryVisitor before
  * applying this visitor.
+ *
+ * An or-query with more sub-queries than BooleanQuery.getMaxClauseCount()
+ * allows is built as a balanced tree of nested Lucene boolean queries. When
+ * scoring is not needed, an or-query of many term or verbatim queries of the
+ * same field is built as a TermInSetQuery. When synonyms are enabled, an
+ * or-query of term queries of the same field, such as the variants added by
+ * VariantsQueryVistor, is built as a SynonymQuery, which scores the terms as
+ * one term.
+ *
+ * A number query of a field mapped to a numeric type with setNumericField()
+ * is built as an exact point query of that type, eg an IntPoint query, and a
+ * number range query as a point range query. A number query of an unmapped
+ * field is built as a term query of the number's string form. A number range
+ * query of an unmapped field is not supported.
+ *
+ * The sub-queries of an un-weighted filter-query within an and-query are
+ * added to the and-query's Lucene boolean query as FILTER clauses, which
+ * don't score and whose matches Lucene can cache. Any other filter-query is
+ * built as a ConstantScoreQuery.
  */
 public class LuceneQueryVisitor extends QueryVisitor<org.apache.lucene.search.Query, Void> {
 
+    private boolean scoring = true;
+    private int termInSetThreshold = 16;
+    private boolean synonyms = false;
+    private final Map<String, Class<? extends Number>> numericFields = new HashMap<>();
+
+    /**
+     * Will the query be used to score documents or only to match them? The
+     * default is to score.
+     */
+    public void setScoring(boolean scoring) {
+        this.scoring = scoring;
+    }
+
+    public boolean isScoring() {
+        return scoring;
+    }
+
+    /**
+     * The least number of same-field term and verbatim queries within an
+     * or-query for it to be built as a TermInSetQuery when not scoring. The
+     * default is 16.
+     */
+    public void setTermInSetThreshold(int termInSetThreshold) {
+        if (termInSetThreshold < 1) {
+            throw new IllegalArgumentException("term in set threshold must be positive");
+        }
+        this.termInSetThreshold = termInSetThreshold;
+    }
+
+    public int getTermInSetThreshold() {
+        return termInSetThreshold;
+    }
+
+    /**
+     * Should an or-query of two or more term queries of the same field be
+     * built as a SynonymQuery? Each term is boosted by its query's weight,
+     * which must be greater than 0 and at most 1, otherwise the or-query is
+     * built as a boolean query. The default is not to build synonyms.
+     */
+    public void setSynonyms(boolean synonyms) {
+        this.synonyms = synonyms;
+    }
+
+    public boolean isSynonyms() {
+        return synonyms;
+    }
+
+    /**
+     * Maps the field to the numeric type its numbers are indexed with. The
+     * type is one of Integer, Long, Float, or Double. A null type removes the
+     * mapping.
+     */
+    public void setNumericField(String field, Class<? extends Number> type) {
+        if (field == null) {
+            throw new IllegalArgumentException("field must not be null");
+        }
+        if (type == null) {
+            numericFields.remove(field);
+        } else if (type == Integer.class || type == Long.class || type == Float.class || type == Double.class) {
+            numericFields.put(field, type);
+        } else {
+            throw new IllegalArgumentException("unsupported numeric type " + type.getName() + " for field " + field);
+        }
+    }
+
+    /**
+     * Returns the numeric type of the field, or null if the field is not
+     * mapped.
+     */
+    public Class<? extends Number> getNumericField(String field) {
+        return numericFields.get(field);
+    }
+
     public org.apache.lucene.search.Query visit(Query query) {
         return (org.apache.lucene.search.Query) visit(query, null);
     }
@@ -31,11 +139,26 @@ public class LuceneQueryVisitor extends QueryVisitor<org.apache.lucene.search.Qu
 
     @Override
     protected org.apache.lucene.search.Query visit(NumberQuery query, Void data) {
+        Class<? extends Number> type = numericFields.get(query.getField());
+        if (type != null && query.getNumber() != null) {
+            // a number of a float field is the nearest float, eg 0.1 is 0.1f
+            Number number = type == Float.class ? (Number) query.getNumber().floatValue() : query.getNumber();
+            return boost(query, range(query.getField(), type, number, number, true, true));
+        }
         org.apache.lucene.index.Term t = new org.apache.lucene.index.Term(query.getField(), query.getNumber().toString());
         org.apache.lucene.search.TermQuery tq = new org.apache.lucene.search.TermQuery(t);
         return boost(query, tq);
     }
 
+    @Override
+    protected org.apache.lucene.search.Query visit(NumberRangeQuery query, Void data) {
+        Class<? extends Number> type = numericFields.get(query.getField());
+        if (type == null) {
+            throw new IllegalArgumentException("no numeric type for range field " + query.getField());
+        }
+        return boost(query, range(query.getField(), type, query.getLower(), query.getUpper(), query.isIncludeLower(), query.isIncludeUpper()));
+    }
+
     @Override
     protected org.apache.lucene.search.Query visit(VerbatimQuery query, Void data) {
         org.apache.lucene.index.Term t = new org.apache.lucene.index.Term(query.getField(), query.getTerm());
@@ -66,8 +189,10 @@ public class LuceneQueryVisitor extends QueryVisitor<org.apache.lucene.search.Qu
         for (Query q : query.getQueries()) {
             if (NotQuery.class == q.getClass()) {
                 build(builder, (NotQuery) q, data);
+            } else if (isInlineFilter(q)) {
+                build(builder, (FilterQuery) q, data);
             } else {
-                org.apache.lucene.search.Query luceneQuery = (org.apache.lucene.search.Query) visit(q, data);
+                org.apache.lucene.search.Query luceneQuery = visit(q, data);
                 builder.add(new org.apache.lucene.search.BooleanClause(luceneQuery, org.apache.lucene.search.BooleanClause.Occur.MUST));
             }
         }
@@ -76,23 +201,29 @@ public class LuceneQueryVisitor extends QueryVisitor<org.apache.lucene.search.Qu
 
     @Override
     protected org.apache.lucene.search.Query visit(OrQuery query, Void data) {
+        if (isTermInSet(query)) {
+            return boost(query, termInSet(query));
+        }
+        if (isSynonym(query)) {
+            return boost(query, synonym(query));
+        }
         org.apache.lucene.search.BooleanQuery.Builder builder = new org.apache.lucene.search.BooleanQuery.Builder();
+        List<org.apache.lucene.search.Query> shouldQueries = new ArrayList<>(query.getQueries().size());
         for (Query q : query.getQueries()) {
             if (NotQuery.class == q.getClass()) {
                 build(builder, (NotQuery) q, data);
             } else {
-                org.apache.lucene.search.Query luceneQuery = (org.apache.lucene.search.Query) visit(q, data);
-                builder.add(new org.apache.lucene.search.BooleanClause(luceneQuery, org.apache.lucene.search.BooleanClause.Occur.SHOULD));
+                shouldQueries.add(visit(q, data));
             }
         }
-        return boost(query, builder.build());
+        return boost(query, build(builder, shouldQueries, query).build());
     }
 
     @Override
     protected org.apache.lucene.search.Query visit(NotQuery query, Void data) {
         org.apache.lucene.search.BooleanQuery.Builder builder = new org.apache.lucene.search.BooleanQuery.Builder();
         for (Query q : query.getQueries()) {
-            org.apache.lucene.search.Query luceneQuery = (org.apache.lucene.search.Query) visit(q, data);
+            org.apache.lucene.search.Query luceneQuery = visit(q, data);
             builder.add(new org.apache.lucene.search.BooleanClause(luceneQuery, org.apache.lucene.search.BooleanClause.Occur.MUST_NOT));
         }
         return boost(query, builder.build());
@@ -100,18 +231,399 @@ public class LuceneQueryVisitor extends QueryVisitor<org.apache.lucene.search.Qu
 
     protected org.apache.lucene.search.BooleanQuery.Builder build(org.apache.lucene.search.BooleanQuery.Builder builder, NotQuery query, Void data) {
         for (Query q : query.getQueries()) {
-            org.apache.lucene.search.Query luceneQuery = boost(q, (org.apache.lucene.search.Query) visit(q, data));
+            org.apache.lucene.search.Query luceneQuery = visit(q, data);
             builder.add(new org.apache.lucene.search.BooleanClause(luceneQuery, org.apache.lucene.search.BooleanClause.Occur.MUST_NOT));
         }
         return builder;
     }
 
+    @Override
+    protected org.apache.lucene.search.Query visit(FilterQuery query, Void data) {
+        if (isSingleFilter(query)) {
+            org.apache.lucene.search.Query luceneQuery = visit(query.getQueries().get(0), data);
+            return boost(query, new ConstantScoreQuery(luceneQuery));
+        }
+        org.apache.lucene.search.BooleanQuery.Builder builder = new org.apache.lucene.search.BooleanQuery.Builder();
+        return boost(query, new ConstantScoreQuery(build(builder, query, data).build()));
+    }
+
+    protected org.apache.lucene.search.BooleanQuery.Builder build(org.apache.lucene.search.BooleanQuery.Builder builder, FilterQuery query, Void data) {
+        for (Query q : query.getQueries()) {
+            if (NotQuery.class == q.getClass()) {
+                build(builder, (NotQuery) q, data);
+            } else {
+                org.apache.lucene.search.Query luceneQuery = visit(q, data);
+                builder.add(new org.apache.lucene.search.BooleanClause(luceneQuery, org.apache.lucene.search.BooleanClause.Occur.FILTER));
+            }
+        }
+        return builder;
+    }
+
+    /**
+     * Is the query a filter-query whose sub-queries are added to its parent
+     * and-query's Lucene query?
+     */
+    private static boolean isInlineFilter(Query query) {
+        return FilterQuery.class == query.getClass() && !query.hasWeight();
+    }
+
+    /**
+     * Is the filter-query built as a ConstantScoreQuery of its one
+     * sub-query's Lucene query?
+     */
+    private static boolean isSingleFilter(FilterQuery query) {
+        return query.getQueries().size() == 1 && NotQuery.class != query.getQueries().get(0).getClass();
+    }
+
     @Override
     protected org.apache.lucene.search.Query visit(LuceneQuery query, Void data) {
         org.apache.lucene.search.Query q = query.getLuceneQuery();
         return boost(query, q);
     }
 
+    @Override
+    protected org.apache.lucene.search.Query leave(CompoundQuery query, List<org.apache.lucene.search.Query> results, Void data) {
+        if (query instanceof OrQuery && isTermInSet((OrQuery) query)) {
+            return boost(query, termInSet((OrQuery) query));
+        }
+        if (query instanceof OrQuery && isSynonym((OrQuery) query)) {
+            return boost(query, synonym((OrQuery) query));
+        }
+        if (query instanceof FilterQuery && isSingleFilter((FilterQuery) query)) {
+            return boost(query, new ConstantScoreQuery(results.get(0)));
+        }
+        org.apache.lucene.search.BooleanClause.Occur occur
+                = query instanceof AndQuery ? org.apache.lucene.search.BooleanClause.Occur.MUST
+                : query instanceof OrQuery ? org.apache.lucene.search.BooleanClause.Occur.SHOULD
+                : query instanceof FilterQuery ? org.apache.lucene.search.BooleanClause.Occur.FILTER
+                : org.apache.lucene.search.BooleanClause.Occur.MUST_NOT;
+        org.apache.lucene.search.BooleanQuery.Builder builder = new org.apache.lucene.search.BooleanQuery.Builder();
+        List<org.apache.lucene.search.Query> shouldQueries = new ArrayList<>();
+        List<Query> queries = query.getQueries();
+        for (int i = 0; i < queries.size(); i++) {
+            Query q = queries.get(i);
+            if (occur != org.apache.lucene.search.BooleanClause.Occur.MUST_NOT && NotQuery.class == q.getClass()) {
+                build(builder, (NotQuery) q, results.get(i));
+            } else if (occur == org.apache.lucene.search.BooleanClause.Occur.MUST && isInlineFilter(q)) {
+                build(builder, (FilterQuery) q, results.get(i));
+            } else if (occur == org.apache.lucene.search.BooleanClause.Occur.SHOULD) {
+                shouldQueries.add(results.get(i));
+            } else {
+                builder.add(new org.apache.lucene.search.BooleanClause(results.get(i), occur));
+            }
+        }
+        if (query instanceof OrQuery) {
+            build(builder, shouldQueries, (OrQuery) query);
+        }
+        if (query instanceof FilterQuery) {
+            return boost(query, new ConstantScoreQuery(builder.build()));
+        }
+        return boost(query, builder.build());
+    }
+
+    /**
+     * The iterative equivalent of build(). The Lucene query is that built for
+     * the not-query and its clauses are in the order of the not-query's
+     * sub-queries.
+     */
+    private org.apache.lucene.search.BooleanQuery.Builder build(org.apache.lucene.search.BooleanQuery.Builder builder, NotQuery query, org.apache.lucene.search.Query luceneQuery) {
+        org.apache.lucene.search.BooleanQuery booleanQuery = (org.apache.lucene.search.BooleanQuery) (query.hasWeight() ? ((BoostQuery) luceneQuery).getQuery() : luceneQuery);
+        List<Query> queries = query.getQueries();
+        List<org.apache.lucene.search.BooleanClause> clauses = booleanQuery.clauses();
+        for (int i = 0; i < queries.size(); i++) {
+            org.apache.lucene.search.Query q = clauses.get(i).getQuery();
+            builder.add(new org.apache.lucene.search.BooleanClause(q, org.apache.lucene.search.BooleanClause.Occur.MUST_NOT));
+        }
+        return builder;
+    }
+
+    /**
+     * The iterative equivalent of build(). The Lucene query is that built for
+     * the un-weighted filter-query.
+     */
+    private org.apache.lucene.search.BooleanQuery.Builder build(org.apache.lucene.search.BooleanQuery.Builder builder, FilterQuery query, org.apache.lucene.search.Query luceneQuery) {
+        org.apache.lucene.search.Query q = ((ConstantScoreQuery) luceneQuery).getQuery();
+        if (isSingleFilter(query)) {
+            builder.add(new org.apache.lucene.search.BooleanClause(q, org.apache.lucene.search.BooleanClause.Occur.FILTER));
+        } else {
+            for (org.apache.lucene.search.BooleanClause clause : ((org.apache.lucene.search.BooleanQuery) q).clauses()) {
+                builder.add(clause);
+            }
+        }
+        return builder;
+    }
+
+    /**
+     * Adds the or-query's optional Lucene queries to the builder. If there
+     * are more than the builder allows, along with the or-query's prohibited
+     * queries, then they are divided among nested boolean queries. An
+     * or-query with a minimum should match is not divided, as the minimum
+     * applies to all of its sub-queries, and it is built with Lucene's
+     * minimum number should match so that Lucene can skip the documents that
+     * can't match enough of the optional clauses.
+     */
+    private org.apache.lucene.search.BooleanQuery.Builder build(org.apache.lucene.search.BooleanQuery.Builder builder, List<org.apache.lucene.search.Query> shouldQueries, OrQuery query) {
+        int prohibitedQueries = 0;
+        for (Query q : query.getQueries()) {
+            if (NotQuery.class == q.getClass()) {
+                prohibitedQueries += ((NotQuery) q).getQueries().size();
+            }
+        }
+        int maxClauseCount = org.apache.lucene.search.BooleanQuery.getMaxClauseCount() - prohibitedQueries;
+        if (query.hasMinimumShouldMatch()) {
+            builder.setMinimumNumberShouldMatch(query.getMinimumShouldMatch());
+        } else if (maxClauseCount > 1) {
+            shouldQueries = split(shouldQueries, maxClauseCount);
+        }
+        for (org.apache.lucene.search.Query q : shouldQueries) {
+            builder.add(new org.apache.lucene.search.BooleanClause(q, org.apache.lucene.search.BooleanClause.Occur.SHOULD));
+        }
+        return builder;
+    }
+
+    /**
+     * Returns at most the max clause count of optional Lucene queries that
+     * together match the same documents as the given optional queries. Each
+     * returned query is either one of the given queries or a boolean query of
+     * a run of them. The runs are of near equal size and so the resulting
+     * tree is balanced.
+     */
+    private static List<org.apache.lucene.search.Query> split(List<org.apache.lucene.search.Query> queries, int maxClauseCount) {
+        if (queries.size() <= maxClauseCount) {
+            return queries;
+        }
+        int groups = Math.min(maxClauseCount, (queries.size() + maxClauseCount - 1) / maxClauseCount);
+        List<org.apache.lucene.search.Query> splitQueries = new ArrayList<>(groups);
+        for (int i = 0; i < groups; i++) {
+            List<org.apache.lucene.search.Query> group = queries.subList(
+                    (int) ((long) queries.size() * i / groups),
+                    (int) ((long) queries.size() * (i + 1) / groups));
+            org.apache.lucene.search.BooleanQuery.Builder builder = new org.apache.lucene.search.BooleanQuery.Builder();
+            for (org.apache.lucene.search.Query q : split(group, maxClauseCount)) {
+                builder.add(new org.apache.lucene.search.BooleanClause(q, org.apache.lucene.search.BooleanClause.Occur.SHOULD));
+            }
+            splitQueries.add(builder.build());
+        }
+        return splitQueries;
+    }
+
+    /**
+     * Can the or-query be built as a TermInSetQuery? It can if scoring is not
+     * needed, only one sub-query is required, and it has enough sub-queries,
+     * all of which are term or verbatim queries of the same field.
+     */
+    private boolean isTermInSet(OrQuery query) {
+        List<Query> queries = query.getQueries();
+        if (scoring || query.hasMinimumShouldMatch() || queries.size() < termInSetThreshold) {
+            return false;
+        }
+        String field = null;
+        for (Query q : queries) {
+            String f;
+            String t;
+            if (TermQuery.class == q.getClass()) {
+                f = ((TermQuery) q).getField();
+                t = ((TermQuery) q).getTerm();
+            } else if (VerbatimQuery.class == q.getClass()) {
+                f = ((VerbatimQuery) q).getField();
+                t = ((VerbatimQuery) q).getTerm();
+            } else {
+                return false;
+            }
+            if (f == null || t == null || (field != null && !field.equals(f))) {
+                return false;
+            }
+            field = f;
+        }
+        return true;
+    }
+
+    private static org.apache.lucene.search.Query termInSet(OrQuery query) {
+        String field = null;
+        List<BytesRef> terms = new ArrayList<>(query.getQueries().size());
+        for (Query q : query.getQueries()) {
+            if (q instanceof TermQuery) {
+                field = ((TermQuery) q).getField();
+                terms.add(new BytesRef(((TermQuery) q).getTerm()));
+            } else {
+                field = ((VerbatimQuery) q).getField();
+                terms.add(new BytesRef(((VerbatimQuery) q).getTerm()));
+            }
+        }
+        return new TermInSetQuery(field, terms);
+    }
+
+    /**
+     * Builds the point query of the field's numbers between the bounds. A null
+     * bound is open. The bounds are converted to the field's type, eg a lower
+     * bound of 1.5 of an integer field is 2. A range that includes no number
+     * of the type is built as a MatchNoDocsQuery.
+     */
+    private static org.apache.lucene.search.Query range(String field, Class<? extends Number> type, Number lower, Number upper, boolean includeLower, boolean includeUpper) {
+        if (type == Integer.class || type == Long.class) {
+            Long l = lowerLong(lower, includeLower);
+            Long u = upperLong(upper, includeUpper);
+            if (type == Integer.class) {
+                l = l != null ? Math.max(l, Integer.MIN_VALUE) : null;
+                u = u != null ? Math.min(u, Integer.MAX_VALUE) : null;
+            }
+            if (l == null || u == null || l > u) {
+                return new MatchNoDocsQuery("empty range of " + field);
+            }
+            if (type == Integer.class) {
+                return l.equals(u)
+                        ? IntPoint.newExactQuery(field, l.intValue())
+                        : IntPoint.newRangeQuery(field, l.intValue(), u.intValue());
+            }
+            return l.equals(u)
+                    ? LongPoint.newExactQuery(field, l)
+                    : LongPoint.newRangeQuery(field, l, u);
+        }
+        if (isNaN(lower) || isNaN(upper)) {
+            return new MatchNoDocsQuery("empty range of " + field);
+        }
+        if (type == Float.class) {
+            float l = lower != null ? lower.floatValue() : Float.NEGATIVE_INFINITY;
+            float u = upper != null ? upper.floatValue() : Float.POSITIVE_INFINITY;
+            // the nearest float can be on either side of the bound
+            if (lower != null && (includeLower ? l < lower.doubleValue() : l <= lower.doubleValue())) {
+                l = FloatPoint.nextUp(l);
+            }
+            if (upper != null && (includeUpper ? u > upper.doubleValue() : u >= upper.doubleValue())) {
+                u = FloatPoint.nextDown(u);
+            }
+            if (Float.compare(l, u) > 0) {
+                return new MatchNoDocsQuery("empty range of " + field);
+            }
+            return Float.compare(l, u) == 0
+                    ? FloatPoint.newExactQuery(field, l)
+                    : FloatPoint.newRangeQuery(field, l, u);
+        }
+        double l = lower != null ? lower.doubleValue() : Double.NEGATIVE_INFINITY;
+        double u = upper != null ? upper.doubleValue() : Double.POSITIVE_INFINITY;
+        if (lower != null && !includeLower) {
+            l = DoublePoint.nextUp(l);
+        }
+        if (upper != null && !includeUpper) {
+            u = DoublePoint.nextDown(u);
+        }
+        if (Double.compare(l, u) > 0) {
+            return new MatchNoDocsQuery("empty range of " + field);
+        }
+        return Double.compare(l, u) == 0
+                ? DoublePoint.newExactQuery(field, l)
+                : DoublePoint.newRangeQuery(field, l, u);
+    }
+
+    /**
+     * Returns the least long within the lower bound, or null if there is
+     * none.
+     */
+    private static Long lowerLong(Number bound, boolean inclusive) {
+        if (bound == null) {
+            return Long.MIN_VALUE;
+        }
+        if (isIntegral(bound)) {
+            return step(bound.longValue(), inclusive, 1);
+        }
+        double d = bound.doubleValue();
+        if (Double.isNaN(d) || d >= 0x1p63) {
+            return null;
+        }
+        if (d < -0x1p63) {
+            return Long.MIN_VALUE;
+        }
+        double c = Math.ceil(d);
+        long v = (long) c;
+        return step(v, inclusive || c != d, 1);
+    }
+
+    /**
+     * Returns the greatest long within the upper bound, or null if there is
+     * none.
+     */
+    private static Long upperLong(Number bound, boolean inclusive) {
+        if (bound == null) {
+            return Long.MAX_VALUE;
+        }
+        if (isIntegral(bound)) {
+            return step(bound.longValue(), inclusive, -1);
+        }
+        double d = bound.doubleValue();
+        if (Double.isNaN(d) || d < -0x1p63) {
+            return null;
+        }
+        if (d >= 0x1p63) {
+            return Long.MAX_VALUE;
+        }
+        double f = Math.floor(d);
+        long v = (long) f;
+        return step(v, inclusive || f != d, -1);
+    }
+
+    /**
+     * Returns the value if it is within the bound, otherwise the next value
+     * in the direction, or null if there is none.
+     */
+    private static Long step(long value, boolean within, int direction) {
+        if (within) {
+            return value;
+        }
+        if (value == (direction > 0 ? Long.MAX_VALUE : Long.MIN_VALUE)) {
+            return null;
+        }
+        return value + direction;
+    }
+
+    private static boolean isIntegral(Number number) {
+        return number instanceof Long || number instanceof Integer || number instanceof Short || number instanceof Byte;
+    }
+
+    private static boolean isNaN(Number number) {
+        return number != null && Double.isNaN(number.doubleValue());
+    }
+
+    /**
+     * Can the or-query be built as a SynonymQuery? It can if synonyms are
+     * enabled, only one sub-query is required, and it has two or more
+     * sub-queries, all of which are term queries of the same field weighted
+     * no more than 1.
+     */
+    private boolean isSynonym(OrQuery query) {
+        List<Query> queries = query.getQueries();
+        if (!synonyms || query.hasMinimumShouldMatch() || queries.size() < 2) {
+            return false;
+        }
+        String field = null;
+        for (Query q : queries) {
+            if (TermQuery.class != q.getClass()) {
+                return false;
+            }
+            TermQuery t = (TermQuery) q;
+            if (t.getField() == null || t.getTerm() == null || (field != null && !field.equals(t.getField()))) {
+                return false;
+            }
+            if (t.hasWeight() && !(t.getWeight() > 0 && t.getWeight() <= 1)) {
+                return false;
+            }
+            field = t.getField();
+        }
+        return true;
+    }
+
+    private static org.apache.lucene.search.Query synonym(OrQuery query) {
+        SynonymQuery.Builder builder = null;
+        for (Query q : query.getQueries()) {
+            TermQuery t = (TermQuery) q;
+            if (builder == null) {
+                builder = new SynonymQuery.Builder(t.getField());
+            }
+            org.apache.lucene.index.Term term = new org.apache.lucene.index.Term(t.getField(), t.getTerm());
+            builder.addTerm(term, t.hasWeight() ? t.getWeight() : 1);
+        }
+        return builder.build();
+    }
+
     private org.apache.lucene.search.Query boost(Query query, org.apache.lucene.search.Query luceneQuery) {
         return query.hasWeight() ? new BoostQuery(luceneQuery, query.getWeight()) : luceneQuery;
     }
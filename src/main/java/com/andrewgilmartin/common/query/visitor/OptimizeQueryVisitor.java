@@ -0,0 +1,213 @@
+package com.andrewgilmartin.common.query.visitor;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import com.andrewgilmartin.common.query.AndQuery;
+import com.andrewgilmartin.common.query.CompoundQuery;
+import com.andrewgilmartin.common.query.FilterQuery;
+import com.andrewgilmartin.common.query.NotQuery;
+import com.andrewgilmartin.common.query.OrQuery;
+import com.andrewgilmartin.common.query.Query;
+
+/**
+ * Reduces the query and then removes its algebraic redundancies. Each
+ * redundant clause would otherwise become another Lucene scorer. In addition
+ * to the reductions of ReduceQueryVisitor,
+ *
+ * <ul>
+ * <li>un-weighted and-queries within an and-query, un-weighted or-queries
+ * within an or-query, and un-weighted filter-queries within a filter-query,
+ * are flattened into their parent, eg (a AND (b AND c))
+ * becomes (a AND b AND c), and NOT ((a OR b)) becomes NOT (a b);</li>
+ * <li>duplicate sub-queries are removed, eg (a OR b OR a) becomes (a OR
+ * b);</li>
+ * <li>absorbed sub-queries are removed, eg (a OR (a AND b)) becomes a and (a
+ * AND (a OR b)) becomes a;</li>
+ * <li>un-weighted sibling not-queries are merged, eg (a AND NOT (b) AND NOT
+ * (c)) becomes (a AND NOT (b c)).</li>
+ * </ul>
+ *
+ * An or-query with a minimum should match is neither flattened nor has its
+ * duplicate or absorbed sub-queries removed, as each of its sub-queries
+ * counts towards the minimum. Sub-queries are compared using Query.equals()
+ * and so weights must match too. Note that removing duplicate and absorbed sub-queries does not change
+ * what a query matches but does change how matches are scored.
+ */
+public class OptimizeQueryVisitor extends ReduceQueryVisitor {
+
+    @Override
+    protected Query reduce(AndQuery originalQuery, List<Query> reducedQueries) {
+        List<Query> queries = flatten(originalQuery, reducedQueries);
+        queries = mergeNotQueries(queries);
+        queries = removeDuplicates(queries);
+        queries = removeAbsorbed(queries, OrQuery.class);
+        return super.reduce(originalQuery, queries);
+    }
+
+    @Override
+    protected Query reduce(OrQuery originalQuery, List<Query> reducedQueries) {
+        if (originalQuery.hasMinimumShouldMatch()) {
+            // each sub-query counts towards the minimum
+            return super.reduce(originalQuery, mergeNotQueries(reducedQueries));
+        }
+        List<Query> queries = flatten(originalQuery, reducedQueries);
+        queries = mergeNotQueries(queries);
+        queries = removeDuplicates(queries);
+        queries = removeAbsorbed(queries, AndQuery.class);
+        return super.reduce(originalQuery, queries);
+    }
+
+    @Override
+    protected Query reduce(FilterQuery originalQuery, List<Query> reducedQueries) {
+        List<Query> queries = flatten(originalQuery, reducedQueries);
+        queries = mergeNotQueries(queries);
+        queries = removeDuplicates(queries);
+        queries = removeAbsorbed(queries, OrQuery.class);
+        return super.reduce(originalQuery, queries);
+    }
+
+    @Override
+    protected Query reduce(NotQuery originalQuery, List<Query> reducedQueries) {
+        // NOT (a OR b) is NOT (a b)
+        List<Query> queries = flattenInto(originalQuery, reducedQueries, OrQuery.class);
+        queries = removeDuplicates(queries);
+        return super.reduce(originalQuery, queries);
+    }
+
+    /**
+     * Replace the un-weighted sub-queries of the same class as the compound
+     * query with their own sub-queries. An or-query's or-query that has a
+     * not-query is not flattened as its not-query only applies to its
+     * siblings.
+     */
+    private List<Query> flatten(CompoundQuery originalQuery, List<Query> queries) {
+        return flattenInto(originalQuery, queries, originalQuery.getClass());
+    }
+
+    private List<Query> flattenInto(CompoundQuery originalQuery, List<Query> queries, Class<? extends CompoundQuery> flattenedClass) {
+        List<Query> flattenedQueries = null;
+        for (int i = 0; i < queries.size(); i++) {
+            Query query = queries.get(i);
+            boolean flatten = query.getClass() == flattenedClass
+                    && !query.hasWeight()
+                    && !(query instanceof OrQuery && ((OrQuery) query).hasMinimumShouldMatch())
+                    && (OrQuery.class != flattenedClass || !hasNotQuery((CompoundQuery) query));
+            if (flatten && flattenedQueries == null) {
+                flattenedQueries = new ArrayList<>(queries.subList(0, i));
+            }
+            if (flatten) {
+                flattenedQueries.addAll(((CompoundQuery) query).getQueries());
+            } else if (flattenedQueries != null) {
+                flattenedQueries.add(query);
+            }
+        }
+        return flattenedQueries != null ? flattenedQueries : queries;
+    }
+
+    /**
+     * Merge the un-weighted not-queries into the first of them.
+     */
+    private List<Query> mergeNotQueries(List<Query> queries) {
+        int first = -1;
+        int count = 0;
+        for (int i = 0; i < queries.size(); i++) {
+            if (isMergeableNotQuery(queries.get(i))) {
+                if (first == -1) {
+                    first = i;
+                }
+                count++;
+            }
+        }
+        if (count < 2) {
+            return queries;
+        }
+        List<Query> notQueries = new ArrayList<>();
+        List<Query> mergedQueries = new ArrayList<>(queries.size() - count + 1);
+        for (int i = 0; i < queries.size(); i++) {
+            Query query = queries.get(i);
+            if (isMergeableNotQuery(query)) {
+                notQueries.addAll(((NotQuery) query).getQueries());
+                if (i == first) {
+                    mergedQueries.add(null); // placeholder for the merged query
+                }
+            } else {
+                mergedQueries.add(query);
+            }
+        }
+        NotQuery mergedQuery = new NotQuery();
+        for (Query q : removeDuplicates(notQueries)) {
+            mergedQuery.addQuery(q);
+        }
+        mergedQueries.set(mergedQueries.indexOf(null), mergedQuery);
+        return mergedQueries;
+    }
+
+    private List<Query> removeDuplicates(List<Query> queries) {
+        if (queries.size() < 2) {
+            return queries;
+        }
+        Set<Query> uniqueQueries = new LinkedHashSet<>(queries);
+        return uniqueQueries.size() != queries.size() ? new ArrayList<>(uniqueQueries) : queries;
+    }
+
+    /**
+     * Remove the sub-queries of the absorbing class that have a sub-query
+     * that is also a sibling, ie, the sibling absorbs the sub-query. Not
+     * queries neither absorb nor are absorbed. An or-query with a not-query
+     * or a minimum should match is not absorbed, eg (a AND (a OR NOT (c)))
+     * is (a AND NOT (c)), not a.
+     */
+    private List<Query> removeAbsorbed(List<Query> queries, Class<? extends CompoundQuery> absorbedClass) {
+        Set<Query> absorbers = null;
+        List<Query> remainingQueries = null;
+        for (int i = 0; i < queries.size(); i++) {
+            Query query = queries.get(i);
+            boolean absorbed = false;
+            if (query.getClass() == absorbedClass && isAbsorbable((CompoundQuery) query)) {
+                if (absorbers == null) {
+                    absorbers = new HashSet<>();
+                    for (Query q : queries) {
+                        if (!(q instanceof NotQuery)) {
+                            absorbers.add(q);
+                        }
+                    }
+                }
+                for (Query q : ((CompoundQuery) query).getQueries()) {
+                    if (!(q instanceof NotQuery) && absorbers.contains(q)) {
+                        absorbed = true;
+                        break;
+                    }
+                }
+            }
+            if (absorbed && remainingQueries == null) {
+                remainingQueries = new ArrayList<>(queries.subList(0, i));
+            }
+            if (!absorbed && remainingQueries != null) {
+                remainingQueries.add(query);
+            }
+        }
+        return remainingQueries != null ? remainingQueries : queries;
+    }
+
+    private static boolean isAbsorbable(CompoundQuery query) {
+        return !(query instanceof OrQuery) || !(((OrQuery) query).hasMinimumShouldMatch() || hasNotQuery(query));
+    }
+
+    private static boolean isMergeableNotQuery(Query query) {
+        return NotQuery.class == query.getClass() && !query.hasWeight();
+    }
+
+    private static boolean hasNotQuery(CompoundQuery query) {
+        for (Query q : query.getQueries()) {
+            if (q instanceof NotQuery) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
+
+// END
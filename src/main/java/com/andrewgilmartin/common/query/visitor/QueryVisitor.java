@@ -1,10 +1,18 @@
 package com.andrewgilmartin.common.query.visitor;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
 import com.andrewgilmartin.common.query.AndQuery;
 import com.andrewgilmartin.common.query.BooleanQuery;
+import com.andrewgilmartin.common.query.CompoundQuery;
+import com.andrewgilmartin.common.query.FilterQuery;
+import com.andrewgilmartin.common.query.DelegatedQuery;
 import com.andrewgilmartin.common.query.LuceneQuery;
 import com.andrewgilmartin.common.query.NotQuery;
 import com.andrewgilmartin.common.query.NumberQuery;
+import com.andrewgilmartin.common.query.NumberRangeQuery;
 import com.andrewgilmartin.common.query.OrQuery;
 import com.andrewgilmartin.common.query.PhraseQuery;
 import com.andrewgilmartin.common.query.Query;
@@ -13,42 +21,44 @@ import com.andrewgilmartin.common.query.VerbatimQuery;
 
 public abstract class QueryVisitor<RESULT,DATA> {
 
+    private boolean iterative = false;
+
     public RESULT visitQuery(Query query) {
         return visit(query, null);
     }
 
+    /**
+     * Should compound queries be traversed using an explicit stack rather
+     * than by recursion? An iterative traversal can visit queries nested far
+     * deeper than the thread's stack allows. The default is to recurse. Only
+     * visitors that implement leave() support iterative traversal.
+     */
+    public void setIterative(boolean iterative) {
+        this.iterative = iterative;
+    }
+
+    public boolean isIterative() {
+        return iterative;
+    }
+
+    /**
+     * Dispatches the query to the visit method for its class. The dispatch for
+     * each query class is looked up once and then remembered so that visiting
+     * a node costs a single table lookup rather than a chain of instanceof
+     * tests. A DelegatedQuery is visited as the query it delegates to.
+     */
     protected RESULT visit(Query query, DATA data) {
         if (query == null) {
             return null;
         }
-        if (query instanceof PhraseQuery) {
-            return visit((PhraseQuery) query, data);
-        }
-        if (query instanceof TermQuery) {
-            return visit((TermQuery) query, data);
-        }
-        if (query instanceof VerbatimQuery) {
-            return visit((VerbatimQuery) query, data);
-        }
-        if (query instanceof NumberQuery) {
-            return visit((NumberQuery) query, data);
-        }
-        if (query instanceof BooleanQuery) {
-            return visit((BooleanQuery) query, data);
-        }
-        if (query instanceof LuceneQuery) {
-            return visit((LuceneQuery) query, data);
+        if (iterative && query instanceof CompoundQuery) {
+            return walk((CompoundQuery) query, data);
         }
-        if (query instanceof AndQuery) {
-            return visit((AndQuery) query, data);
+        Dispatch dispatch = DISPATCHES.get(query.getClass());
+        if (dispatch == null) {
+            throw new IllegalStateException("unknown query subclass " + query.getClass().getName());
         }
-        if (query instanceof OrQuery) {
-            return visit((OrQuery) query, data);
-        }
-        if (query instanceof NotQuery) {
-            return visit((NotQuery) query, data);
-        }
-        throw new IllegalStateException("unknown query subclass");
+        return dispatch.visit(this, query, data);
     }
 
     protected abstract RESULT visit(TermQuery query, DATA data);
@@ -59,6 +69,8 @@ public abstract class QueryVisitor<RESULT,DATA> {
 
     protected abstract RESULT visit(NumberQuery query, DATA data);
 
+    protected abstract RESULT visit(NumberRangeQuery query, DATA data);
+
     protected abstract RESULT visit(BooleanQuery query, DATA data);
 
     protected abstract RESULT visit(LuceneQuery query, DATA data);
@@ -68,4 +80,182 @@ public abstract class QueryVisitor<RESULT,DATA> {
     protected abstract RESULT visit(OrQuery query, DATA data);
 
     protected abstract RESULT visit(NotQuery query, DATA data);
+
+    protected abstract RESULT visit(FilterQuery query, DATA data);
+
+    /**
+     * Called by the iterative traversal before the sub-queries of the
+     * compound query are visited. Returns the data with which to visit the
+     * sub-queries. The default is to return the given data.
+     */
+    protected DATA enter(CompoundQuery query, DATA data) {
+        return data;
+    }
+
+    /**
+     * Called by the iterative traversal before the sub-query at the given
+     * index is visited. The data is that returned by enter(). The default is
+     * to do nothing.
+     */
+    protected void next(CompoundQuery query, int index, DATA data) {
+        // empty
+    }
+
+    /**
+     * Called by the iterative traversal after the sub-queries of the compound
+     * query have been visited. The results are those of the sub-queries, in
+     * order, and the data is that given to enter(). Returns the result for the
+     * compound query. This must match the result of the recursive visit.
+     */
+    protected RESULT leave(CompoundQuery query, List<RESULT> results, DATA data) {
+        throw new UnsupportedOperationException(getClass().getName() + " does not support iterative traversal");
+    }
+
+    /**
+     * Visits the compound query and its sub-queries using an explicit stack.
+     * Only compound sub-queries are stacked; all other queries are visited as
+     * usual.
+     */
+    private RESULT walk(CompoundQuery root, DATA data) {
+        Deque<Frame<RESULT, DATA>> stack = new ArrayDeque<>();
+        stack.push(new Frame<>(root, data, enter(root, data)));
+        for (;;) {
+            Frame<RESULT, DATA> frame = stack.peek();
+            List<Query> queries = frame.query.getQueries();
+            int index = frame.results.size();
+            if (index < queries.size()) {
+                Query query = queries.get(index);
+                next(frame.query, index, frame.subdata);
+                if (query instanceof CompoundQuery) {
+                    CompoundQuery compoundQuery = (CompoundQuery) query;
+                    stack.push(new Frame<>(compoundQuery, frame.subdata, enter(compoundQuery, frame.subdata)));
+                } else {
+                    frame.results.add(visit(query, frame.subdata));
+                }
+            } else {
+                stack.pop();
+                RESULT result = leave(frame.query, frame.results, frame.data);
+                if (stack.isEmpty()) {
+                    return result;
+                }
+                stack.peek().results.add(result);
+            }
+        }
+    }
+
+    private static class Frame<RESULT, DATA> {
+
+        final CompoundQuery query;
+        final DATA data;
+        final DATA subdata;
+        final List<RESULT> results;
+
+        Frame(CompoundQuery query, DATA data, DATA subdata) {
+            this.query = query;
+            this.data = data;
+            this.subdata = subdata;
+            this.results = new ArrayList<>(query.getQueries().size());
+        }
+    }
+
+    /**
+     * The visit method to use for a query class. The order of the constants
+     * is the order in which the query classes are tested when a query class is
+     * first seen, ie, a subclass of PhraseQuery is dispatched as a PhraseQuery.
+     */
+    private enum Dispatch {
+
+        PHRASE(PhraseQuery.class) {
+            @Override
+            <R, D> R visit(QueryVisitor<R, D> visitor, Query query, D data) {
+                return visitor.visit((PhraseQuery) query, data);
+            }
+        },
+        TERM(TermQuery.class) {
+            @Override
+            <R, D> R visit(QueryVisitor<R, D> visitor, Query query, D data) {
+                return visitor.visit((TermQuery) query, data);
+            }
+        },
+        VERBATIM(VerbatimQuery.class) {
+            @Override
+            <R, D> R visit(QueryVisitor<R, D> visitor, Query query, D data) {
+                return visitor.visit((VerbatimQuery) query, data);
+            }
+        },
+        NUMBER(NumberQuery.class) {
+            @Override
+            <R, D> R visit(QueryVisitor<R, D> visitor, Query query, D data) {
+                return visitor.visit((NumberQuery) query, data);
+            }
+        },
+        NUMBER_RANGE(NumberRangeQuery.class) {
+            @Override
+            <R, D> R visit(QueryVisitor<R, D> visitor, Query query, D data) {
+                return visitor.visit((NumberRangeQuery) query, data);
+            }
+        },
+        BOOLEAN(BooleanQuery.class) {
+            @Override
+            <R, D> R visit(QueryVisitor<R, D> visitor, Query query, D data) {
+                return visitor.visit((BooleanQuery) query, data);
+            }
+        },
+        LUCENE(LuceneQuery.class) {
+            @Override
+            <R, D> R visit(QueryVisitor<R, D> visitor, Query query, D data) {
+                return visitor.visit((LuceneQuery) query, data);
+            }
+        },
+        AND(AndQuery.class) {
+            @Override
+            <R, D> R visit(QueryVisitor<R, D> visitor, Query query, D data) {
+                return visitor.visit((AndQuery) query, data);
+            }
+        },
+        OR(OrQuery.class) {
+            @Override
+            <R, D> R visit(QueryVisitor<R, D> visitor, Query query, D data) {
+                return visitor.visit((OrQuery) query, data);
+            }
+        },
+        NOT(NotQuery.class) {
+            @Override
+            <R, D> R visit(QueryVisitor<R, D> visitor, Query query, D data) {
+                return visitor.visit((NotQuery) query, data);
+            }
+        },
+        FILTER(FilterQuery.class) {
+            @Override
+            <R, D> R visit(QueryVisitor<R, D> visitor, Query query, D data) {
+                return visitor.visit((FilterQuery) query, data);
+            }
+        },
+        DELEGATED(DelegatedQuery.class) {
+            @Override
+            <R, D> R visit(QueryVisitor<R, D> visitor, Query query, D data) {
+                return visitor.visit(((DelegatedQuery) query).getQuery(), data);
+            }
+        };
+
+        private final Class<? extends Query> queryClass;
+
+        private Dispatch(Class<? extends Query> queryClass) {
+            this.queryClass = queryClass;
+        }
+
+        abstract <R, D> R visit(QueryVisitor<R, D> visitor, Query query, D data);
+    }
+
+    private final static ClassValue<Dispatch> DISPATCHES = new ClassValue<Dispatch>() {
+        @Override
+        protected Dispatch computeValue(Class<?> type) {
+            for (Dispatch dispatch : Dispatch.values()) {
+                if (dispatch.queryClass.isAssignableFrom(type)) {
+                    return dispatch;
+                }
+            }
+            return null;
+        }
+    };
 }
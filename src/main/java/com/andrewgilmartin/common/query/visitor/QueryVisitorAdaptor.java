@@ -1,10 +1,15 @@
 package com.andrewgilmartin.common.query.visitor;
 
+import java.util.ArrayList;
+import java.util.List;
 import com.andrewgilmartin.common.query.AndQuery;
 import com.andrewgilmartin.common.query.BooleanQuery;
+import com.andrewgilmartin.common.query.CompoundQuery;
+import com.andrewgilmartin.common.query.FilterQuery;
 import com.andrewgilmartin.common.query.LuceneQuery;
 import com.andrewgilmartin.common.query.NotQuery;
 import com.andrewgilmartin.common.query.NumberQuery;
+import com.andrewgilmartin.common.query.NumberRangeQuery;
 import com.andrewgilmartin.common.query.OrQuery;
 import com.andrewgilmartin.common.query.PhraseQuery;
 import com.andrewgilmartin.common.query.Query;
@@ -13,7 +18,8 @@ import com.andrewgilmartin.common.query.VerbatimQuery;
 
 /**
  * Use this adaptor as the base for a visitor that will modify only a few query
- * subclasses.
+ * subclasses. Queries are rewritten copy-on-write: a query whose sub-queries
+ * are all returned unchanged is itself returned unchanged.
  */
 public class QueryVisitorAdaptor<DATA> extends QueryVisitor<Query, DATA> {
 
@@ -54,6 +60,11 @@ public class QueryVisitorAdaptor<DATA> extends QueryVisitor<Query, DATA> {
         return query;
     }
 
+    @Override
+    protected Query visit(NumberRangeQuery query, DATA data) {
+        return query;
+    }
+
     /**
      * Return null to drop the lucene query from its parent.
      */
@@ -64,37 +75,82 @@ public class QueryVisitorAdaptor<DATA> extends QueryVisitor<Query, DATA> {
 
     @Override
     protected Query visit(AndQuery query, DATA data) {
-        AndQuery qq = new AndQuery(query.getWeight());
-        for (Query q : query.getQueries()) {
-            Query rq = visit(q, data);
-            if (rq != null) {
-                qq.addQuery(rq);
-            }
-        }
-        return qq;
+        return visitQueries(query, data);
     }
 
     @Override
     protected Query visit(OrQuery query, DATA data) {
-        OrQuery qq = new OrQuery(query.getWeight());
-        for (Query q : query.getQueries()) {
+        return visitQueries(query, data);
+    }
+
+    @Override
+    protected Query visit(NotQuery query, DATA data) {
+        return visitQueries(query, data);
+    }
+
+    @Override
+    protected Query visit(FilterQuery query, DATA data) {
+        return visitQueries(query, data);
+    }
+
+    /**
+     * Visits the sub-queries of the compound query. If no sub-query is
+     * replaced or dropped then the compound query itself is returned,
+     * otherwise a copy with the replacement sub-queries is returned.
+     */
+    protected Query visitQueries(CompoundQuery query, DATA data) {
+        List<Query> queries = query.getQueries();
+        List<Query> rewrittenQueries = null;
+        for (int i = 0; i < queries.size(); i++) {
+            Query q = queries.get(i);
             Query rq = visit(q, data);
-            if (rq != null) {
-                qq.addQuery(rq);
+            if (rewrittenQueries == null && rq != q) {
+                rewrittenQueries = new ArrayList<>(queries.subList(0, i));
+            }
+            if (rewrittenQueries != null && rq != null) {
+                rewrittenQueries.add(rq);
             }
         }
-        return qq;
+        return rewrittenQueries != null ? query.copy(rewrittenQueries) : query;
     }
 
+    /**
+     * The iterative equivalent of visitQueries(). Subclasses that override
+     * the visiting of compound queries must also override this to support
+     * iterative traversal.
+     */
     @Override
-    protected Query visit(NotQuery query, DATA data) {
-        NotQuery qq = new NotQuery(query.getWeight());
-        for (Query q : query.getQueries()) {
-            Query rq = visit(q, data);
-            if (rq != null) {
-                qq.addQuery(rq);
+    protected Query leave(CompoundQuery query, List<Query> results, DATA data) {
+        return copyOnWrite(query, results);
+    }
+
+    /**
+     * Returns the compound query if each result is the same as the
+     * corresponding sub-query, otherwise a copy with the non-null results as
+     * its sub-queries.
+     */
+    static Query copyOnWrite(CompoundQuery query, List<Query> results) {
+        List<Query> rewrittenQueries = rewrittenQueries(query, results);
+        return rewrittenQueries != query.getQueries() ? query.copy(rewrittenQueries) : query;
+    }
+
+    /**
+     * Returns the compound query's own list of sub-queries if each result is
+     * the same as the corresponding sub-query, otherwise the non-null results.
+     */
+    static List<Query> rewrittenQueries(CompoundQuery query, List<Query> results) {
+        List<Query> queries = query.getQueries();
+        for (int i = 0; i < queries.size(); i++) {
+            if (results.get(i) != queries.get(i)) {
+                List<Query> rewrittenQueries = new ArrayList<>(results.size());
+                for (Query result : results) {
+                    if (result != null) {
+                        rewrittenQueries.add(result);
+                    }
+                }
+                return rewrittenQueries;
             }
         }
-        return qq;
+        return queries;
     }
 }
@@ -0,0 +1,197 @@
+package com.andrewgilmartin.common.query.visitor;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import com.andrewgilmartin.common.query.AndQuery;
+import com.andrewgilmartin.common.query.BooleanQuery;
+import com.andrewgilmartin.common.query.CompoundQuery;
+import com.andrewgilmartin.common.query.FilterQuery;
+import com.andrewgilmartin.common.query.LuceneQuery;
+import com.andrewgilmartin.common.query.NotQuery;
+import com.andrewgilmartin.common.query.NumberQuery;
+import com.andrewgilmartin.common.query.NumberRangeQuery;
+import com.andrewgilmartin.common.query.OrQuery;
+import com.andrewgilmartin.common.query.PhraseQuery;
+import com.andrewgilmartin.common.query.Query;
+import com.andrewgilmartin.common.query.TermQuery;
+import com.andrewgilmartin.common.query.VerbatimQuery;
+
+/**
+ * Applies an ordered list of rewriting visitors, the stages, in one traversal
+ * of the query. The result is the same as applying each stage to the whole
+ * query in turn, followed by the reducer, if any, but the query is walked
+ * once and each node is copied at most once. For example,
+ *
+ * <blockquote>
+ * new QueryVisitorPipeline()
+ * .addStage(new StandardAnalyzerQueryVisitor())
+ * .addStage(new HyphenatedTermQueryVisitor(0.5f))
+ * .addStage(new TermsRemovalQueryVisitor(stopWords))
+ * .setReducer(new ReduceQueryVisitor())
+ * .visitQuery(query)
+ * </blockquote>
+ *
+ * A stage must only rewrite the non-compound queries, ie, it must not
+ * override the adaptor's handling of and-, or-, not-, and filter-queries. When a stage
+ * replaces a query with a compound query the remaining stages are applied to
+ * the sub-queries of the replacement.
+ */
+public class QueryVisitorPipeline extends QueryVisitorAdaptor<Void> {
+
+    private final List<QueryVisitorAdaptor<Void>> stages = new ArrayList<>();
+    private ReduceQueryVisitor reducer;
+
+    /**
+     * Add the stage to the end of the pipeline.
+     */
+    public QueryVisitorPipeline addStage(QueryVisitorAdaptor<Void> stage) {
+        if (stage == null) {
+            throw new IllegalArgumentException("stage must not be null");
+        }
+        if (isCompoundRewriter(stage.getClass())) {
+            throw new IllegalArgumentException("stage " + stage.getClass().getName() + " rewrites compound queries and so can't be pipelined");
+        }
+        stages.add(stage);
+        return this;
+    }
+
+    /**
+     * Reduce the query after the last stage. The default is no reducer.
+     */
+    public QueryVisitorPipeline setReducer(ReduceQueryVisitor reducer) {
+        this.reducer = reducer;
+        return this;
+    }
+
+    public Query visit(Query query) {
+        return visit(query, null);
+    }
+
+    @Override
+    protected Query visit(BooleanQuery query, Void data) {
+        return rewrite(query, 0);
+    }
+
+    @Override
+    protected Query visit(TermQuery query, Void data) {
+        return rewrite(query, 0);
+    }
+
+    @Override
+    protected Query visit(VerbatimQuery query, Void data) {
+        return rewrite(query, 0);
+    }
+
+    @Override
+    protected Query visit(PhraseQuery query, Void data) {
+        return rewrite(query, 0);
+    }
+
+    @Override
+    protected Query visit(NumberQuery query, Void data) {
+        return rewrite(query, 0);
+    }
+
+    @Override
+    protected Query visit(NumberRangeQuery query, Void data) {
+        return rewrite(query, 0);
+    }
+
+    @Override
+    protected Query visit(LuceneQuery query, Void data) {
+        return rewrite(query, 0);
+    }
+
+    @Override
+    protected Query visit(AndQuery query, Void data) {
+        return rewriteQueries(query, 0);
+    }
+
+    @Override
+    protected Query visit(OrQuery query, Void data) {
+        return rewriteQueries(query, 0);
+    }
+
+    @Override
+    protected Query visit(NotQuery query, Void data) {
+        return rewriteQueries(query, 0);
+    }
+
+    @Override
+    protected Query visit(FilterQuery query, Void data) {
+        return rewriteQueries(query, 0);
+    }
+
+    /**
+     * Applies the stages, starting with the given stage, to the query.
+     */
+    private Query rewrite(Query query, int stage) {
+        for (int i = stage; i < stages.size(); i++) {
+            Query rewrittenQuery = stages.get(i).visit(query, null);
+            if (rewrittenQuery == null) {
+                return null;
+            }
+            if (rewrittenQuery != query && rewrittenQuery instanceof CompoundQuery) {
+                return rewriteQueries((CompoundQuery) rewrittenQuery, i + 1);
+            }
+            query = rewrittenQuery;
+        }
+        return reducer != null ? reducer.visit(query, null) : query;
+    }
+
+    /**
+     * Applies the stages, starting with the given stage, to the sub-queries
+     * of the compound query.
+     */
+    private Query rewriteQueries(CompoundQuery query, int stage) {
+        List<Query> queries = query.getQueries();
+        List<Query> rewrittenQueries = null;
+        for (int i = 0; i < queries.size(); i++) {
+            Query q = queries.get(i);
+            Query rq = q instanceof CompoundQuery
+                    ? rewriteQueries((CompoundQuery) q, stage)
+                    : rewrite(q, stage);
+            if (rewrittenQueries == null && rq != q) {
+                rewrittenQueries = new ArrayList<>(queries.subList(0, i));
+            }
+            if (rewrittenQueries != null && rq != null) {
+                rewrittenQueries.add(rq);
+            }
+        }
+        if (reducer != null) {
+            return reducer.reduce(query, rewrittenQueries != null ? rewrittenQueries : queries);
+        }
+        return rewrittenQueries != null ? query.copy(rewrittenQueries) : query;
+    }
+
+    @Override
+    protected Query leave(CompoundQuery query, List<Query> results, Void data) {
+        if (reducer != null) {
+            return reducer.reduce(query, rewrittenQueries(query, results));
+        }
+        return copyOnWrite(query, results);
+    }
+
+    /**
+     * Does the visitor class override the adaptor's handling of compound
+     * queries?
+     */
+    private static boolean isCompoundRewriter(Class<?> type) {
+        for (Class<?> c = type; c != null && c != QueryVisitorAdaptor.class; c = c.getSuperclass()) {
+            for (Method method : c.getDeclaredMethods()) {
+                if ("visitQueries".equals(method.getName()) || "leave".equals(method.getName())) {
+                    return true;
+                }
+                if ("visit".equals(method.getName())
+                        && method.getParameterTypes().length == 2
+                        && CompoundQuery.class.isAssignableFrom(method.getParameterTypes()[0])) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
+
+// END
@@ -1,11 +1,15 @@
 package com.andrewgilmartin.common.query.visitor;
 
+import java.util.ArrayList;
+import java.util.List;
 import com.andrewgilmartin.common.query.AndQuery;
 import com.andrewgilmartin.common.query.BooleanQuery;
 import com.andrewgilmartin.common.query.CompoundQuery;
+import com.andrewgilmartin.common.query.FilterQuery;
 import com.andrewgilmartin.common.query.LuceneQuery;
 import com.andrewgilmartin.common.query.NotQuery;
 import com.andrewgilmartin.common.query.NumberQuery;
+import com.andrewgilmartin.common.query.NumberRangeQuery;
 import com.andrewgilmartin.common.query.OrQuery;
 import com.andrewgilmartin.common.query.PhraseQuery;
 import com.andrewgilmartin.common.query.Query;
@@ -46,17 +50,12 @@ public class ReduceQueryVisitor extends QueryVisitor<Query, Void> {
     }
 
     /**
-     * Eliminate query if it has no terms or all terms are null.
+     * Eliminate query if it has no terms.
      */
     @Override
     protected Query visit(PhraseQuery query, Void data) {
-        PhraseQuery reducedQuery = new PhraseQuery(query.getWeight(), query.getField());
-        for (String term : query.getTerms()) {
-            if (term != null) {
-                reducedQuery.addTerm(term);
-            }
-        }
-        return reducedQuery.hasTerms() ? reducedQuery : null;
+        // the terms can't be null as addTerm() does not allow it
+        return query.hasTerms() ? query : null;
     }
 
     /**
@@ -76,6 +75,18 @@ public class ReduceQueryVisitor extends QueryVisitor<Query, Void> {
         return query;
     }
 
+    /**
+     * Eliminate query if either bound is not a number.
+     */
+    @Override
+    protected Query visit(NumberRangeQuery query, Void data) {
+        return isNaN(query.getLower()) || isNaN(query.getUpper()) ? null : query;
+    }
+
+    private static boolean isNaN(Number number) {
+        return number != null && Double.isNaN(number.doubleValue());
+    }
+
     /**
      * Can't be reduced.
      */
@@ -99,69 +110,158 @@ public class ReduceQueryVisitor extends QueryVisitor<Query, Void> {
      */
     @Override
     protected Query visit(AndQuery originalQuery, Void data) {
-        CompoundQuery reducedQuery = new AndQuery(originalQuery.getWeight());
-        for (Query subquery : originalQuery.getQueries()) {
-            Query reducedSubquery = (Query) visit(subquery, data);
-            if (reducedSubquery != null) {
-                reducedQuery.addQuery(reducedSubquery);
-            }
-        }
-        switch (reducedQuery.getQueries().size()) {
+        return reduce(originalQuery, reduceQueries(originalQuery, data));
+    }
+
+    /**
+     * Eliminate query if it has no non-null sub-queries. If it has only one
+     * sub-query, and no minimum should match, then reduce to the one
+     * sub-query.
+     */
+    @Override
+    protected Query visit(OrQuery originalQuery, Void data) {
+        return reduce(originalQuery, reduceQueries(originalQuery, data));
+    }
+
+    /**
+     * Eliminate query if has no non-null sub-queries.
+     */
+    @Override
+    protected Query visit(NotQuery originalQuery, Void data) {
+        return reduce(originalQuery, reduceQueries(originalQuery, data));
+    }
+
+    /**
+     * Eliminate query if has no non-null sub-queries. A filter-query with one
+     * sub-query is not reduced to the sub-query as the sub-query would then
+     * contribute to the score.
+     */
+    @Override
+    protected Query visit(FilterQuery originalQuery, Void data) {
+        return reduce(originalQuery, reduceQueries(originalQuery, data));
+    }
+
+    /**
+     * Reduce the and-query given its already reduced sub-queries. The reduced
+     * sub-queries are the query's own list if none were reduced.
+     */
+    protected Query reduce(AndQuery originalQuery, List<Query> reducedQueries) {
+        switch (reducedQueries.size()) {
             case 0:
                 return null;
             case 1:
-                return combineWeights(reducedQuery.getQueries().get(0), originalQuery);
+                return combineWeights(reducedQueries.get(0), originalQuery);
             default:
-                return reducedQuery;
+                return reduced(originalQuery, reducedQueries);
         }
     }
 
     /**
-     * Eliminate query if it has no non-null sub-queries. If it has only one
-     * sub-query then reduce to the one sub-query.
+     * Reduce the or-query given its already reduced sub-queries. The reduced
+     * sub-queries are the query's own list if none were reduced.
      */
-    @Override
-    protected Query visit(OrQuery originalQuery, Void data) {
-        CompoundQuery reducedQuery = new OrQuery(originalQuery.getWeight());
-        for (Query subquery : originalQuery.getQueries()) {
-            Query reducedSubquery = (Query) visit(subquery, data);
-            if (reducedSubquery != null) {
-                reducedQuery.addQuery(reducedSubquery);
-            }
-        }
-        switch (reducedQuery.getQueries().size()) {
+    protected Query reduce(OrQuery originalQuery, List<Query> reducedQueries) {
+        switch (reducedQueries.size()) {
             case 0:
                 return null;
             case 1:
-                return combineWeights(reducedQuery.getQueries().get(0), originalQuery);
+                if (originalQuery.hasMinimumShouldMatch()) {
+                    // the one sub-query can't satisfy the minimum
+                    return reduced(originalQuery, reducedQueries);
+                }
+                return combineWeights(reducedQueries.get(0), originalQuery);
             default:
-                return reducedQuery;
+                return reduced(originalQuery, reducedQueries);
         }
     }
 
     /**
-     * Eliminate query if has no non-null sub-queries.
+     * Reduce the not-query given its already reduced sub-queries. The reduced
+     * sub-queries are the query's own list if none were reduced.
      */
-    @Override
-    protected Query visit(NotQuery originalQuery, Void data) {
-        CompoundQuery reducedQuery = new NotQuery(originalQuery.getWeight());
-        for (Query subquery : originalQuery.getQueries()) {
-            Query reducedSubquery = (Query) visit(subquery, data);
-            if (reducedSubquery != null) {
-                reducedQuery.addQuery(reducedSubquery);
-            }
+    protected Query reduce(NotQuery originalQuery, List<Query> reducedQueries) {
+        switch (reducedQueries.size()) {
+            case 0:
+                return null;
+            default:
+                return reduced(originalQuery, reducedQueries);
         }
-        switch (reducedQuery.getQueries().size()) {
+    }
+
+    /**
+     * Reduce the filter-query given its already reduced sub-queries. The
+     * reduced sub-queries are the query's own list if none were reduced.
+     */
+    protected Query reduce(FilterQuery originalQuery, List<Query> reducedQueries) {
+        switch (reducedQueries.size()) {
             case 0:
                 return null;
             default:
-                return reducedQuery;
+                return reduced(originalQuery, reducedQueries);
         }
     }
 
+    /**
+     * Reduce the compound query given its already reduced sub-queries.
+     */
+    protected Query reduce(CompoundQuery originalQuery, List<Query> reducedQueries) {
+        if (originalQuery instanceof AndQuery) {
+            return reduce((AndQuery) originalQuery, reducedQueries);
+        }
+        if (originalQuery instanceof OrQuery) {
+            return reduce((OrQuery) originalQuery, reducedQueries);
+        }
+        if (originalQuery instanceof NotQuery) {
+            return reduce((NotQuery) originalQuery, reducedQueries);
+        }
+        if (originalQuery instanceof FilterQuery) {
+            return reduce((FilterQuery) originalQuery, reducedQueries);
+        }
+        return reduced(originalQuery, reducedQueries);
+    }
+
+    @Override
+    protected Query leave(CompoundQuery originalQuery, List<Query> reducedSubqueries, Void data) {
+        return reduce(originalQuery, QueryVisitorAdaptor.rewrittenQueries(originalQuery, reducedSubqueries));
+    }
+
+    /**
+     * Returns the reduced sub-queries of the compound query. The compound
+     * query's own list is returned if no sub-query was reduced.
+     */
+    private List<Query> reduceQueries(CompoundQuery originalQuery, Void data) {
+        List<Query> subqueries = originalQuery.getQueries();
+        List<Query> reducedQueries = null;
+        for (int i = 0; i < subqueries.size(); i++) {
+            Query subquery = subqueries.get(i);
+            Query reducedSubquery = visit(subquery, data);
+            if (reducedQueries == null && reducedSubquery != subquery) {
+                reducedQueries = new ArrayList<>(subqueries.subList(0, i));
+            }
+            if (reducedQueries != null && reducedSubquery != null) {
+                reducedQueries.add(reducedSubquery);
+            }
+        }
+        return reducedQueries != null ? reducedQueries : subqueries;
+    }
+
+    /**
+     * Returns the original query if none of its sub-queries were reduced,
+     * otherwise a copy of it with the reduced sub-queries.
+     */
+    protected Query reduced(CompoundQuery originalQuery, List<Query> reducedQueries) {
+        return reducedQueries == originalQuery.getQueries() ? originalQuery : originalQuery.copy(reducedQueries);
+    }
+
+    /**
+     * Returns a copy of the sub-query with the combined weights, or the
+     * sub-query itself if there is no combination. The sub-query belongs to
+     * the caller's query and so is never changed.
+     */
     protected Query combineWeights(Query subQuery, Query compoundQuery) {
         Float weight = combineWeights(subQuery.getWeight(), compoundQuery.getWeight());
         if (weight != null) {
+            subQuery = subQuery.copy();
             subQuery.setWeight(weight);
         }
         return subQuery;
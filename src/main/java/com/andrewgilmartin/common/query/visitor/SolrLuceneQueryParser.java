@@ -0,0 +1,487 @@
+package com.andrewgilmartin.common.query.visitor;
+
+import java.util.ArrayList;
+import java.util.List;
+import com.andrewgilmartin.common.query.AndQuery;
+import com.andrewgilmartin.common.query.BooleanQuery;
+import com.andrewgilmartin.common.query.CompoundQuery;
+import com.andrewgilmartin.common.query.FilterQuery;
+import com.andrewgilmartin.common.query.NotQuery;
+import com.andrewgilmartin.common.query.NumberQuery;
+import com.andrewgilmartin.common.query.NumberRangeQuery;
+import com.andrewgilmartin.common.query.OrQuery;
+import com.andrewgilmartin.common.query.PhraseQuery;
+import com.andrewgilmartin.common.query.Query;
+import com.andrewgilmartin.common.query.TermQuery;
+
+/**
+ * Parses the Solr Lucene query syntax rendered by SolrLuceneQueryVistor into
+ * a query tree. This is the inverse of SolrLuceneQueryVistor. The syntax is
+ *
+ * <ul>
+ * <li>field: "term" is a term query and field: "term term ..." is a phrase
+ * query, where the quoted terms use the escapes of SolrLuceneQueryVistor,
+ * including \\uXXXX;</li>
+ * <li>field: term is a number query if the term is a number, a boolean query
+ * if the term is true or false, and otherwise a term query;</li>
+ * <li>field: [lower TO upper] is a number range query, where a brace is an
+ * exclusive bound and * is an open bound;</li>
+ * <li>(a AND b) is an and-query, (a OR b) is an or-query, and (a OR b)~N is
+ * an or-query with a minimum should match of N, where AND binds tighter than
+ * OR;</li>
+ * <li>NOT (a b) is a not-query and filter(a AND b) is a filter-query;</li>
+ * <li>any query followed by ^weight is weighted.</li>
+ * </ul>
+ *
+ * A parenthesized group of one query is an and-query, as an and-query of one
+ * query is rendered the same way. A verbatim query is rendered the same as a
+ * term query and so is parsed as a term query, and a term containing a space
+ * is parsed as a phrase. Operators are also recognized outside of
+ * parentheses, eg a AND b is an and-query.
+ *
+ * The input is scanned once without a tokenizer. The only allocation is the
+ * query tree and its strings. The parser keeps its state between calls and so
+ * is not thread safe; use one per thread. A syntax error is thrown as an
+ * IllegalArgumentException giving its position.
+ */
+public class SolrLuceneQueryParser {
+
+    private final StringBuilder buffer = new StringBuilder();
+    private final List<String> terms = new ArrayList<>();
+    private String input;
+    private int position;
+
+    /**
+     * Returns the query of the input, or null if the input is null or blank.
+     */
+    public Query parse(String input) throws IllegalArgumentException {
+        if (input == null) {
+            return null;
+        }
+        this.input = input;
+        this.position = 0;
+        try {
+            skipWhitespace();
+            if (position == input.length()) {
+                return null;
+            }
+            Query query = parseOr();
+            skipWhitespace();
+            if (position != input.length()) {
+                throw error("unexpected '" + input.charAt(position) + "'");
+            }
+            return query;
+        } finally {
+            this.input = null;
+            buffer.setLength(0);
+            terms.clear();
+        }
+    }
+
+    private Query parseOr() {
+        return parseOr(parseAnd());
+    }
+
+    /**
+     * Parses the and-queries separated by OR following the first. Returns an
+     * or-query of them, or the first itself if there are none.
+     */
+    private Query parseOr(Query first) {
+        if (!skipOperator("OR")) {
+            return first;
+        }
+        OrQuery orQuery = new OrQuery(first);
+        do {
+            orQuery.addQuery(parseAnd());
+        } while (skipOperator("OR"));
+        return orQuery;
+    }
+
+    private Query parseAnd() {
+        return parseAnd(parseWeighted());
+    }
+
+    /**
+     * Parses the queries separated by AND following the first. Returns an
+     * and-query of them, or the first itself if there are none.
+     */
+    private Query parseAnd(Query first) {
+        if (!skipOperator("AND")) {
+            return first;
+        }
+        AndQuery andQuery = new AndQuery(first);
+        do {
+            andQuery.addQuery(parseWeighted());
+        } while (skipOperator("AND"));
+        return andQuery;
+    }
+
+    private Query parseWeighted() {
+        Query query = parseUnweighted();
+        int mark = position;
+        skipWhitespace();
+        if (peek() == '^') {
+            position++;
+            skipWhitespace();
+            query.setWeight(parseFloat());
+        } else {
+            position = mark;
+        }
+        return query;
+    }
+
+    private Query parseUnweighted() {
+        skipWhitespace();
+        char c = peek();
+        if (c == '(') {
+            return parseGroup();
+        }
+        if (startsWithWord("NOT")) {
+            position += 3;
+            skipWhitespace();
+            expect('(');
+            NotQuery notQuery = new NotQuery();
+            while (true) {
+                skipWhitespace();
+                if (peek() == ')') {
+                    position++;
+                    return notQuery;
+                }
+                notQuery.addQuery(parseOr());
+            }
+        }
+        if (input.startsWith("filter(", position)) {
+            position += 6;
+            FilterQuery filterQuery = new FilterQuery();
+            addQueries(filterQuery, "AND");
+            return filterQuery;
+        }
+        return parseField();
+    }
+
+    /**
+     * Parses a parenthesized group. A group of queries separated only by OR
+     * is an or-query, possibly with a minimum should match, and any other
+     * group is an and-query.
+     */
+    private Query parseGroup() {
+        expect('(');
+        skipWhitespace();
+        if (peek() == ')') {
+            throw error("empty group");
+        }
+        Query first = parseWeighted();
+        Query and = parseAnd(first);
+        Query or = parseOr(and);
+        skipWhitespace();
+        expect(')');
+        // the group is always a new compound query, eg ((a AND b)) is an and-query of an and-query
+        CompoundQuery group = or != and ? (OrQuery) or : and != first ? (AndQuery) and : new AndQuery(first);
+        if (peek() == '~') {
+            if (!(group instanceof OrQuery)) {
+                if (and != first) {
+                    throw error("minimum should match of an and-query");
+                }
+                group = new OrQuery(first);
+            }
+            position++;
+            ((OrQuery) group).setMinimumShouldMatch(parseInt());
+        }
+        return group;
+    }
+
+    /**
+     * Adds the queries separated by the operator up to the closing
+     * parenthesis.
+     */
+    private void addQueries(CompoundQuery query, String operator) {
+        expect('(');
+        skipWhitespace();
+        if (peek() == ')') {
+            throw error("empty group");
+        }
+        do {
+            query.addQuery(parseWeighted());
+        } while (skipOperator(operator));
+        skipWhitespace();
+        expect(')');
+    }
+
+    private Query parseField() {
+        int start = position;
+        while (position < input.length() && isFieldChar(input.charAt(position))) {
+            position++;
+        }
+        if (start == position) {
+            throw error(position < input.length() ? "unexpected '" + input.charAt(position) + "'" : "unexpected end");
+        }
+        String field = input.substring(start, position);
+        expect(':');
+        skipWhitespace();
+        char c = peek();
+        if (c == '"') {
+            return parseQuoted(field);
+        }
+        if (c == '[' || c == '{') {
+            return parseRange(field);
+        }
+        String term = parseBare();
+        if (term.equals("true") || term.equals("false")) {
+            return new BooleanQuery(field, term.equals("true"));
+        }
+        Number number = toNumber(term);
+        return number != null ? new NumberQuery(field, number) : new TermQuery(field, term);
+    }
+
+    /**
+     * Parses a quoted term or phrase. The terms of a phrase are separated by
+     * unescaped spaces.
+     */
+    private Query parseQuoted(String field) {
+        expect('"');
+        buffer.setLength(0);
+        terms.clear();
+        while (true) {
+            if (position == input.length()) {
+                throw error("unterminated quote");
+            }
+            char c = input.charAt(position++);
+            if (c == '"') {
+                break;
+            } else if (c == '\\') {
+                unescape();
+            } else if (c == ' ') {
+                terms.add(buffer.toString());
+                buffer.setLength(0);
+            } else {
+                buffer.append(c);
+            }
+        }
+        if (terms.isEmpty()) {
+            return new TermQuery(field, buffer.toString());
+        }
+        terms.add(buffer.toString());
+        return new PhraseQuery(field, terms.toArray(new String[terms.size()]));
+    }
+
+    /**
+     * Parses an unquoted term, which ends at whitespace or a parenthesis.
+     */
+    private String parseBare() {
+        buffer.setLength(0);
+        while (position < input.length()) {
+            char c = input.charAt(position);
+            if (Character.isWhitespace(c) || c == '(' || c == ')' || c == '^') {
+                break;
+            }
+            position++;
+            if (c == '\\') {
+                unescape();
+            } else {
+                buffer.append(c);
+            }
+        }
+        if (buffer.length() == 0) {
+            throw error("missing term");
+        }
+        return buffer.toString();
+    }
+
+    private Query parseRange(String field) {
+        boolean includeLower = input.charAt(position++) == '[';
+        skipWhitespace();
+        Number lower = parseBound();
+        skipWhitespace();
+        if (!startsWithWord("TO")) {
+            throw error("expected TO");
+        }
+        position += 2;
+        skipWhitespace();
+        Number upper = parseBound();
+        skipWhitespace();
+        char c = peek();
+        if (c != ']' && c != '}') {
+            throw error("expected ] or }");
+        }
+        position++;
+        return new NumberRangeQuery(field, lower, upper, includeLower, c == ']');
+    }
+
+    private Number parseBound() {
+        int start = position;
+        while (position < input.length() && !Character.isWhitespace(input.charAt(position))
+                && input.charAt(position) != ']' && input.charAt(position) != '}') {
+            position++;
+        }
+        if (position - start == 1 && input.charAt(start) == '*') {
+            return null;
+        }
+        Number number = toNumber(input.substring(start, position));
+        if (number == null) {
+            throw error("expected a number or *", start);
+        }
+        return number;
+    }
+
+    /**
+     * Appends the character of the escape following a backslash.
+     */
+    private void unescape() {
+        if (position == input.length()) {
+            throw error("unterminated escape");
+        }
+        char c = input.charAt(position++);
+        switch (c) {
+            case 'b':
+                buffer.append('\b');
+                break;
+            case 't':
+                buffer.append('\t');
+                break;
+            case 'n':
+                buffer.append('\n');
+                break;
+            case 'f':
+                buffer.append('\f');
+                break;
+            case 'r':
+                buffer.append('\r');
+                break;
+            case 'u':
+                if (position + 4 > input.length()) {
+                    throw error("unterminated unicode escape");
+                }
+                int value = 0;
+                for (int i = 0; i < 4; i++) {
+                    int digit = Character.digit(input.charAt(position++), 16);
+                    if (digit < 0) {
+                        throw error("invalid unicode escape", position - 1);
+                    }
+                    value = value << 4 | digit;
+                }
+                buffer.append((char) value);
+                break;
+            default:
+                buffer.append(c);
+                break;
+        }
+    }
+
+    /**
+     * Returns the number as an Integer or Long if it is integral and
+     * otherwise as a Double. Returns null if the term is not a number.
+     */
+    private static Number toNumber(String term) {
+        int length = term.length();
+        if (length == 0) {
+            return null;
+        }
+        int i = term.charAt(0) == '-' ? 1 : 0;
+        if (i == length) {
+            return null;
+        }
+        boolean integral = true;
+        for (int j = i; j < length; j++) {
+            char c = term.charAt(j);
+            if (c < '0' || c > '9') {
+                if (c == '.' || c == 'e' || c == 'E' || c == '+' || c == '-') {
+                    integral = false;
+                } else {
+                    return null;
+                }
+            }
+        }
+        try {
+            if (integral) {
+                long value = Long.parseLong(term);
+                return value == (int) value ? (Number) (int) value : (Number) value;
+            }
+            return Double.parseDouble(term);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private float parseFloat() {
+        int start = position;
+        while (position < input.length() && "0123456789.eE+-".indexOf(input.charAt(position)) >= 0) {
+            position++;
+        }
+        try {
+            return Float.parseFloat(input.substring(start, position));
+        } catch (NumberFormatException e) {
+            throw error("expected a weight", start);
+        }
+    }
+
+    private int parseInt() {
+        int start = position;
+        int value = 0;
+        while (position < input.length() && input.charAt(position) >= '0' && input.charAt(position) <= '9') {
+            try {
+                value = Math.addExact(Math.multiplyExact(value, 10), input.charAt(position++) - '0');
+            } catch (ArithmeticException e) {
+                throw error("number too large", start);
+            }
+        }
+        if (start == position) {
+            throw error("expected a number");
+        }
+        return value;
+    }
+
+    /**
+     * Skips the whitespace and operator if they are next. Returns true if
+     * the operator was skipped.
+     */
+    private boolean skipOperator(String operator) {
+        int mark = position;
+        skipWhitespace();
+        if (position > mark && startsWithWord(operator)) {
+            position += operator.length();
+            if (position < input.length() && Character.isWhitespace(input.charAt(position))) {
+                return true;
+            }
+        }
+        position = mark;
+        return false;
+    }
+
+    private boolean startsWithWord(String word) {
+        int end = position + word.length();
+        return input.startsWith(word, position)
+                && (end == input.length() || Character.isWhitespace(input.charAt(end)) || input.charAt(end) == '(');
+    }
+
+    private void skipWhitespace() {
+        while (position < input.length() && Character.isWhitespace(input.charAt(position))) {
+            position++;
+        }
+    }
+
+    private char peek() {
+        return position < input.length() ? input.charAt(position) : 0;
+    }
+
+    private void expect(char c) {
+        if (peek() != c) {
+            throw error("expected '" + c + "'");
+        }
+        position++;
+    }
+
+    private static boolean isFieldChar(char c) {
+        return !Character.isWhitespace(c) && c != ':' && c != '(' && c != ')' && c != '"' && c != '^'
+                && c != '[' && c != ']' && c != '{' && c != '}' && c != '\\';
+    }
+
+    private IllegalArgumentException error(String message) {
+        return error(message, position);
+    }
+
+    private IllegalArgumentException error(String message, int at) {
+        return new IllegalArgumentException(message + " at " + at + " of " + input);
+    }
+}
+
+// END
@@ -1,177 +1,358 @@
 package com.andrewgilmartin.common.query.visitor;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
 import com.andrewgilmartin.common.query.AndQuery;
 import com.andrewgilmartin.common.query.BooleanQuery;
+import com.andrewgilmartin.common.query.CompoundQuery;
+import com.andrewgilmartin.common.query.FilterQuery;
 import com.andrewgilmartin.common.query.LuceneQuery;
 import com.andrewgilmartin.common.query.NotQuery;
 import com.andrewgilmartin.common.query.NumberQuery;
+import com.andrewgilmartin.common.query.NumberRangeQuery;
 import com.andrewgilmartin.common.query.OrQuery;
 import com.andrewgilmartin.common.query.PhraseQuery;
 import com.andrewgilmartin.common.query.Query;
 import com.andrewgilmartin.common.query.TermQuery;
 import com.andrewgilmartin.common.query.VerbatimQuery;
 
-public class SolrLuceneQueryVistor extends QueryVisitor<StringBuilder,StringBuilder> {
+/**
+ * Renders the query in the Solr Lucene query syntax. The query is written to
+ * any Appendable, eg a StringBuilder, a Writer, or a ByteBufferAppendable, as
+ * it is visited and so a large query is not first built as a String. For
+ * example,
+ *
+ * <blockquote>
+ * ByteBufferAppendable body = new ByteBufferAppendable(8192, true);
+ * body.appendRaw("q=");
+ * new SolrLuceneQueryVistor().visitQuery(query, body);
+ * ByteBuffer bytes = body.getByteBuffer();
+ * </blockquote>
+ *
+ * An IOException thrown by the Appendable is rethrown as an
+ * UncheckedIOException.
+ */
+public class SolrLuceneQueryVistor extends QueryVisitor<Appendable, Appendable> {
+
+    private final static LuceneQueryConverter CONVERTER = new LuceneQueryConverter();
+
+    private boolean escapeNonAscii = true;
 
     public String getDefType() {
         return "lucene";
     }
 
+    /**
+     * Sets whether characters above ASCII are escaped as unicode escapes.
+     * When not, they are rendered as-is, which Solr accepts in a quoted term
+     * and which is a sixth of the size. Control characters and unpaired
+     * surrogates are always escaped. The default is true.
+     */
+    public void setEscapeNonAscii(boolean escapeNonAscii) {
+        this.escapeNonAscii = escapeNonAscii;
+    }
+
+    public boolean isEscapeNonAscii() {
+        return escapeNonAscii;
+    }
+
     @Override
     public StringBuilder visitQuery(Query query) {
-        return visit(query, new StringBuilder());
+        return visitQuery(query, new StringBuilder());
+    }
+
+    /**
+     * Writes the query to the output. Returns the output.
+     */
+    public <T extends Appendable> T visitQuery(Query query, T output) {
+        visit(query, output);
+        return output;
     }
 
-    public StringBuilder visitQuery(Query query, StringBuilder builder) {
-        return visit(query, builder);
+    @Override
+    protected Appendable visit(TermQuery query, Appendable output) {
+        append(output, query.getField());
+        append(output, ": ");
+        quote(query.getTerm(), output);
+        boost(query, output);
+        return output;
     }
 
     @Override
-    protected StringBuilder visit(TermQuery query, StringBuilder builder) {
-        builder.append(query.getField()).append(": ");
-        quote(query.getTerm(), builder);
-        boost(query, builder);
-        return builder;
+    protected Appendable visit(NumberQuery query, Appendable output) {
+        append(output, query.getField());
+        append(output, ": ");
+        append(output, query.getNumber().toString());
+        boost(query, output);
+        return output;
     }
 
+    /**
+     * Renders the range as field: [lower TO upper], where an exclusive bound
+     * uses a brace rather than a bracket and an open bound is *.
+     */
     @Override
-    protected StringBuilder visit(NumberQuery query, StringBuilder builder) {
-        builder.append(query.getField()).append(": ").append(query.getNumber().toString());
-        boost(query, builder);
-        return builder;
+    protected Appendable visit(NumberRangeQuery query, Appendable output) {
+        append(output, query.getField());
+        append(output, ": ");
+        append(output, query.isIncludeLower() ? '[' : '{');
+        append(output, query.getLower() != null ? query.getLower().toString() : "*");
+        append(output, " TO ");
+        append(output, query.getUpper() != null ? query.getUpper().toString() : "*");
+        append(output, query.isIncludeUpper() ? ']' : '}');
+        boost(query, output);
+        return output;
     }
 
     @Override
-    protected StringBuilder visit(VerbatimQuery query, StringBuilder builder) {
-        builder.append(query.getField()).append(": ");
-        quote(query.getTerm(), builder);
-        boost(query, builder);
-        return builder;
+    protected Appendable visit(VerbatimQuery query, Appendable output) {
+        append(output, query.getField());
+        append(output, ": ");
+        quote(query.getTerm(), output);
+        boost(query, output);
+        return output;
     }
 
     @Override
-    protected StringBuilder visit(PhraseQuery query, StringBuilder builder) {
+    protected Appendable visit(PhraseQuery query, Appendable output) {
         if (query.hasTerms()) {
-            builder.append(query.getField()).append(": ");
-            quote(query.getTerms(), builder);
-            boost(query, builder);
+            append(output, query.getField());
+            append(output, ": ");
+            quote(query.getTerms(), output);
+            boost(query, output);
         }
-        return builder;
+        return output;
     }
 
     @Override
-    protected StringBuilder visit(BooleanQuery query, StringBuilder builder) {
-        builder.append(query.getField()).append(": ").append(Boolean.toString(query.getBoolean()));
-        boost(query, builder);
-        return builder;
+    protected Appendable visit(BooleanQuery query, Appendable output) {
+        append(output, query.getField());
+        append(output, ": ");
+        append(output, Boolean.toString(query.getBoolean()));
+        boost(query, output);
+        return output;
+    }
+
+    @Override
+    protected Appendable visit(AndQuery query, Appendable output) {
+        if (query.hasQueries()) {
+            append(output, '(');
+            Iterator<Query> i = query.getQueries().iterator();
+            visit(i.next(), output);
+            while (i.hasNext()) {
+                append(output, " AND ");
+                visit(i.next(), output);
+            }
+            append(output, ')');
+            boost(query, output);
+        }
+        return output;
     }
 
+    /**
+     * Renders a minimum should match of N as (...)~N.
+     */
     @Override
-    protected StringBuilder visit(AndQuery query, StringBuilder builder) {
+    protected Appendable visit(OrQuery query, Appendable output) {
         if (query.hasQueries()) {
-            builder.append("(");
+            append(output, '(');
             Iterator<Query> i = query.getQueries().iterator();
-            visit(i.next(), builder);
+            visit(i.next(), output);
             while (i.hasNext()) {
-                builder.append(" AND ");
-                visit(i.next(), builder);
+                append(output, " OR ");
+                visit(i.next(), output);
             }
-            builder.append(")");
-            boost(query, builder);
+            append(output, ')');
+            minimumShouldMatch(query, output);
+            boost(query, output);
         }
-        return builder;
+        return output;
     }
 
     @Override
-    protected StringBuilder visit(OrQuery query, StringBuilder builder) {
+    protected Appendable visit(NotQuery query, Appendable output) {
         if (query.hasQueries()) {
-            builder.append("(");
+            append(output, "NOT ");
+            append(output, '(');
             Iterator<Query> i = query.getQueries().iterator();
-            visit(i.next(), builder);
+            visit(i.next(), output);
             while (i.hasNext()) {
-                builder.append(" OR ");
-                visit(i.next(), builder);
+                append(output, ' ');
+                visit(i.next(), output);
             }
-            builder.append(")");
-            boost(query, builder);
+            append(output, ')');
+            boost(query, output);
         }
-        return builder;
+        return output;
     }
 
+    /**
+     * Renders the filter-query as filter(...), which Solr matches without
+     * scoring and caches in its filter cache. The rendering can also be used
+     * as an fq parameter.
+     */
     @Override
-    protected StringBuilder visit(NotQuery query, StringBuilder builder) {
+    protected Appendable visit(FilterQuery query, Appendable output) {
         if (query.hasQueries()) {
-            builder.append("NOT ");
-            builder.append("(");
+            append(output, "filter(");
             Iterator<Query> i = query.getQueries().iterator();
-            visit(i.next(), builder);
+            visit(i.next(), output);
             while (i.hasNext()) {
-                builder.append(" ");
-                visit(i.next(), builder);
+                append(output, " AND ");
+                visit(i.next(), output);
+            }
+            append(output, ')');
+            boost(query, output);
+        }
+        return output;
+    }
+
+    /**
+     * Visits the Lucene query's conversion. Only Lucene term, phrase,
+     * boolean, and boost queries can be converted. See LuceneQueryConverter.
+     */
+    @Override
+    protected Appendable visit(LuceneQuery query, Appendable output) throws IllegalArgumentException {
+        Query q = CONVERTER.visit(query, null);
+        if (q instanceof LuceneQuery) {
+            throw new IllegalArgumentException("can't convert lucene query " + query.getLuceneQuery());
+        }
+        return visit(q, output);
+    }
+
+    @Override
+    protected Appendable enter(CompoundQuery query, Appendable output) {
+        if (query.hasQueries()) {
+            if (query instanceof NotQuery) {
+                append(output, "NOT ");
+            } else if (query instanceof FilterQuery) {
+                append(output, "filter");
             }
-            builder.append(")");
-            boost(query, builder);
+            append(output, '(');
+        }
+        return output;
+    }
+
+    @Override
+    protected void next(CompoundQuery query, int index, Appendable output) {
+        if (index > 0) {
+            append(output, query instanceof AndQuery || query instanceof FilterQuery ? " AND " : query instanceof OrQuery ? " OR " : " ");
         }
-        return builder;
     }
 
     @Override
-    protected StringBuilder visit(LuceneQuery query, StringBuilder builder) throws IllegalArgumentException {
-        throw new IllegalArgumentException("can't convert lucene queries");
+    protected Appendable leave(CompoundQuery query, List<Appendable> results, Appendable output) {
+        if (query.hasQueries()) {
+            append(output, ')');
+            if (query instanceof OrQuery) {
+                minimumShouldMatch((OrQuery) query, output);
+            }
+            boost(query, output);
+        }
+        return output;
+    }
+
+    protected Appendable minimumShouldMatch(OrQuery query, Appendable output) {
+        if (query.hasMinimumShouldMatch()) {
+            append(output, '~');
+            append(output, Integer.toString(query.getMinimumShouldMatch()));
+        }
+        return output;
     }
 
-    protected StringBuilder boost(Query query, StringBuilder builder) {
+    protected Appendable boost(Query query, Appendable output) {
         if (query.hasWeight()) {
-            builder.append(" ^").append(query.getWeight());
+            append(output, " ^");
+            append(output, Float.toString(query.getWeight()));
         }
-        return builder;
+        return output;
     }
 
-    protected StringBuilder quote(Collection<String> values, StringBuilder builder) {
-        builder.append('"');
+    protected Appendable quote(Collection<String> values, Appendable output) {
+        append(output, '"');
         boolean next = false;
         for (String value : values) {
             if (next) {
-                builder.append(' ');
-            }
-            int l = value.length();
-            for (int i = 0; i < l; i++) {
-                char c = value.charAt(i);
-                if (c <= '~') {
-                    builder.append(ESCAPED_ASCII[c]);
-                } else {
-                    builder.append("\\u");
-                    builder.append(HEX_DIGITS[(c & 0xF000) >>> 12]);
-                    builder.append(HEX_DIGITS[(c & 0x0F00) >>> 8]);
-                    builder.append(HEX_DIGITS[(c & 0x00F0) >>> 4]);
-                    builder.append(HEX_DIGITS[(c & 0x000F)]);
-                }
+                append(output, ' ');
             }
+            escape(value, output);
             next = true;
         }
-        builder.append('"');
-        return builder;
+        append(output, '"');
+        return output;
     }
 
-    protected StringBuilder quote(String value, StringBuilder builder) {
-        builder.append('"');
+    protected Appendable quote(String value, Appendable output) {
+        append(output, '"');
+        escape(value, output);
+        append(output, '"');
+        return output;
+    }
+
+    /**
+     * Escapes the value. Runs of characters that need no escaping are
+     * appended in bulk.
+     */
+    private void escape(String value, Appendable output) {
         int l = value.length();
+        int start = 0;
         for (int i = 0; i < l; i++) {
             char c = value.charAt(i);
-            if (c <= '~') {
-                builder.append(ESCAPED_ASCII[c]);
+            if (c < 0x7f) {
+                if (SAFE_ASCII[c]) {
+                    continue;
+                }
+                append(output, value, start, i);
+                append(output, ESCAPED_ASCII[c]);
+            } else if (!escapeNonAscii && !Character.isISOControl(c) && !Character.isSurrogate(c)) {
+                continue;
+            } else if (!escapeNonAscii && Character.isHighSurrogate(c) && i + 1 < l && Character.isLowSurrogate(value.charAt(i + 1))) {
+                i++; // the pair is appended as-is
+                continue;
             } else {
-                builder.append("\\u");
-                builder.append(HEX_DIGITS[(c & 0xF000) >>> 12]);
-                builder.append(HEX_DIGITS[(c & 0x0F00) >>> 8]);
-                builder.append(HEX_DIGITS[(c & 0x00F0) >>> 4]);
-                builder.append(HEX_DIGITS[(c & 0x000F)]);
+                append(output, value, start, i);
+                append(output, "\\u");
+                append(output, HEX_DIGITS[(c & 0xF000) >>> 12]);
+                append(output, HEX_DIGITS[(c & 0x0F00) >>> 8]);
+                append(output, HEX_DIGITS[(c & 0x00F0) >>> 4]);
+                append(output, HEX_DIGITS[(c & 0x000F)]);
             }
+            start = i + 1;
+        }
+        append(output, value, start, l);
+    }
+
+    /**
+     * Appends the characters to the output, rethrowing any IOException as an
+     * UncheckedIOException.
+     */
+    protected static void append(Appendable output, CharSequence value) {
+        try {
+            output.append(value);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    protected static void append(Appendable output, CharSequence value, int start, int end) {
+        if (start < end) {
+            try {
+                output.append(value, start, end);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    protected static void append(Appendable output, char value) {
+        try {
+            output.append(value);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
-        builder.append('"');
-        return builder;
     }
 
     private final static char[] HEX_DIGITS = new char[]{
@@ -193,6 +374,11 @@ public class SolrLuceneQueryVistor extends QueryVisitor<StringBuilder,StringBuil
         'f'
     };
 
+    /**
+     * The ASCII characters that are rendered as themselves.
+     */
+    private final static boolean[] SAFE_ASCII = new boolean[0x7f];
+
     private final static String[] ESCAPED_ASCII = new String[]{
         "\\u0000",
         "\\u0001",
@@ -323,6 +509,12 @@ public class SolrLuceneQueryVistor extends QueryVisitor<StringBuilder,StringBuil
         "~",
         "\\u007f"
     };
+
+    static {
+        for (int c = 0; c < SAFE_ASCII.length; c++) {
+            SAFE_ASCII[c] = ESCAPED_ASCII[c].length() == 1;
+        }
+    }
 }
 
 // END
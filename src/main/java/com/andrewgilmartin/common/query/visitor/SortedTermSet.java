@@ -0,0 +1,292 @@
+package com.andrewgilmartin.common.query.visitor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * A term set held as a sorted array of UTF-8 terms in a single ByteBuffer.
+ * A term is found by a binary search that compares the term with the
+ * encoded terms directly and so a lookup does not allocate. The terms are
+ * not Java objects and so a set of millions of terms uses little more memory
+ * than its UTF-8 bytes and the terms' offsets. For example,
+ *
+ * <blockquote>
+ * SortedTermSet.create(stopWords).write(path);
+ * ...
+ * TermSet stopWords = SortedTermSet.load(path);
+ * QueryVisitor visitor = new TermsRemovalQueryVisitor(stopWords);
+ * </blockquote>
+ *
+ * The set written to a file can be loaded by memory mapping the file, and
+ * so the set is then not on the heap and is shared by all of the JVMs on the
+ * host that load it. The encoding is a header of a magic number, the
+ * format's version, the number of terms, and the length of the terms' bytes,
+ * followed by the offsets of the terms and then the terms' bytes. A lone
+ * surrogate is encoded as if it were a code point.
+ */
+public class SortedTermSet implements TermSet {
+
+    public static final int MAGIC = 0x54534554; // "TSET"
+    public static final int VERSION = 1;
+
+    private static final int HEADER_LENGTH = 16;
+
+    private final ByteBuffer buffer;
+    private final int size;
+    private final int dataStart;
+
+    /**
+     * Creates the set of the encoding in the buffer's remaining bytes. The
+     * buffer is not copied and must not be changed.
+     */
+    public SortedTermSet(ByteBuffer buffer) throws IllegalArgumentException {
+        ByteBuffer b = buffer.slice().order(ByteOrder.BIG_ENDIAN);
+        if (b.remaining() < HEADER_LENGTH || b.getInt(0) != MAGIC) {
+            throw new IllegalArgumentException("not a sorted term set");
+        }
+        if (b.getInt(4) != VERSION) {
+            throw new IllegalArgumentException("unsupported sorted term set version " + b.getInt(4));
+        }
+        int size = b.getInt(8);
+        int dataLength = b.getInt(12);
+        long dataStart = HEADER_LENGTH + 4L * (size + 1);
+        if (size < 0 || dataLength < 0 || dataStart + dataLength > b.remaining()) {
+            throw new IllegalArgumentException("truncated sorted term set");
+        }
+        this.buffer = b.asReadOnlyBuffer();
+        this.size = size;
+        this.dataStart = (int) dataStart;
+    }
+
+    /**
+     * Returns the set of the terms. Null terms are ignored.
+     */
+    public static SortedTermSet create(Iterable<String> terms) {
+        List<byte[]> encoded = new ArrayList<>();
+        for (String term : terms) {
+            if (term != null) {
+                encoded.add(encode(term));
+            }
+        }
+        encoded.sort(new Comparator<byte[]>() {
+            @Override
+            public int compare(byte[] a, byte[] b) {
+                return SortedTermSet.compare(a, b);
+            }
+        });
+        int count = 0;
+        long dataLength = 0;
+        for (int i = 0; i < encoded.size(); i++) {
+            if (i == 0 || compare(encoded.get(i - 1), encoded.get(i)) != 0) {
+                encoded.set(count++, encoded.get(i));
+                dataLength += encoded.get(i).length;
+            }
+        }
+        long length = HEADER_LENGTH + 4L * (count + 1) + dataLength;
+        if (length > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("too many terms for a sorted term set");
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int) length);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(count).putInt((int) dataLength);
+        int offset = 0;
+        for (int i = 0; i < count; i++) {
+            buffer.putInt(offset);
+            offset += encoded.get(i).length;
+        }
+        buffer.putInt(offset);
+        for (int i = 0; i < count; i++) {
+            buffer.put(encoded.get(i));
+        }
+        buffer.flip();
+        return new SortedTermSet(buffer);
+    }
+
+    /**
+     * Returns the set written to the file by write(). The file is memory
+     * mapped and is not read into the heap.
+     */
+    public static SortedTermSet load(Path path) throws IOException, IllegalArgumentException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return new SortedTermSet(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Writes the set to the file, replacing its contents.
+     */
+    public void write(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer b = buffer.duplicate();
+            b.limit(dataStart + offset(size));
+            while (b.hasRemaining()) {
+                channel.write(b);
+            }
+        }
+    }
+
+    @Override
+    public boolean contains(String term) {
+        if (term == null) {
+            return false;
+        }
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int c = compare(term, middle);
+            if (c > 0) {
+                low = middle + 1;
+            } else if (c < 0) {
+                high = middle - 1;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the terms in the order of their code points.
+     */
+    @Override
+    public Iterator<String> iterator() {
+        return new Iterator<String>() {
+
+            private int index = 0;
+
+            @Override
+            public boolean hasNext() {
+                return index < size;
+            }
+
+            @Override
+            public String next() {
+                if (index >= size) {
+                    throw new NoSuchElementException();
+                }
+                return get(index++);
+            }
+        };
+    }
+
+    private int offset(int index) {
+        return buffer.getInt(HEADER_LENGTH + 4 * index);
+    }
+
+    private String get(int index) {
+        int end = dataStart + offset(index + 1);
+        StringBuilder term = new StringBuilder();
+        for (int i = dataStart + offset(index); i < end;) {
+            int b = buffer.get(i) & 0xFF;
+            int length = length(b);
+            term.appendCodePoint(decode(b, i, length));
+            i += length;
+        }
+        return term.toString();
+    }
+
+    /**
+     * Compares the term with the encoded term at the index by their code
+     * points.
+     */
+    private int compare(String term, int index) {
+        int i = dataStart + offset(index);
+        int end = dataStart + offset(index + 1);
+        int t = 0;
+        int termLength = term.length();
+        while (t < termLength && i < end) {
+            int b = buffer.get(i) & 0xFF;
+            int c1;
+            int c2;
+            if (b < 0x80) {
+                c1 = term.charAt(t++);
+                c2 = b;
+                i++;
+            } else {
+                c1 = term.codePointAt(t);
+                t += Character.charCount(c1);
+                int length = length(b);
+                c2 = decode(b, i, length);
+                i += length;
+            }
+            if (c1 != c2) {
+                return c1 < c2 ? -1 : 1;
+            }
+        }
+        return t < termLength ? 1 : i < end ? -1 : 0;
+    }
+
+    private static int length(int b) {
+        return b < 0x80 ? 1 : b < 0xE0 ? 2 : b < 0xF0 ? 3 : 4;
+    }
+
+    private int decode(int b, int i, int length) {
+        switch (length) {
+            case 1:
+                return b;
+            case 2:
+                return (b & 0x1F) << 6 | (buffer.get(i + 1) & 0x3F);
+            case 3:
+                return (b & 0x0F) << 12 | (buffer.get(i + 1) & 0x3F) << 6 | (buffer.get(i + 2) & 0x3F);
+            default:
+                return (b & 0x07) << 18 | (buffer.get(i + 1) & 0x3F) << 12 | (buffer.get(i + 2) & 0x3F) << 6 | (buffer.get(i + 3) & 0x3F);
+        }
+    }
+
+    private static byte[] encode(String term) {
+        byte[] bytes = new byte[term.length() * 3];
+        int length = 0;
+        for (int i = 0; i < term.length();) {
+            int c = term.codePointAt(i);
+            i += Character.charCount(c);
+            if (c < 0x80) {
+                bytes[length++] = (byte) c;
+            } else if (c < 0x800) {
+                bytes[length++] = (byte) (0xC0 | (c >>> 6));
+                bytes[length++] = (byte) (0x80 | (c & 0x3F));
+            } else if (c < 0x10000) {
+                bytes[length++] = (byte) (0xE0 | (c >>> 12));
+                bytes[length++] = (byte) (0x80 | ((c >>> 6) & 0x3F));
+                bytes[length++] = (byte) (0x80 | (c & 0x3F));
+            } else {
+                bytes[length++] = (byte) (0xF0 | (c >>> 18));
+                bytes[length++] = (byte) (0x80 | ((c >>> 12) & 0x3F));
+                bytes[length++] = (byte) (0x80 | ((c >>> 6) & 0x3F));
+                bytes[length++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        return Arrays.copyOf(bytes, length);
+    }
+
+    /**
+     * Compares the encoded terms as unsigned bytes, which is the order of
+     * their code points.
+     */
+    private static int compare(byte[] a, byte[] b) {
+        int length = Math.min(a.length, b.length);
+        for (int i = 0; i < length; i++) {
+            int c = (a[i] & 0xFF) - (b[i] & 0xFF);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return a.length - b.length;
+    }
+}
+
+// END
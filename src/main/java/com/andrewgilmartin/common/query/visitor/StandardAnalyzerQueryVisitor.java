@@ -1,35 +1,47 @@
 package com.andrewgilmartin.common.query.visitor;
 
-import java.util.regex.Pattern;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import com.andrewgilmartin.common.query.PhraseQuery;
 import com.andrewgilmartin.common.query.Query;
 import com.andrewgilmartin.common.query.TermQuery;
 
 /**
  * Applies the same term transformation as Lucene's StandardAnalyzer. This is
- * lowercasing, removing possessives, and removing acronym dots.
+ * lowercasing, removing possessives, and removing acronym dots. Queries whose
+ * terms are unchanged by the transformation are returned as-is. Terms are
+ * lowercased in the root locale and so the same way on every JVM.
  */
 public class StandardAnalyzerQueryVisitor extends QueryVisitorAdaptor<Void> {
 
-    private static final String UNICODE_LETTER_PATTERN
-            = // Note that the correct pattern is "\p{L}" but this does not consistently compile. This is a workaround. AJG
-            "["
-            + "\u0041-\u005a"
-            + "\u0061-\u007a"
-            + "\u00c0-\u00d6"
-            + "\u00d8-\u00f6"
-            + "\u00f8-\u00ff"
-            + "\u0100-\u1fff"
-            + "\u3040-\u318f"
-            + "\u3300-\u337f"
-            + "\u3400-\u3d2d"
-            + "\u4e00-\u9fff"
-            + "\uf900-\ufaff"
-            + "]";
+    private int cacheSize = 0;
+    private Map<String, String> cache; // guarded by itself
 
-    // The acronym pattern is two or more occurance of a Unicode letter and
-    // dot pairs. This pattern matches the one in Bongo's StandardTokenizer (JavaCC source).
-    private Pattern ACRONYM_PATTERN = Pattern.compile("^" + UNICODE_LETTER_PATTERN + "\\.(?:" + UNICODE_LETTER_PATTERN + "\\.)+$");
+    /**
+     * Sets the number of recently filtered terms whose filtered forms are
+     * remembered. The default is 0, ie none are remembered. A cache is worth
+     * having when the same terms are filtered over and over again.
+     */
+    public void setCacheSize(final int cacheSize) {
+        if (cacheSize < 0) {
+            throw new IllegalArgumentException("cache size must not be negative");
+        }
+        this.cacheSize = cacheSize;
+        this.cache = cacheSize > 0
+                ? new LinkedHashMap<String, String>(16, 0.75f, true) {
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                        return size() > cacheSize;
+                    }
+                }
+                : null;
+    }
+
+    public int getCacheSize() {
+        return cacheSize;
+    }
 
     public Query visit(Query query) {
         return visit(query, null);
@@ -37,36 +49,125 @@ public class StandardAnalyzerQueryVisitor extends QueryVisitorAdaptor<Void> {
 
     @Override
     protected Query visit(TermQuery query, Void data) {
-        TermQuery tq = new TermQuery(query.getWeight(), query.getField(), filter(query.getTerm()));
-        return tq;
+        String term = filter(query.getTerm());
+        return term.equals(query.getTerm()) ? query : new TermQuery(query.getWeight(), query.getField(), term);
     }
 
     @Override
     protected Query visit(PhraseQuery query, Void data) {
-        PhraseQuery pq = new PhraseQuery(query.getWeight(), query.getField());
-        for (String term : query.getTerms()) {
-            pq.addTerm(filter(term));
+        List<String> terms = query.getTerms();
+        PhraseQuery pq = null;
+        for (int i = 0; i < terms.size(); i++) {
+            String term = filter(terms.get(i));
+            if (pq == null && !term.equals(terms.get(i))) {
+                pq = new PhraseQuery(query.getWeight(), query.getField());
+                for (String t : terms.subList(0, i)) {
+                    pq.addTerm(t);
+                }
+            }
+            if (pq != null) {
+                pq.addTerm(term);
+            }
         }
-        return pq;
+        return pq != null ? pq : query;
     }
 
     protected String filter(String term) {
+        Map<String, String> c = cache;
+        if (c == null) {
+            return normalize(term);
+        }
+        String normalized;
+        synchronized (c) {
+            normalized = c.get(term);
+        }
+        if (normalized == null) {
+            normalized = normalize(term);
+            synchronized (c) {
+                c.put(term, normalized);
+            }
+        }
+        return normalized;
+    }
+
+    /**
+     * Lowercases the term, removes a trailing possessive, and then removes
+     * the dots of an acronym, ie two or more letter and dot pairs. The term
+     * is scanned once, and an ASCII term is lowercased without a lookup.
+     * Returns the term itself if it is unchanged.
+     */
+    static String normalize(String term) {
         // lowercase
-        term = term.toLowerCase();
+        int length = term.length();
+        char[] chars = null;
+        int i = 0;
+        for (; i < length; i++) {
+            char c = term.charAt(i);
+            if (c >= 0x80) {
+                break;
+            }
+            if (c >= 'A' && c <= 'Z') {
+                if (chars == null) {
+                    chars = term.toCharArray();
+                }
+                chars[i] = (char) (c + ('a' - 'A'));
+            }
+        }
+        if (i < length) {
+            term = term.toLowerCase(Locale.ROOT);
+            length = term.length();
+        } else if (chars != null) {
+            term = new String(chars);
+        }
         // remove possesive
-        if (term.endsWith("'s")) {
-            term = term.substring(0, term.length() - 2);
+        int end = length;
+        if (end >= 2 && term.charAt(end - 1) == 's' && term.charAt(end - 2) == '\'') {
+            end -= 2;
         }
         // remove acronym dots
-        if (ACRONYM_PATTERN.matcher(term).matches()) {
-            StringBuilder t = new StringBuilder(term.length() / 2);
-            for (int i = 0; i < term.length(); i += 2 /* step over letter-dot character pairs */) {
-                t.append(term.charAt(i));
+        if (isAcronym(term, end)) {
+            char[] letters = new char[end / 2];
+            for (int j = 0; j < letters.length; j++) {
+                letters[j] = term.charAt(j * 2); // step over letter-dot character pairs
+            }
+            return new String(letters);
+        }
+        return end < length ? term.substring(0, end) : term;
+    }
+
+    /**
+     * Are the first end characters of the term two or more letter and dot
+     * pairs? This matches the acronyms of Bongo's StandardTokenizer (JavaCC
+     * source).
+     */
+    private static boolean isAcronym(String term, int end) {
+        if (end < 4 || end % 2 != 0) {
+            return false;
+        }
+        for (int i = 0; i < end; i += 2) {
+            if (!isLetter(term.charAt(i)) || term.charAt(i + 1) != '.') {
+                return false;
             }
-            term = t.toString();
         }
-        // done
-        return term;
+        return true;
+    }
+
+    /**
+     * Is the character a letter? Note that these are the letters of Bongo's
+     * StandardTokenizer and not those of Character.isLetter().
+     */
+    private static boolean isLetter(char c) {
+        if (c < 0x80) {
+            return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+        }
+        return (c >= 0x00c0 && c <= 0x00d6)
+                || (c >= 0x00d8 && c <= 0x00f6)
+                || (c >= 0x00f8 && c <= 0x1fff)
+                || (c >= 0x3040 && c <= 0x318f)
+                || (c >= 0x3300 && c <= 0x337f)
+                || (c >= 0x3400 && c <= 0x3d2d)
+                || (c >= 0x4e00 && c <= 0x9fff)
+                || (c >= 0xf900 && c <= 0xfaff);
     }
 }
 
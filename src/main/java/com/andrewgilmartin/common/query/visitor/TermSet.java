@@ -0,0 +1,20 @@
+package com.andrewgilmartin.common.query.visitor;
+
+/**
+ * A read-only set of terms, eg stop words. A term set can be shared by many
+ * visitors and threads. See HashTermSet and SortedTermSet.
+ */
+public interface TermSet extends Iterable<String> {
+
+    /**
+     * Does the set contain the term?
+     */
+    boolean contains(String term);
+
+    /**
+     * Returns the number of terms in the set.
+     */
+    int size();
+}
+
+// END
@@ -1,16 +1,22 @@
 package com.andrewgilmartin.common.query.visitor;
 
+import java.util.AbstractSet;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
 import com.andrewgilmartin.common.query.BooleanQuery;
+import com.andrewgilmartin.common.query.CompoundQuery;
 import com.andrewgilmartin.common.query.LuceneQuery;
 import com.andrewgilmartin.common.query.PhraseQuery;
 import com.andrewgilmartin.common.query.Query;
 import com.andrewgilmartin.common.query.TermQuery;
 import com.andrewgilmartin.common.query.VerbatimQuery;
 import com.andrewgilmartin.common.query.AndQuery;
+import com.andrewgilmartin.common.query.FilterQuery;
 import com.andrewgilmartin.common.query.NotQuery;
 import com.andrewgilmartin.common.query.NumberQuery;
+import com.andrewgilmartin.common.query.NumberRangeQuery;
 import com.andrewgilmartin.common.query.OrQuery;
 
 /**
@@ -18,21 +24,53 @@ import com.andrewgilmartin.common.query.OrQuery;
  * PhraseQuery, and VerbatimQuery instances. The default is to include all
  * fields and to ignore terms found within prohibited boolean clauses. Note
  * that a terms in a query within a NOT boolean clause within a NOT boolean 
- * clause is are gathered, ie a NOT negates a NOT.
+ * clause is are gathered, ie a NOT negates a NOT. The visitor holds no
+ * traversal state and so, once configured, can be shared among threads.
+ *
+ * The terms can also be gathered grouped by field, with their effective
+ * weights and whether they were found in phrases. See FieldTerms. Only the
+ * terms of term, verbatim, and phrase queries are gathered this way, as the
+ * values of number and boolean queries are not text.
  */
 public class TermsGatheringVisitor extends QueryVisitor<Set<String>,Set<String>> {
 
     private Set<String> fieldsToInclude; // default is to include all
     private Set<String> fieldsToExclude; // default is to exclude none
     private boolean includeProhibitedTerms = false;
-    private boolean vistingWithinProhibitedQuery = false;
+
+    private final static TermsGatheringVisitor DEFAULT_VISITOR = new TermsGatheringVisitor();
+    private final static LuceneQueryConverter CONVERTER = new LuceneQueryConverter();
+
+    private final FieldTermsGatherer fieldTermsGatherer = new FieldTermsGatherer();
 
     /**
      * Returns a set of gathered terms.
      */
     public static Set<String> getTerms(Query query) {
-        TermsGatheringVisitor visitor = new TermsGatheringVisitor();
-        return visitor.visit(query, new HashSet<>());
+        return DEFAULT_VISITOR.visit(query, new HashSet<>());
+    }
+
+    /**
+     * Returns the gathered terms grouped by field.
+     */
+    public static FieldTerms getFieldTerms(Query query) {
+        return DEFAULT_VISITOR.gatherFieldTerms(query, new FieldTerms());
+    }
+
+    /**
+     * Adds the gathered terms to the field terms, which is returned.
+     */
+    public FieldTerms gatherFieldTerms(Query query, FieldTerms fieldTerms) {
+        if (query != null) {
+            fieldTermsGatherer.visit(query, new Path(fieldTerms, 1, false));
+        }
+        return fieldTerms;
+    }
+
+    @Override
+    public void setIterative(boolean iterative) {
+        super.setIterative(iterative);
+        fieldTermsGatherer.setIterative(iterative);
     }
 
     /**
@@ -77,13 +115,13 @@ public class TermsGatheringVisitor extends QueryVisitor<Set<String>,Set<String>>
         return include && !exclude;
     }
 
-    private boolean isQueryIncluded(String fieldName) {
-        return (includeProhibitedTerms || !vistingWithinProhibitedQuery) && isFieldIncluded(fieldName);
+    private boolean isQueryIncluded(String fieldName, Set<String> allTerms) {
+        return (includeProhibitedTerms || !(allTerms instanceof ProhibitedTerms)) && isFieldIncluded(fieldName);
     }
 
     @Override
     protected Set<String> visit(TermQuery query, Set<String> allTerms) {
-        if (isQueryIncluded(query.getField())) {
+        if (isQueryIncluded(query.getField(), allTerms)) {
             allTerms.add(query.getTerm());
         }
         return allTerms;
@@ -91,15 +129,23 @@ public class TermsGatheringVisitor extends QueryVisitor<Set<String>,Set<String>>
 
     @Override
     protected Set<String> visit(NumberQuery query, Set<String> allTerms) {
-        if (isQueryIncluded(query.getField())) {
+        if (isQueryIncluded(query.getField(), allTerms)) {
             allTerms.add(query.getNumber().toString());
         }
         return allTerms;
     }
 
+    /**
+     * A range has no terms.
+     */
+    @Override
+    protected Set<String> visit(NumberRangeQuery query, Set<String> allTerms) {
+        return allTerms;
+    }
+
     @Override
     protected Set<String> visit(VerbatimQuery query, Set<String> allTerms) {
-        if (isQueryIncluded(query.getField())) {
+        if (isQueryIncluded(query.getField(), allTerms)) {
             allTerms.add(query.getTerm());
         }
         return allTerms;
@@ -107,7 +153,7 @@ public class TermsGatheringVisitor extends QueryVisitor<Set<String>,Set<String>>
 
     @Override
     protected Set<String> visit(PhraseQuery query, Set<String> allTerms) {
-        if (isQueryIncluded(query.getField())) {
+        if (isQueryIncluded(query.getField(), allTerms)) {
             for (String term : query.getTerms()) {
                 allTerms.add(term);
             }
@@ -117,7 +163,7 @@ public class TermsGatheringVisitor extends QueryVisitor<Set<String>,Set<String>>
 
     @Override
     protected Set<String> visit(BooleanQuery query, Set<String> allTerms) {
-        if (isQueryIncluded(query.getField())) {
+        if (isQueryIncluded(query.getField(), allTerms)) {
             allTerms.add(Boolean.toString(query.getBoolean()));
         }
         return allTerms;
@@ -141,21 +187,208 @@ public class TermsGatheringVisitor extends QueryVisitor<Set<String>,Set<String>>
 
     @Override
     protected Set<String> visit(NotQuery query, Set<String> allTerms) {
-        vistingWithinProhibitedQuery = !vistingWithinProhibitedQuery;
-        try {
-            for (Query subQuery : query.getQueries()) {
-                visit(subQuery, allTerms);
-            }
-            return allTerms;
-        } finally {
-            vistingWithinProhibitedQuery = !vistingWithinProhibitedQuery;
+        Set<String> terms = negate(allTerms);
+        for (Query subQuery : query.getQueries()) {
+            visit(subQuery, terms);
         }
+        return allTerms;
     }
 
     @Override
-    protected Set<String> visit(LuceneQuery query, Set<String> allTerms) {
+    protected Set<String> visit(FilterQuery query, Set<String> allTerms) {
+        for (Query subQuery : query.getQueries()) {
+            visit(subQuery, allTerms);
+        }
+        return allTerms;
+    }
+
+    @Override
+    protected Set<String> enter(CompoundQuery query, Set<String> allTerms) {
+        return query instanceof NotQuery ? negate(allTerms) : allTerms;
+    }
+
+    @Override
+    protected Set<String> leave(CompoundQuery query, List<Set<String>> results, Set<String> allTerms) {
         return allTerms;
     }
+
+    /**
+     * Gathers the terms of the Lucene query's conversion, if it can be
+     * converted. See LuceneQueryConverter.
+     */
+    @Override
+    protected Set<String> visit(LuceneQuery query, Set<String> allTerms) {
+        Query q = CONVERTER.visit(query, null);
+        return q instanceof LuceneQuery ? allTerms : visit(q, allTerms);
+    }
+
+    /**
+     * Returns the terms to use for the sub-queries of a not-query. Within a
+     * not-query the terms are wrapped to mark them as prohibited, and within
+     * a not-query within a not-query they are unwrapped. Keeping this state
+     * in the data, rather than in the visitor, lets one visitor be shared by
+     * many threads.
+     */
+    private static Set<String> negate(Set<String> allTerms) {
+        return allTerms instanceof ProhibitedTerms
+                ? ((ProhibitedTerms) allTerms).allTerms
+                : new ProhibitedTerms(allTerms);
+    }
+
+    private static class ProhibitedTerms extends AbstractSet<String> {
+
+        private final Set<String> allTerms;
+
+        ProhibitedTerms(Set<String> allTerms) {
+            this.allTerms = allTerms;
+        }
+
+        @Override
+        public boolean add(String term) {
+            return allTerms.add(term);
+        }
+
+        @Override
+        public boolean contains(Object term) {
+            return allTerms.contains(term);
+        }
+
+        @Override
+        public Iterator<String> iterator() {
+            return allTerms.iterator();
+        }
+
+        @Override
+        public int size() {
+            return allTerms.size();
+        }
+    }
+
+    /**
+     * The state of the path from the root to a query gathering field terms.
+     * A path is only created for a compound query that is weighted or is a
+     * not-query.
+     */
+    private static final class Path {
+
+        final FieldTerms fieldTerms;
+        final float weight;
+        final boolean prohibited;
+
+        Path(FieldTerms fieldTerms, float weight, boolean prohibited) {
+            this.fieldTerms = fieldTerms;
+            this.weight = weight;
+            this.prohibited = prohibited;
+        }
+
+        Path enter(CompoundQuery query) {
+            boolean not = query instanceof NotQuery;
+            return query.hasWeight() || not
+                    ? new Path(fieldTerms, weight(query), not != prohibited)
+                    : this;
+        }
+
+        float weight(Query query) {
+            return query.hasWeight() ? weight * query.getWeight() : weight;
+        }
+    }
+
+    /**
+     * Gathers the field terms using the configuration of the enclosing
+     * visitor.
+     */
+    private class FieldTermsGatherer extends QueryVisitor<FieldTerms, Path> {
+
+        private boolean isIncluded(String fieldName, Path path) {
+            return (includeProhibitedTerms || !path.prohibited) && isFieldIncluded(fieldName);
+        }
+
+        @Override
+        protected FieldTerms visit(TermQuery query, Path path) {
+            if (isIncluded(query.getField(), path)) {
+                path.fieldTerms.add(query.getField(), query.getTerm(), path.weight(query), false);
+            }
+            return path.fieldTerms;
+        }
+
+        @Override
+        protected FieldTerms visit(VerbatimQuery query, Path path) {
+            if (isIncluded(query.getField(), path)) {
+                path.fieldTerms.add(query.getField(), query.getTerm(), path.weight(query), false);
+            }
+            return path.fieldTerms;
+        }
+
+        @Override
+        protected FieldTerms visit(PhraseQuery query, Path path) {
+            if (isIncluded(query.getField(), path)) {
+                float weight = path.weight(query);
+                for (String term : query.getTerms()) {
+                    path.fieldTerms.add(query.getField(), term, weight, true);
+                }
+            }
+            return path.fieldTerms;
+        }
+
+        @Override
+        protected FieldTerms visit(NumberQuery query, Path path) {
+            return path.fieldTerms;
+        }
+
+        @Override
+        protected FieldTerms visit(NumberRangeQuery query, Path path) {
+            return path.fieldTerms;
+        }
+
+        @Override
+        protected FieldTerms visit(BooleanQuery query, Path path) {
+            return path.fieldTerms;
+        }
+
+        @Override
+        protected FieldTerms visit(LuceneQuery query, Path path) {
+            Query q = CONVERTER.visit(query, null);
+            return q instanceof LuceneQuery ? path.fieldTerms : visit(q, path);
+        }
+
+        @Override
+        protected FieldTerms visit(AndQuery query, Path path) {
+            return visitQueries(query, path);
+        }
+
+        @Override
+        protected FieldTerms visit(OrQuery query, Path path) {
+            return visitQueries(query, path);
+        }
+
+        @Override
+        protected FieldTerms visit(NotQuery query, Path path) {
+            return visitQueries(query, path);
+        }
+
+        @Override
+        protected FieldTerms visit(FilterQuery query, Path path) {
+            return visitQueries(query, path);
+        }
+
+        private FieldTerms visitQueries(CompoundQuery query, Path path) {
+            Path subpath = path.enter(query);
+            for (Query subQuery : query.getQueries()) {
+                visit(subQuery, subpath);
+            }
+            return path.fieldTerms;
+        }
+
+        @Override
+        protected Path enter(CompoundQuery query, Path path) {
+            return path.enter(query);
+        }
+
+        @Override
+        protected FieldTerms leave(CompoundQuery query, List<FieldTerms> results, Path path) {
+            return path.fieldTerms;
+        }
+    }
 }
 
 // END
@@ -4,32 +4,39 @@ import java.util.Collection;
 import com.andrewgilmartin.common.query.PhraseQuery;
 import com.andrewgilmartin.common.query.Query;
 import com.andrewgilmartin.common.query.TermQuery;
-import java.util.HashSet;
-import java.util.Set;
 
 /**
  * Removes a set of terms from term-queries and from phrase-queries. Different
- * term lists can be used for each query type, if wanted.
+ * term lists can be used for each query type, if wanted. The terms can be
+ * given as a TermSet, which is then shared rather than copied, eg a
+ * SortedTermSet of a large stop word list loaded once and used by many
+ * visitors.
  */
 public class TermsRemovalQueryVisitor extends QueryVisitorAdaptor<Void> {
 
-    private final Set<String> termsToRemove = new HashSet<>();
-    private final Set<String> phraseTermsToRemove = new HashSet<>();
+    private static final TermSet NO_TERMS = new HashTermSet(null);
+
+    private final TermSet termsToRemove;
+    private final TermSet phraseTermsToRemove;
 
     public TermsRemovalQueryVisitor(Iterable<String> termsToRemove, Iterable<String> phraseTermsToRemove) {
-        if (termsToRemove != null) {
-            for (String term : termsToRemove) {
-                this.termsToRemove.add(term);
-            }
-        }
-        if (phraseTermsToRemove != null) {
-            for (String phraseTerm : phraseTermsToRemove) {
-                this.phraseTermsToRemove.add(phraseTerm);
-            }
-        }
+        this(new HashTermSet(termsToRemove), new HashTermSet(phraseTermsToRemove));
     }
 
     public TermsRemovalQueryVisitor(Collection<String> terms) {
+        this(new HashTermSet(terms));
+    }
+
+    /**
+     * Creates a visitor that removes the terms of the term sets. A null term
+     * set removes no terms.
+     */
+    public TermsRemovalQueryVisitor(TermSet termsToRemove, TermSet phraseTermsToRemove) {
+        this.termsToRemove = termsToRemove != null ? termsToRemove : NO_TERMS;
+        this.phraseTermsToRemove = phraseTermsToRemove != null ? phraseTermsToRemove : NO_TERMS;
+    }
+
+    public TermsRemovalQueryVisitor(TermSet terms) {
         this(terms, terms);
     }
 
@@ -15,7 +15,9 @@ import java.util.Map;
  *
  * Where qw is the original query weight and vw is the variant weight.
  *
- * Only terms in TermQuery are augmented.
+ * Only terms in TermQuery are augmented. Use LuceneQueryVisitor.setSynonyms()
+ * to build each augmented term as a Lucene SynonymQuery, which scores the
+ * term and its variants as one term, when the variant weight is at most 1.
  */
 public class VariantsQueryVistor extends QueryVisitorAdaptor<Void> {
 
@@ -2,6 +2,11 @@ package com.andrewgilmartin.common.query;
 
 import com.andrewgilmartin.common.query.visitor.SolrLuceneQueryVistor;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import org.junit.Test;
 
 public class QueryTest {
@@ -125,6 +130,72 @@ public class QueryTest {
         assertEquals("NOT (NOT (NOT (f: 0 f: 1) NOT (f: 2 f: 3)) NOT (NOT (f: 4 f: 5) NOT (f: 6 f: 7)))", toString(q));
     }
 
+    @Test
+    public void testEquals() {
+        Query a = new AndQuery(2, new TermQuery("f", "t"), new PhraseQuery("f", "p1", "p2"), new NumberQuery("f", 1));
+        Query b = new AndQuery(2, new TermQuery("f", "t"), new PhraseQuery("f", "p1", "p2"), new NumberQuery("f", 1));
+        assertEquals(a, b);
+        assertEquals(a.hashCode(), b.hashCode());
+        assertNotEquals(a, new OrQuery(2, new TermQuery("f", "t"), new PhraseQuery("f", "p1", "p2"), new NumberQuery("f", 1)));
+        assertNotEquals(a, new AndQuery(3, new TermQuery("f", "t"), new PhraseQuery("f", "p1", "p2"), new NumberQuery("f", 1)));
+        assertNotEquals(new TermQuery("f", "t"), new TermQuery("g", "t"));
+        assertNotEquals(new TermQuery("f", "t"), new VerbatimQuery("f", "t"));
+    }
+
+    @Test
+    public void testFreeze() {
+        AndQuery q = new AndQuery(new TermQuery("f", "t"), new PhraseQuery("f", "p1", "p2"));
+        int hashCode = q.hashCode();
+        q.freeze();
+        assertTrue(q.isFrozen());
+        assertTrue(q.getQueries().get(0).isFrozen());
+        assertEquals(hashCode, q.hashCode());
+        try {
+            q.addQuery(new TermQuery("f", "u"));
+            fail("frozen query was modified");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        try {
+            q.getQueries().get(1).setWeight(2);
+            fail("frozen query was modified");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        AndQuery c = (AndQuery) q.copy();
+        assertFalse(c.isFrozen());
+        assertEquals(q, c);
+        c.addQuery(new TermQuery("f", "u"));
+        assertEquals(2, q.getQueries().size());
+    }
+
+    @Test
+    public void testIntern() {
+        QueryInterner interner = new QueryInterner();
+        AndQuery a = interner.intern(new AndQuery(new TermQuery("tenant", "t1"), new TermQuery("f", "a")));
+        AndQuery b = interner.intern(new AndQuery(new TermQuery("tenant", "t1"), new TermQuery("f", "b")));
+        assertSame(a.getQueries().get(0), b.getQueries().get(0));
+        assertSame(a, interner.intern(new AndQuery(new TermQuery("tenant", "t1"), new TermQuery("f", "a"))));
+        assertEquals(5, interner.size());
+    }
+
+    @Test
+    public void testInternDoesNotChangeQuery() {
+        QueryInterner interner = new QueryInterner();
+        TermQuery t = new TermQuery("f", "a");
+        AndQuery q = new AndQuery(t, new DelegatedQuery(new OrQuery(new TermQuery("f", "b"))));
+        AndQuery i = interner.intern(q);
+        assertEquals(q, i);
+        assertTrue(i.isFrozen());
+        assertFalse(q.isFrozen());
+        assertFalse(t.isFrozen());
+        assertFalse(((DelegatedQuery) q.getQueries().get(1)).getQuery().isFrozen());
+        assertSame(t, q.getQueries().get(0));
+        q.addQuery(new TermQuery("f", "c"));
+        assertEquals(2, i.getQueries().size());
+        assertSame(i.getQueries().get(0), interner.intern(t));
+    }
+
     private static String toString(Query query) {
         return new SolrLuceneQueryVistor().visitQuery(query).toString();
     }
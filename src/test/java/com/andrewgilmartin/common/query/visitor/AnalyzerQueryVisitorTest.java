@@ -0,0 +1,59 @@
+package com.andrewgilmartin.common.query.visitor;
+
+import java.util.Arrays;
+import com.andrewgilmartin.common.query.AndQuery;
+import com.andrewgilmartin.common.query.PhraseQuery;
+import com.andrewgilmartin.common.query.Query;
+import com.andrewgilmartin.common.query.TermQuery;
+import org.apache.lucene.analysis.CharArraySet;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class AnalyzerQueryVisitorTest {
+
+    @Test
+    public void testTerm() {
+        AnalyzerQueryVisitor visitor = new AnalyzerQueryVisitor(new StandardAnalyzer(new CharArraySet(Arrays.asList("the"), true)));
+        assertEquals(new TermQuery(2, "f", "apple"), visitor.visit(new TermQuery(2, "f", "Apple")));
+        assertEquals(new PhraseQuery(2, "f", "wi", "fi"), visitor.visit(new TermQuery(2, "f", "Wi-Fi")));
+        assertNull(visitor.visit(new TermQuery("f", "The")));
+        Query unchanged = new TermQuery("f", "apple");
+        assertSame(unchanged, visitor.visit(unchanged));
+    }
+
+    @Test
+    public void testPhrase() {
+        AnalyzerQueryVisitor visitor = new AnalyzerQueryVisitor(new StandardAnalyzer(new CharArraySet(Arrays.asList("the"), true)));
+        assertEquals(new PhraseQuery(3, "f", "wi", "fi", "router"), visitor.visit(new PhraseQuery(3, "f", "the", "Wi-Fi", "router")));
+        assertNull(visitor.visit(new PhraseQuery("f", "the")));
+        Query unchanged = new PhraseQuery("f", "a", "b");
+        assertSame(unchanged, visitor.visit(unchanged));
+    }
+
+    @Test
+    public void testFields() {
+        AnalyzerQueryVisitor visitor = new AnalyzerQueryVisitor();
+        visitor.setAnalyzer("f", new StandardAnalyzer());
+        Query q = new AndQuery(new TermQuery("f", "A-B"), new TermQuery("g", "A-B"));
+        assertEquals(new AndQuery(new PhraseQuery("f", "a", "b"), new TermQuery("g", "A-B")), visitor.visit(q));
+        visitor.setAnalyzer("f", null);
+        assertSame(q, visitor.visit(q));
+        visitor.setDefaultAnalyzer(new StandardAnalyzer());
+        assertEquals(new AndQuery(new PhraseQuery("f", "a", "b"), new PhraseQuery("g", "a", "b")), visitor.visit(q));
+    }
+
+    @Test
+    public void testCache() {
+        AnalyzerQueryVisitor visitor = new AnalyzerQueryVisitor(new StandardAnalyzer());
+        visitor.setCacheSize(1);
+        for (int i = 0; i < 3; i++) {
+            assertEquals(new TermQuery("f", "apple"), visitor.visit(new TermQuery("f", "Apple")));
+            assertEquals(new PhraseQuery("f", "a", "b"), visitor.visit(new TermQuery("f", "A B")));
+        }
+        visitor.setCacheSize(0);
+        assertEquals(new TermQuery("f", "apple"), visitor.visit(new TermQuery("f", "Apple")));
+    }
+}
+
+// END
@@ -0,0 +1,175 @@
+package com.andrewgilmartin.common.query.visitor;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import com.andrewgilmartin.common.query.AndQuery;
+import com.andrewgilmartin.common.query.BooleanQuery;
+import com.andrewgilmartin.common.query.DelegatedQuery;
+import com.andrewgilmartin.common.query.FilterQuery;
+import com.andrewgilmartin.common.query.LuceneQuery;
+import com.andrewgilmartin.common.query.NotQuery;
+import com.andrewgilmartin.common.query.NumberQuery;
+import com.andrewgilmartin.common.query.NumberRangeQuery;
+import com.andrewgilmartin.common.query.OrQuery;
+import com.andrewgilmartin.common.query.PhraseQuery;
+import com.andrewgilmartin.common.query.Query;
+import com.andrewgilmartin.common.query.TermQuery;
+import com.andrewgilmartin.common.query.VerbatimQuery;
+import org.apache.lucene.search.MatchNoDocsQuery;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class BinaryQueryCodecTest {
+
+    @Test
+    public void testRoundTrip() {
+        assertRoundTrip(new TermQuery("f", "a"));
+        assertRoundTrip(new TermQuery(2, "f", "\u00e9\u4e2d\ud83d\ude00"));
+        assertRoundTrip(new TermQuery("f", null));
+        assertRoundTrip(new VerbatimQuery(-1, "f", "a"));
+        assertRoundTrip(new PhraseQuery("f", "a", "b", "a"));
+        assertRoundTrip(new NumberQuery("f", 1));
+        assertRoundTrip(new NumberQuery("f", Long.MIN_VALUE));
+        assertRoundTrip(new NumberQuery("f", (short) -3));
+        assertRoundTrip(new NumberQuery("f", (byte) 7));
+        assertRoundTrip(new NumberQuery("f", 1.5f));
+        assertRoundTrip(new NumberQuery("f", Double.NaN));
+        assertRoundTrip(new NumberQuery("f", new BigInteger("123456789012345678901234567890")));
+        assertRoundTrip(new NumberQuery("f", new BigDecimal("1.50")));
+        assertRoundTrip(new NumberRangeQuery(3, "f", 1, null, false, true));
+        assertRoundTrip(new NumberRangeQuery("f", null, 5L, true, false));
+        assertRoundTrip(new BooleanQuery("f", true));
+        assertRoundTrip(new BooleanQuery(0, "f", false));
+        {
+            OrQuery q = new OrQuery(3, new TermQuery("f", "a"), new TermQuery("f", "b"), new TermQuery("f", "c"));
+            q.setMinimumShouldMatch(2);
+            assertRoundTrip(q);
+        }
+        assertRoundTrip(new AndQuery(
+                new OrQuery(new TermQuery("f", "a"), new PhraseQuery("f", "b", "c")),
+                new FilterQuery(3, new NumberRangeQuery("g", 1, 10), new NotQuery(new NumberQuery("g", 2))),
+                new NotQuery(2, new AndQuery(), new BooleanQuery("h", true))));
+    }
+
+    @Test
+    public void testDelegated() {
+        Query q = new AndQuery(new DelegatedQuery(new TermQuery(2, "f", "a")));
+        assertEquals(new AndQuery(new TermQuery(2, "f", "a")), decode(new BinaryQueryCodec().encode(q)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testLucene() {
+        new BinaryQueryCodec().encode(new LuceneQuery(new MatchNoDocsQuery()));
+    }
+
+    @Test
+    public void testInvalid() {
+        byte[] bytes = new BinaryQueryCodec().encode(new AndQuery(new TermQuery("f", "a"), new TermQuery("f", "b")));
+        for (int i = 0; i < bytes.length; i++) {
+            try {
+                decode(Arrays.copyOf(bytes, i));
+                fail("decoded truncated encoding of " + i + " bytes");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+        bytes[0] = 2;
+        try {
+            decode(bytes);
+            fail("decoded unsupported version");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        // version 1 and and-queries of one sub-query nested deeper than the
+        // decoder recurses, around a term query of an empty field and value
+        int depth = 100000;
+        bytes = new byte[1 + 2 * depth + 5];
+        bytes[0] = 1;
+        for (int i = 0; i < depth; i++) {
+            bytes[1 + 2 * i] = 7;
+            bytes[2 + 2 * i] = 1;
+        }
+        bytes[1 + 2 * depth] = 1;
+        try {
+            decode(bytes);
+            fail("decoded too deeply nested queries");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        // version 1, a number query of an inline empty field and a null big integer
+        try {
+            decode(new byte[]{1, 4, 0, 0, 7, 0, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x0F});
+            fail("decoded null big integer");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * A count greater than the remaining bytes is rejected before it is
+     * allocated.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidCount() {
+        // version 1, a phrase query of an inline empty field and 0x7FFFFFFF terms
+        decode(new byte[]{1, 3, 0, 0, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07});
+    }
+
+    /**
+     * The field and repeated terms are encoded once.
+     */
+    @Test
+    public void testDictionary() throws IOException {
+        OrQuery q = new OrQuery();
+        for (int i = 0; i < 1000; i++) {
+            q.addQuery(new TermQuery("field", "term" + (i % 10)));
+        }
+        byte[] bytes = new BinaryQueryCodec().encode(q);
+        assertTrue(bytes.length < 3 * 1000 + 200); // a header and two string indexes per term query
+        assertTrue(bytes.length * 5 < serialize(q).length);
+        assertEquals(q, decode(bytes));
+    }
+
+    @Test
+    public void testByteBuffer() {
+        BinaryQueryCodec codec = new BinaryQueryCodec();
+        Query q = new PhraseQuery("field", "a", "b", "c", "d", "e", "f", "g");
+        ByteBuffer buffer = codec.encode(q, ByteBuffer.allocateDirect(4));
+        assertTrue(buffer.isDirect());
+        assertEquals(q, codec.decode(buffer));
+        assertFalse(buffer.hasRemaining());
+        // the encodings of many queries can be concatenated and read without copying
+        buffer.clear();
+        buffer = codec.encode(new TermQuery("f", "a"), buffer);
+        buffer.position(buffer.limit()).limit(buffer.capacity());
+        buffer = codec.encode(new TermQuery("f", "b"), buffer);
+        buffer.position(0);
+        assertEquals(new TermQuery("f", "a"), codec.decode(buffer));
+        assertEquals(new TermQuery("f", "b"), codec.decode(buffer));
+    }
+
+    private static void assertRoundTrip(Query query) {
+        Query decoded = decode(new BinaryQueryCodec().encode(query));
+        assertEquals(query, decoded);
+        assertEquals(query.getClass(), decoded.getClass());
+    }
+
+    private static Query decode(byte[] bytes) {
+        return new BinaryQueryCodec().decode(ByteBuffer.wrap(bytes));
+    }
+
+    private static byte[] serialize(Query query) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream output = new ObjectOutputStream(bytes)) {
+            output.writeObject(query);
+        }
+        return bytes.toByteArray();
+    }
+}
+
+// END
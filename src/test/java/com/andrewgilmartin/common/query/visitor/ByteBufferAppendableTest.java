@@ -0,0 +1,66 @@
+package com.andrewgilmartin.common.query.visitor;
+
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class ByteBufferAppendableTest {
+
+    @Test
+    public void testUtf8() {
+        String value = "a\u00e9\u20ac\ud83d\ude00";
+        ByteBufferAppendable output = new ByteBufferAppendable(1, false);
+        output.append(value);
+        assertArrayEquals(value.getBytes(StandardCharsets.UTF_8), output.toByteArray());
+        assertEquals(value.getBytes(StandardCharsets.UTF_8).length, output.size());
+        assertEquals(value, output.toString());
+    }
+
+    @Test
+    public void testFormEncoded() throws Exception {
+        String value = "f: \"a+b\" AND g: [1 TO *] \u00e9\ud83d\ude00 -_.*~";
+        ByteBufferAppendable output = new ByteBufferAppendable(1, true);
+        output.append(value);
+        assertEquals(URLEncoder.encode(value, "UTF-8"), output.toString());
+    }
+
+    @Test
+    public void testAppendRaw() {
+        ByteBufferAppendable output = new ByteBufferAppendable(1, true);
+        output.appendRaw("q=").append("a b&c").appendRaw("&fq=\u00e9").append('\ud83d').appendRaw("=");
+        assertEquals("q=a+b%26c&fq=\u00e9%3F=", new String(output.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testSurrogates() {
+        {
+            ByteBufferAppendable output = new ByteBufferAppendable();
+            output.append('\ud83d');
+            output.append("\ude00", 0, 1);
+            assertEquals("\ud83d\ude00", output.toString());
+        }
+        {
+            ByteBufferAppendable output = new ByteBufferAppendable();
+            output.append("a\ude00b\ud83dc\ud83d");
+            assertEquals("a?b?c?", output.toString());
+        }
+    }
+
+    @Test
+    public void testReuse() {
+        ByteBuffer direct = ByteBuffer.allocateDirect(2);
+        ByteBufferAppendable output = new ByteBufferAppendable(direct, false);
+        output.append("abcdef");
+        assertTrue(output.getByteBuffer().isDirect());
+        assertTrue(output.getByteBuffer().isReadOnly());
+        assertEquals("abcdef", output.toString());
+        output.clear();
+        assertEquals(0, output.size());
+        output.append("xyz");
+        assertEquals("xyz", output.toString());
+    }
+}
+
+// END
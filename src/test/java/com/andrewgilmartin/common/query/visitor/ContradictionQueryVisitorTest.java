@@ -0,0 +1,74 @@
+package com.andrewgilmartin.common.query.visitor;
+
+import com.andrewgilmartin.common.query.AndQuery;
+import com.andrewgilmartin.common.query.BooleanQuery;
+import com.andrewgilmartin.common.query.NotQuery;
+import com.andrewgilmartin.common.query.OrQuery;
+import com.andrewgilmartin.common.query.PhraseQuery;
+import com.andrewgilmartin.common.query.Query;
+import com.andrewgilmartin.common.query.TermQuery;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+public class ContradictionQueryVisitorTest {
+
+    private static final Query A = new TermQuery("f", "a");
+    private static final Query B = new TermQuery("f", "b");
+    private static final Query C = new TermQuery("f", "c");
+
+    @Test
+    public void testUnsatisfiable() {
+        assertUnsatisfiable(new AndQuery(A, new NotQuery(new TermQuery("f", "a"))));
+        assertUnsatisfiable(new AndQuery(new TermQuery(2, "f", "a"), B, new NotQuery(C, new TermQuery(3, "f", "a"))));
+        assertUnsatisfiable(new AndQuery(new BooleanQuery("g", true), A, new BooleanQuery("g", false)));
+        assertUnsatisfiable(new OrQuery(A, new NotQuery(A)));
+        assertUnsatisfiable(new OrQuery(new AndQuery(A, new NotQuery(A)), new AndQuery(B, new NotQuery(B))));
+        assertUnsatisfiable(new AndQuery(C, new OrQuery(A, new NotQuery(A))));
+        assertUnsatisfiable(minimumShouldMatch(2, new OrQuery(A, B, new NotQuery(A))));
+    }
+
+    @Test
+    public void testRedundant() {
+        assertEquals("(f: \"b\" OR NOT (f: \"a\"))", rewrite(new OrQuery(A, B, new NotQuery(A))));
+        assertEquals("(f: \"c\" OR f: \"b\")", rewrite(new OrQuery(C, new AndQuery(A, new NotQuery(A)), B)));
+        assertEquals("(f: \"a\" AND NOT (f: \"b\") AND NOT (f: \"c\"))", rewrite(new AndQuery(A, new NotQuery(B), new NotQuery(new TermQuery(2, "f", "b"), C))));
+        assertEquals("(f: \"a\" AND NOT (f: \"b\"))", rewrite(new AndQuery(A, new NotQuery(B, new AndQuery(C, new NotQuery(C))))));
+        assertEquals("(f: \"a\" AND g: true)", rewrite(new AndQuery(A, new BooleanQuery("g", true), new NotQuery(new BooleanQuery("g", false)))));
+        assertNull(new ContradictionQueryVisitor().visitQuery(new NotQuery(new AndQuery(A, new NotQuery(A)))));
+    }
+
+    @Test
+    public void testUnchangedIsSame() {
+        Query q = new AndQuery(A, new OrQuery(B, new PhraseQuery("f", "a", "b")), new NotQuery(C), new BooleanQuery("g", true), new NotQuery(new BooleanQuery("h", false)));
+        assertSame(q, new ContradictionQueryVisitor().visitQuery(q));
+    }
+
+    @Test
+    public void testIterative() {
+        ContradictionQueryVisitor visitor = new ContradictionQueryVisitor();
+        visitor.setIterative(true);
+        assertTrue(ContradictionQueryVisitor.isUnsatisfiable(visitor.visitQuery(new AndQuery(C, new OrQuery(A, new NotQuery(A))))));
+        assertEquals("(f: \"c\" OR f: \"b\")", toString(visitor.visitQuery(new OrQuery(C, new AndQuery(A, new NotQuery(A)), B))));
+    }
+
+    private static void assertUnsatisfiable(Query query) {
+        assertTrue(ContradictionQueryVisitor.isUnsatisfiable(new ContradictionQueryVisitor().visitQuery(query)));
+    }
+
+    private static String rewrite(Query query) {
+        return toString(new ContradictionQueryVisitor().visitQuery(query));
+    }
+
+    private static String toString(Query query) {
+        return new SolrLuceneQueryVistor().visitQuery(query).toString();
+    }
+
+    private static OrQuery minimumShouldMatch(int minimumShouldMatch, OrQuery query) {
+        query.setMinimumShouldMatch(minimumShouldMatch);
+        return query;
+    }
+}
+
@@ -0,0 +1,115 @@
+package com.andrewgilmartin.common.query.visitor;
+
+import com.andrewgilmartin.common.query.AndQuery;
+import com.andrewgilmartin.common.query.NotQuery;
+import com.andrewgilmartin.common.query.OrQuery;
+import com.andrewgilmartin.common.query.PhraseQuery;
+import com.andrewgilmartin.common.query.Query;
+import com.andrewgilmartin.common.query.TermQuery;
+import java.util.HashMap;
+import java.util.Map;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import org.junit.Test;
+
+public class CostQueryVisitorTest {
+
+    private static final CostQueryVisitor.Statistics STATISTICS = new CostQueryVisitor.Statistics() {
+
+        private final Map<String, Integer> docFreqs = new HashMap<>();
+
+        {
+            docFreqs.put("rare", 1);
+            docFreqs.put("uncommon", 10);
+            docFreqs.put("common", 100);
+        }
+
+        @Override
+        public int docFreq(String field, String term) {
+            Integer docFreq = docFreqs.get(term);
+            return docFreq != null ? docFreq : 0;
+        }
+
+        @Override
+        public int maxDoc() {
+            return 1000;
+        }
+    };
+
+    private static final CostQueryVisitor VISITOR = new CostQueryVisitor(STATISTICS);
+
+    @Test
+    public void testLeaves() {
+        assertEquals(10, VISITOR.visitQuery(term("uncommon")).getCost());
+        assertEquals(1, VISITOR.visitQuery(new PhraseQuery("f", "common", "rare")).getCost());
+        assertNull(VISITOR.visitQuery(term("absent")).getQuery());
+        assertNull(VISITOR.visitQuery(new PhraseQuery("f", "common", "absent")).getQuery());
+    }
+
+    @Test
+    public void testAnd() {
+        CostQueryVisitor.Cost cost = VISITOR.visitQuery(new AndQuery(term("common"), new NotQuery(term("rare")), term("uncommon")));
+        assertEquals(10, cost.getCost());
+        assertEquals("(f: \"uncommon\" AND f: \"common\" AND NOT (f: \"rare\"))", toString(cost.getQuery()));
+        assertEquals("[10, 100, 1]", cost.getCosts().toString());
+
+        cost = VISITOR.visitQuery(new OrQuery(term("rare"), new AndQuery(term("common"), term("absent"))));
+        assertEquals(1, cost.getCost());
+        assertEquals("(f: \"rare\")", toString(cost.getQuery()));
+
+        cost = VISITOR.visitQuery(new AndQuery(term("common"), new OrQuery(term("absent"), new PhraseQuery("f", "absent"))));
+        assertEquals(0, cost.getCost());
+        assertNull(cost.getQuery());
+    }
+
+    @Test
+    public void testOr() {
+        CostQueryVisitor.Cost cost = VISITOR.visitQuery(new OrQuery(2, term("common"), term("absent"), term("rare")));
+        assertEquals(101, cost.getCost());
+        assertEquals("(f: \"rare\" OR f: \"common\") ^2.0", toString(cost.getQuery()));
+    }
+
+    @Test
+    public void testNot() {
+        CostQueryVisitor.Cost cost = VISITOR.visitQuery(new AndQuery(term("common"), new NotQuery(term("absent"))));
+        assertEquals(100, cost.getCost());
+        assertEquals("(f: \"common\")", toString(cost.getQuery()));
+    }
+
+    @Test
+    public void testOrOfOnlyNot() {
+        // the optional sub-query can't match and so neither can the or-query
+        CostQueryVisitor.Cost cost = VISITOR.visitQuery(new OrQuery(term("absent"), new NotQuery(term("rare"))));
+        assertEquals(0, cost.getCost());
+        assertNull(cost.getQuery());
+        // without optional sub-queries the not-queries match all other documents
+        cost = VISITOR.visitQuery(new OrQuery(new NotQuery(term("rare"))));
+        assertEquals(1000, cost.getCost());
+    }
+
+    @Test
+    public void testUnchangedIsSame() {
+        Query q = new AndQuery(term("rare"), new OrQuery(term("uncommon"), term("common")), new NotQuery(term("common")));
+        assertSame(q, VISITOR.visitQuery(q).getQuery());
+    }
+
+    @Test
+    public void testIterative() {
+        Query q = new AndQuery(term("common"), new OrQuery(term("uncommon"), term("absent")), new NotQuery(term("rare")));
+        CostQueryVisitor visitor = new CostQueryVisitor(STATISTICS);
+        visitor.setIterative(true);
+        CostQueryVisitor.Cost iterative = visitor.visitQuery(q);
+        CostQueryVisitor.Cost recursive = VISITOR.visitQuery(q);
+        assertEquals(recursive.getCost(), iterative.getCost());
+        assertEquals(toString(recursive.getQuery()), toString(iterative.getQuery()));
+    }
+
+    private static Query term(String term) {
+        return new TermQuery("f", term);
+    }
+
+    private static String toString(Query query) {
+        return new SolrLuceneQueryVistor().visitQuery(query).toString();
+    }
+}
@@ -0,0 +1,94 @@
+package com.andrewgilmartin.common.query.visitor;
+
+import com.andrewgilmartin.common.query.AndQuery;
+import com.andrewgilmartin.common.query.BooleanQuery;
+import com.andrewgilmartin.common.query.DelegatedQuery;
+import com.andrewgilmartin.common.query.LuceneQuery;
+import com.andrewgilmartin.common.query.NotQuery;
+import com.andrewgilmartin.common.query.NumberQuery;
+import com.andrewgilmartin.common.query.OrQuery;
+import com.andrewgilmartin.common.query.PhraseQuery;
+import com.andrewgilmartin.common.query.Query;
+import com.andrewgilmartin.common.query.QueryFingerprint;
+import com.andrewgilmartin.common.query.TermQuery;
+import com.andrewgilmartin.common.query.VerbatimQuery;
+import java.util.HashSet;
+import java.util.Set;
+import org.apache.lucene.index.Term;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import org.junit.Test;
+
+public class FingerprintQueryVisitorTest {
+
+    private static final FingerprintQueryVisitor VISITOR = new FingerprintQueryVisitor();
+
+    @Test
+    public void testEquivalent() {
+        assertEquivalent(
+                new AndQuery(new TermQuery("f", "a"), new OrQuery(new TermQuery("f", "b"), new PhraseQuery("f", "c", "d")), new NotQuery(new TermQuery("f", "e"), new TermQuery("f", "g"))),
+                new AndQuery(new NotQuery(new TermQuery("f", "g"), new TermQuery("f", "e")), new OrQuery(new PhraseQuery("f", "c", "d"), new TermQuery("f", "b")), new TermQuery("f", "a")));
+        assertEquivalent(new TermQuery(0, "f", "a"), new TermQuery(-0f, "f", "a"));
+        assertEquivalent(new TermQuery("f", "a"), new DelegatedQuery(new TermQuery("f", "a")));
+        assertEquivalent(new NumberQuery("f", 1), new NumberQuery("f", 1L));
+        assertEquivalent(new OrQuery(new TermQuery("f", "a")), minimumShouldMatch(1, new OrQuery(new TermQuery("f", "a"))));
+        assertEquivalent(new LuceneQuery(new org.apache.lucene.search.TermQuery(new Term("f", "a"))), new LuceneQuery(new org.apache.lucene.search.TermQuery(new Term("f", "a"))));
+    }
+
+    @Test
+    public void testDifferent() {
+        Query[] queries = {
+            new TermQuery("f", "a"),
+            new TermQuery("g", "a"),
+            new TermQuery("f", "b"),
+            new TermQuery("f", "ab"),
+            new TermQuery("fa", ""),
+            new TermQuery(2, "f", "a"),
+            new TermQuery(1, "f", "a"),
+            new VerbatimQuery("f", "a"),
+            new PhraseQuery("f", "a"),
+            new PhraseQuery("f", "a", "b"),
+            new PhraseQuery("f", "b", "a"),
+            new NumberQuery("f", 1),
+            new NumberQuery("f", 1.0),
+            new BooleanQuery("f", true),
+            new BooleanQuery("f", false),
+            new AndQuery(new TermQuery("f", "a")),
+            new AndQuery(new TermQuery("f", "a"), new TermQuery("f", "a")),
+            new OrQuery(new TermQuery("f", "a")),
+            minimumShouldMatch(2, new OrQuery(new TermQuery("f", "a"))),
+            new NotQuery(new TermQuery("f", "a")),
+            new AndQuery(new TermQuery("f", "a"), new TermQuery("f", "b")),
+            new AndQuery(new TermQuery("f", "a"), new TermQuery("f", "c")),
+            new AndQuery(new AndQuery(new TermQuery("f", "a")), new TermQuery("f", "b")),
+            new AndQuery(2, new TermQuery("f", "a"), new TermQuery("f", "b")),
+            new LuceneQuery(new org.apache.lucene.search.TermQuery(new Term("f", "a"))),
+            new LuceneQuery(new org.apache.lucene.search.TermQuery(new Term("f", "b")))
+        };
+        Set<QueryFingerprint> fingerprints = new HashSet<>();
+        for (Query q : queries) {
+            fingerprints.add(VISITOR.fingerprint(q));
+        }
+        assertEquals(queries.length, fingerprints.size());
+        assertNull(VISITOR.fingerprint(null));
+    }
+
+    @Test
+    public void testToString() {
+        QueryFingerprint fingerprint = VISITOR.fingerprint(new TermQuery("f", "a"));
+        assertEquals(32, fingerprint.toString().length());
+        assertEquals(fingerprint, QueryFingerprint.valueOf(fingerprint.toString()));
+        assertEquals("0000000000000001ffffffffffffffff", new QueryFingerprint(1, -1).toString());
+    }
+
+    private static OrQuery minimumShouldMatch(int minimumShouldMatch, OrQuery query) {
+        query.setMinimumShouldMatch(minimumShouldMatch);
+        return query;
+    }
+
+    private static void assertEquivalent(Query a, Query b) {
+        assertEquals(VISITOR.fingerprint(a), VISITOR.fingerprint(b));
+        assertNotEquals(VISITOR.fingerprint(a), VISITOR.fingerprint(new NotQuery(a)));
+    }
+}
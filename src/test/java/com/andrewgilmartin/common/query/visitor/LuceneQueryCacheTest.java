@@ -0,0 +1,220 @@
+package com.andrewgilmartin.common.query.visitor;
+
+import com.andrewgilmartin.common.query.AndQuery;
+import com.andrewgilmartin.common.query.LuceneQuery;
+import com.andrewgilmartin.common.query.NotQuery;
+import com.andrewgilmartin.common.query.OrQuery;
+import com.andrewgilmartin.common.query.Query;
+import com.andrewgilmartin.common.query.TermQuery;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+public class LuceneQueryCacheTest {
+
+    @Test
+    public void testHit() {
+        LuceneQueryCache cache = new LuceneQueryCache(10, Long.MAX_VALUE);
+        org.apache.lucene.search.Query lq = cache.get(createQuery(1));
+        assertSame(lq, cache.get(createQuery(1)));
+        assertNotSame(lq, cache.get(createQuery(2)));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+        assertEquals(2, cache.size());
+        assertEquals(new LuceneQueryVisitor().visitQuery(createQuery(1)), lq);
+    }
+
+    @Test
+    public void testEquivalent() {
+        LuceneQueryCache cache = new LuceneQueryCache(10, Long.MAX_VALUE);
+        org.apache.lucene.search.Query lq = cache.get(new OrQuery(new TermQuery("f", "a"), new TermQuery("f", "b")));
+        assertSame(lq, cache.get(new OrQuery(new TermQuery("f", "b"), new TermQuery("f", "a"))));
+    }
+
+    /**
+     * An unweighted query is not the same as one with a weight of 1 as the
+     * rewriter combines their weights differently.
+     */
+    @Test
+    public void testUnweighted() {
+        LuceneQueryCache cache = new LuceneQueryCache(10, Long.MAX_VALUE);
+        ReduceQueryVisitor rewriter = new ReduceQueryVisitor();
+        Query q = new AndQuery(2, new TermQuery("f", "a"));
+        Query w = new AndQuery(2, new TermQuery(1, "f", "a"));
+        assertEquals(new LuceneQueryVisitor().visitQuery(rewriter.visitQuery(q)), cache.get(q));
+        assertEquals(new LuceneQueryVisitor().visitQuery(rewriter.visitQuery(w)), cache.get(w));
+        assertNotEquals(cache.get(q), cache.get(w));
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void testChangedQuery() {
+        LuceneQueryCache cache = new LuceneQueryCache(10, Long.MAX_VALUE);
+        AndQuery q = createQuery(1);
+        org.apache.lucene.search.Query lq = cache.get(q);
+        assertFalse(q.isFrozen());
+        q.addQuery(new TermQuery("f", "c"));
+        assertNotSame(lq, cache.get(q));
+    }
+
+    @Test
+    public void testEvictBySize() {
+        LuceneQueryCache cache = new LuceneQueryCache(2, Long.MAX_VALUE);
+        org.apache.lucene.search.Query lq = cache.get(createQuery(1));
+        cache.get(createQuery(2));
+        cache.get(createQuery(1)); // 2 is now the least recently used
+        cache.get(createQuery(3));
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictionCount());
+        assertSame(lq, cache.get(createQuery(1)));
+        cache.get(createQuery(2));
+        assertEquals(4, cache.getMissCount());
+    }
+
+    @Test
+    public void testEvictByRam() {
+        LuceneQueryCache cache = new LuceneQueryCache(100, 3 * LuceneQueryCache.DEFAULT_RAM_BYTES_USED);
+        for (int i = 0; i < 10; i++) {
+            cache.get(createQuery(i));
+        }
+        assertTrue(cache.size() <= 3);
+        assertEquals(cache.size() * LuceneQueryCache.DEFAULT_RAM_BYTES_USED, cache.ramBytesUsed());
+        assertEquals(10 - cache.size(), cache.getEvictionCount());
+    }
+
+    /**
+     * The least recently used entries are evicted in a batch to an eighth
+     * below the bounds.
+     */
+    @Test
+    public void testEvictBatch() {
+        LuceneQueryCache cache = new LuceneQueryCache(16, Long.MAX_VALUE);
+        for (int i = 0; i < 16; i++) {
+            cache.get(createQuery(i));
+        }
+        cache.get(createQuery(0)); // 1 is now the least recently used
+        cache.get(createQuery(16));
+        assertEquals(14, cache.size());
+        assertEquals(3, cache.getEvictionCount());
+        cache.get(createQuery(0));
+        cache.get(createQuery(4));
+        assertEquals(3, cache.getHitCount());
+        cache.get(createQuery(1));
+        cache.get(createQuery(2));
+        cache.get(createQuery(3));
+        assertEquals(20, cache.getMissCount());
+
+        cache = new LuceneQueryCache(100, 16 * LuceneQueryCache.DEFAULT_RAM_BYTES_USED);
+        for (int i = 0; i < 17; i++) {
+            cache.get(createQuery(i));
+        }
+        assertEquals(14, cache.size());
+        assertEquals(14 * LuceneQueryCache.DEFAULT_RAM_BYTES_USED, cache.ramBytesUsed());
+        assertEquals(3, cache.getEvictionCount());
+    }
+
+    /**
+     * A Lucene query that uses more than the cache's memory is not cached.
+     */
+    @Test
+    public void testTooLarge() {
+        LuceneQueryCache cache = new LuceneQueryCache(10, LuceneQueryCache.DEFAULT_RAM_BYTES_USED - 1);
+        Query q = createQuery(1);
+        assertEquals(new LuceneQueryVisitor().visitQuery(q), cache.get(q));
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.ramBytesUsed());
+        assertEquals(0, cache.getEvictionCount());
+    }
+
+    @Test
+    public void testReduced() {
+        LuceneQueryCache cache = new LuceneQueryCache(10, Long.MAX_VALUE);
+        assertNull(cache.get(new OrQuery(new AndQuery())));
+        assertEquals(new LuceneQueryVisitor().visitQuery(new TermQuery("f", "a")), cache.get(new OrQuery(new TermQuery("f", "a"))));
+    }
+
+    @Test
+    public void testConcurrent() throws InterruptedException {
+        final LuceneQueryCache cache = new LuceneQueryCache(50, Long.MAX_VALUE);
+        final AtomicInteger failures = new AtomicInteger();
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            final int seed = t;
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 2000; i++) {
+                        int n = (i * 7 + seed) % 100;
+                        if (!new LuceneQueryVisitor().visitQuery(createQuery(n)).equals(cache.get(createQuery(n)))) {
+                            failures.incrementAndGet();
+                        }
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(0, failures.get());
+        assertEquals(threads.length * 2000, cache.getHitCount() + cache.getMissCount());
+        assertTrue(cache.size() <= 50);
+        assertEquals(cache.size() * LuceneQueryCache.DEFAULT_RAM_BYTES_USED, cache.ramBytesUsed());
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.ramBytesUsed());
+    }
+
+    /**
+     * The fingerprint of a Lucene query is its hash code and so a hit is
+     * confirmed by the equality of the Lucene queries.
+     */
+    @Test
+    public void testLuceneQueries() {
+        LuceneQueryCache cache = new LuceneQueryCache(10, Long.MAX_VALUE);
+        org.apache.lucene.search.Query lq = cache.get(new AndQuery(new TermQuery("f", "a"), new LuceneQuery(new CollidingQuery("x"))));
+        assertSame(lq, cache.get(new AndQuery(new TermQuery("f", "a"), new LuceneQuery(new CollidingQuery("x")))));
+        Query q = new AndQuery(new TermQuery("f", "a"), new LuceneQuery(new CollidingQuery("y")));
+        assertEquals(new LuceneQueryVisitor().visitQuery(q), cache.get(q));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+        assertEquals(1, cache.size());
+    }
+
+    private static AndQuery createQuery(int i) {
+        return new AndQuery(new TermQuery("f", "a" + i), new NotQuery(new TermQuery("f", "b")));
+    }
+
+    /**
+     * A Lucene query whose hash code is the same for all values.
+     */
+    private static final class CollidingQuery extends org.apache.lucene.search.Query {
+
+        private final String value;
+
+        CollidingQuery(String value) {
+            this.value = value;
+        }
+
+        @Override
+        public String toString(String field) {
+            return value;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof CollidingQuery && value.equals(((CollidingQuery) other).value);
+        }
+
+        @Override
+        public int hashCode() {
+            return 1;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.andrewgilmartin.common.query.visitor;
+
+import com.andrewgilmartin.common.query.AndQuery;
+import com.andrewgilmartin.common.query.FilterQuery;
+import com.andrewgilmartin.common.query.LuceneQuery;
+import com.andrewgilmartin.common.query.NotQuery;
+import com.andrewgilmartin.common.query.OrQuery;
+import com.andrewgilmartin.common.query.PhraseQuery;
+import com.andrewgilmartin.common.query.Query;
+import com.andrewgilmartin.common.query.TermQuery;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.TreeSet;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.MatchNoDocsQuery;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+public class LuceneQueryConverterTest {
+
+    private static final LuceneQueryConverter CONVERTER = new LuceneQueryConverter();
+
+    @Test
+    public void testRoundTrip() {
+        Query[] queries = {
+            new TermQuery("f", "a"),
+            new TermQuery(2, "f", "a"),
+            new PhraseQuery("f", "a", "b", "c"),
+            new PhraseQuery(3, "f", "a"),
+            new AndQuery(new TermQuery("f", "a"), new PhraseQuery("g", "b", "c")),
+            new OrQuery(2, new TermQuery("f", "a"), new TermQuery(3, "f", "b"), new NotQuery(new TermQuery(4, "f", "c"))),
+            new NotQuery(new TermQuery("f", "a"), new TermQuery("f", "b")),
+            minimumShouldMatch(2, new OrQuery(new TermQuery("f", "a"), new TermQuery("f", "b"), new TermQuery("f", "c"))),
+            new FilterQuery(new TermQuery("f", "a")),
+            new FilterQuery(2, new TermQuery("f", "a"), new NotQuery(new TermQuery("f", "b"))),
+            new AndQuery(new TermQuery("f", "a"), new FilterQuery(new TermQuery("g", "b"), new TermQuery("g", "c"))),
+            new AndQuery(new TermQuery("f", "a"), new OrQuery(new TermQuery("f", "b"), new AndQuery(4, new TermQuery("f", "c"), new TermQuery("f", "d"))), new NotQuery(new TermQuery("f", "e")))
+        };
+        LuceneQueryVisitor compiler = new LuceneQueryVisitor();
+        for (Query q : queries) {
+            org.apache.lucene.search.Query lq = compiler.visitQuery(q);
+            Query cq = CONVERTER.convert(lq);
+            assertEquals(toString(q), lq, compiler.visitQuery(cq));
+            assertEquivalent(q, cq);
+        }
+    }
+
+    /**
+     * The same Lucene query can be the clause of several boolean queries, or
+     * a clause of a boolean query several times.
+     */
+    @Test
+    public void testSharedClauses() {
+        org.apache.lucene.search.Query or = new org.apache.lucene.search.BooleanQuery.Builder()
+                .add(new org.apache.lucene.search.TermQuery(new Term("f", "a")), BooleanClause.Occur.SHOULD)
+                .add(new org.apache.lucene.search.TermQuery(new Term("f", "b")), BooleanClause.Occur.SHOULD)
+                .add(new org.apache.lucene.search.TermQuery(new Term("f", "c")), BooleanClause.Occur.MUST_NOT)
+                .build();
+        org.apache.lucene.search.Query lq = new org.apache.lucene.search.BooleanQuery.Builder()
+                .add(or, BooleanClause.Occur.MUST)
+                .add(or, BooleanClause.Occur.MUST)
+                .build();
+        Query converted = new OrQuery(new TermQuery("f", "a"), new TermQuery("f", "b"), new NotQuery(new TermQuery("f", "c")));
+        assertEquivalent(new AndQuery(converted, converted), CONVERTER.convert(lq));
+    }
+
+    @Test
+    public void testOpaque() {
+        org.apache.lucene.search.Query lq = new MatchNoDocsQuery();
+        Query q = new LuceneQuery(lq);
+        assertSame(q, CONVERTER.visitQuery(q));
+
+        // slop
+        lq = new org.apache.lucene.search.PhraseQuery.Builder().add(new Term("f", "a")).add(new Term("f", "b")).setSlop(1).build();
+        assertTrue(CONVERTER.convert(lq) instanceof LuceneQuery);
+
+        // required and optional clauses
+        lq = new org.apache.lucene.search.BooleanQuery.Builder()
+                .add(new org.apache.lucene.search.TermQuery(new Term("f", "a")), BooleanClause.Occur.MUST)
+                .add(new org.apache.lucene.search.TermQuery(new Term("f", "b")), BooleanClause.Occur.SHOULD)
+                .build();
+        assertTrue(CONVERTER.convert(lq) instanceof LuceneQuery);
+
+        // opaque within convertible
+        lq = new org.apache.lucene.search.BooleanQuery.Builder()
+                .add(new org.apache.lucene.search.TermQuery(new Term("f", "a")), BooleanClause.Occur.MUST)
+                .add(new MatchNoDocsQuery(), BooleanClause.Occur.MUST)
+                .build();
+        Query cq = CONVERTER.convert(lq);
+        assertEquivalent(new AndQuery(new TermQuery("f", "a"), new LuceneQuery(new MatchNoDocsQuery())), cq);
+    }
+
+    @Test
+    public void testVisitors() {
+        Query q = new AndQuery(
+                new TermQuery("f", "a"),
+                new LuceneQuery(2, new LuceneQueryVisitor().visitQuery(new OrQuery(new TermQuery("f", "b"), new TermQuery(3, "f", "c"))))
+        );
+        assertEquivalent(new AndQuery(new TermQuery("f", "a"), new OrQuery(2, new TermQuery("f", "b"), new TermQuery(3, "f", "c"))), CONVERTER.visitQuery(q));
+        assertTrue(toString(q).startsWith("(f: \"a\" AND (f: "));
+        assertEquals(new TreeSet<>(Arrays.asList("a", "b", "c")), new TermsGatheringVisitor().visit(q, new TreeSet<String>()));
+        Set<String> terms = TermsGatheringVisitor.getTerms(new LuceneQuery(new MatchNoDocsQuery()));
+        assertTrue(terms.isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSolrOpaque() {
+        toString(new LuceneQuery(new MatchNoDocsQuery()));
+    }
+
+    /**
+     * The order of a Lucene boolean query's clauses is not preserved and so
+     * the queries are compared by their fingerprints.
+     */
+    private static void assertEquivalent(Query expected, Query actual) {
+        FingerprintQueryVisitor fingerprinter = new FingerprintQueryVisitor();
+        assertEquals(fingerprinter.fingerprint(expected), fingerprinter.fingerprint(actual));
+    }
+
+    private static String toString(Query query) {
+        return new SolrLuceneQueryVistor().visitQuery(query).toString();
+    }
+
+    private static OrQuery minimumShouldMatch(int minimumShouldMatch, OrQuery query) {
+        query.setMinimumShouldMatch(minimumShouldMatch);
+        return query;
+    }
+}
+
@@ -0,0 +1,268 @@
+package com.andrewgilmartin.common.query.visitor;
+
+import com.andrewgilmartin.common.query.AndQuery;
+import com.andrewgilmartin.common.query.FilterQuery;
+import com.andrewgilmartin.common.query.NotQuery;
+import com.andrewgilmartin.common.query.NumberQuery;
+import com.andrewgilmartin.common.query.NumberRangeQuery;
+import com.andrewgilmartin.common.query.OrQuery;
+import com.andrewgilmartin.common.query.TermQuery;
+import com.andrewgilmartin.common.query.VerbatimQuery;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.document.DoublePoint;
+import org.apache.lucene.document.FloatPoint;
+import org.apache.lucene.document.IntPoint;
+import org.apache.lucene.document.LongPoint;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.BoostQuery;
+import org.apache.lucene.search.ConstantScoreQuery;
+import org.apache.lucene.search.MatchNoDocsQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.SynonymQuery;
+import org.apache.lucene.search.TermInSetQuery;
+import org.apache.lucene.util.BytesRef;
+import org.junit.After;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LuceneQueryVisitorTest {
+
+    private int maxClauseCount;
+
+    @Before
+    public void setUp() {
+        maxClauseCount = BooleanQuery.getMaxClauseCount();
+        BooleanQuery.setMaxClauseCount(4);
+    }
+
+    @After
+    public void tearDown() {
+        BooleanQuery.setMaxClauseCount(maxClauseCount);
+    }
+
+    @Test
+    public void testTermInSet() {
+        OrQuery q = createOrQuery("f", 20);
+        q.addQuery(new VerbatimQuery("f", "v"));
+        LuceneQueryVisitor visitor = new LuceneQueryVisitor();
+        visitor.setScoring(false);
+        Query lq = visitor.visitQuery(q);
+        List<BytesRef> terms = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            terms.add(new BytesRef("t" + i));
+        }
+        terms.add(new BytesRef("v"));
+        assertEquals(new TermInSetQuery("f", terms), lq);
+
+        visitor.setIterative(true);
+        assertEquals(lq, visitor.visitQuery(q));
+
+        // different fields
+        q.addQuery(new TermQuery("g", "t"));
+        assertTrue(visitor.visitQuery(q) instanceof BooleanQuery);
+    }
+
+    @Test
+    public void testSplit() {
+        for (int n : new int[]{1, 4, 5, 16, 17, 100}) {
+            for (boolean iterative : new boolean[]{false, true}) {
+                LuceneQueryVisitor visitor = new LuceneQueryVisitor();
+                visitor.setIterative(iterative);
+                Query lq = visitor.visitQuery(createOrQuery("f", n));
+                assertEquals(n, countTerms(lq));
+            }
+        }
+    }
+
+    @Test
+    public void testSplitWithNot() {
+        OrQuery q = createOrQuery("f", 10);
+        q.addQuery(new NotQuery(new TermQuery("f", "x"), new TermQuery("f", "y")));
+        BooleanQuery lq = (BooleanQuery) new LuceneQueryVisitor().visitQuery(q);
+        assertEquals(4, lq.clauses().size());
+        int prohibited = 0;
+        for (BooleanClause clause : lq.clauses()) {
+            if (clause.getOccur() == BooleanClause.Occur.MUST_NOT) {
+                prohibited++;
+            }
+        }
+        assertEquals(2, prohibited);
+        assertEquals(12, countTerms(lq));
+    }
+
+    @Test
+    public void testFilter() {
+        LuceneQueryVisitor visitor = new LuceneQueryVisitor();
+
+        // inline
+        Query lq = visitor.visitQuery(new AndQuery(
+                new TermQuery("f", "a"),
+                new FilterQuery(new TermQuery("g", "b"), new NotQuery(new TermQuery("g", "c")))));
+        assertEquals(new BooleanQuery.Builder()
+                .add(new org.apache.lucene.search.TermQuery(new Term("f", "a")), BooleanClause.Occur.MUST)
+                .add(new org.apache.lucene.search.TermQuery(new Term("g", "b")), BooleanClause.Occur.FILTER)
+                .add(new org.apache.lucene.search.TermQuery(new Term("g", "c")), BooleanClause.Occur.MUST_NOT)
+                .build(), lq);
+
+        // standalone
+        lq = visitor.visitQuery(new FilterQuery(new TermQuery("g", "b")));
+        assertEquals(new ConstantScoreQuery(new org.apache.lucene.search.TermQuery(new Term("g", "b"))), lq);
+
+        // weighted
+        lq = visitor.visitQuery(new AndQuery(new TermQuery("f", "a"), new FilterQuery(2, new TermQuery("g", "b"))));
+        BooleanClause clause = ((BooleanQuery) lq).clauses().get(1);
+        assertEquals(BooleanClause.Occur.MUST, clause.getOccur());
+        assertEquals(new BoostQuery(new ConstantScoreQuery(new org.apache.lucene.search.TermQuery(new Term("g", "b"))), 2), clause.getQuery());
+    }
+
+    @Test
+    public void testMinimumShouldMatch() {
+        OrQuery q = createOrQuery("f", 4);
+        q.setMinimumShouldMatch(2);
+        LuceneQueryVisitor visitor = new LuceneQueryVisitor();
+        BooleanQuery lq = (BooleanQuery) visitor.visitQuery(q);
+        assertEquals(2, lq.getMinimumNumberShouldMatch());
+        assertEquals(4, lq.clauses().size());
+
+        visitor.setIterative(true);
+        assertEquals(lq, visitor.visitQuery(q));
+
+        // not a term in set
+        q = createOrQuery("f", 20);
+        q.setMinimumShouldMatch(2);
+        visitor.setScoring(false);
+        visitor.setTermInSetThreshold(4);
+        try {
+            visitor.visitQuery(q);
+            fail("the minimum applies to all of the sub-queries and so they are not split");
+        } catch (BooleanQuery.TooManyClauses e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testSynonyms() {
+        VariantsQueryVistor variants = new VariantsQueryVistor(0.5f, Collections.singletonMap("a", Arrays.asList("x", "y")));
+        OrQuery q = (OrQuery) variants.visitQuery(new TermQuery(2, "f", "a"));
+        LuceneQueryVisitor visitor = new LuceneQueryVisitor();
+        assertTrue(visitor.visitQuery(q) instanceof BoostQuery);
+        assertTrue(((BoostQuery) visitor.visitQuery(q)).getQuery() instanceof BooleanQuery);
+
+        visitor.setSynonyms(true);
+        Query expected = new BoostQuery(new SynonymQuery.Builder("f")
+                .addTerm(new Term("f", "a"), 1)
+                .addTerm(new Term("f", "x"), 0.5f)
+                .addTerm(new Term("f", "y"), 0.5f)
+                .build(), 2);
+        assertEquals(expected, visitor.visitQuery(q));
+        visitor.setIterative(true);
+        BooleanQuery lq = (BooleanQuery) visitor.visitQuery(new AndQuery(q, new TermQuery("f", "b")));
+        assertEquals(expected, lq.clauses().get(0).getQuery());
+
+        // weight greater than 1
+        variants = new VariantsQueryVistor(2, Collections.singletonMap("a", Arrays.asList("x")));
+        assertTrue(visitor.visitQuery(variants.visitQuery(new TermQuery("f", "a"))) instanceof BooleanQuery);
+
+        // different fields
+        assertTrue(visitor.visitQuery(new OrQuery(new TermQuery("f", "a"), new TermQuery("g", "a"))) instanceof BooleanQuery);
+    }
+
+    @Test
+    public void testNumber() {
+        LuceneQueryVisitor visitor = new LuceneQueryVisitor();
+        visitor.setNumericField("i", Integer.class);
+        visitor.setNumericField("l", Long.class);
+        visitor.setNumericField("f", Float.class);
+        visitor.setNumericField("d", Double.class);
+
+        assertEquals(IntPoint.newExactQuery("i", 7), visitor.visitQuery(new NumberQuery("i", 7)));
+        assertEquals(LongPoint.newExactQuery("l", 7L), visitor.visitQuery(new NumberQuery("l", 7)));
+        assertEquals(FloatPoint.newExactQuery("f", 1.5f), visitor.visitQuery(new NumberQuery("f", 1.5)));
+        assertEquals(DoublePoint.newExactQuery("d", 1.5), visitor.visitQuery(new NumberQuery("d", 1.5f)));
+        assertEquals(FloatPoint.newExactQuery("f", 0.1f), visitor.visitQuery(new NumberQuery("f", 0.1)));
+        assertTrue(visitor.visitQuery(new NumberQuery("i", 1.5)) instanceof MatchNoDocsQuery);
+        assertTrue(visitor.visitQuery(new NumberQuery("i", Long.MAX_VALUE)) instanceof MatchNoDocsQuery);
+
+        // unmapped
+        assertTrue(visitor.visitQuery(new NumberQuery("x", 7)) instanceof org.apache.lucene.search.TermQuery);
+    }
+
+    @Test
+    public void testNumberRange() {
+        LuceneQueryVisitor visitor = new LuceneQueryVisitor();
+        visitor.setNumericField("i", Integer.class);
+        visitor.setNumericField("l", Long.class);
+        visitor.setNumericField("f", Float.class);
+        visitor.setNumericField("d", Double.class);
+
+        assertEquals(IntPoint.newRangeQuery("i", 1, 5), visitor.visitQuery(new NumberRangeQuery("i", 1, 5)));
+        assertEquals(IntPoint.newRangeQuery("i", 2, 4), visitor.visitQuery(new NumberRangeQuery("i", 1, 5, false, false)));
+        assertEquals(IntPoint.newRangeQuery("i", 2, 4), visitor.visitQuery(new NumberRangeQuery("i", 1.5, 4.5)));
+        assertEquals(IntPoint.newRangeQuery("i", Integer.MIN_VALUE, 5), visitor.visitQuery(new NumberRangeQuery("i", null, 5)));
+        assertEquals(IntPoint.newExactQuery("i", 3), visitor.visitQuery(new NumberRangeQuery("i", 2, 4, false, false)));
+        assertTrue(visitor.visitQuery(new NumberRangeQuery("i", 2, 3, false, false)) instanceof MatchNoDocsQuery);
+        assertTrue(visitor.visitQuery(new NumberRangeQuery("i", 5, 1)) instanceof MatchNoDocsQuery);
+
+        assertEquals(LongPoint.newRangeQuery("l", 1L, Long.MAX_VALUE), visitor.visitQuery(new NumberRangeQuery("l", 1, null)));
+        assertTrue(visitor.visitQuery(new NumberRangeQuery("l", Long.MAX_VALUE, null, false, true)) instanceof MatchNoDocsQuery);
+
+        assertEquals(DoublePoint.newRangeQuery("d", 1.0, Double.POSITIVE_INFINITY), visitor.visitQuery(new NumberRangeQuery("d", 1, null)));
+        assertEquals(DoublePoint.newRangeQuery("d", Math.nextUp(1.0), Math.nextDown(2.0)), visitor.visitQuery(new NumberRangeQuery("d", 1.0, 2.0, false, false)));
+        assertTrue(visitor.visitQuery(new NumberRangeQuery("d", Double.NaN, 2.0)) instanceof MatchNoDocsQuery);
+
+        // 0.1f and 0.2f are above 0.1 and 0.2, and 0.7f is below 0.7
+        assertEquals(FloatPoint.newRangeQuery("f", Math.nextUp(1.0f), Math.nextDown(2.0f)), visitor.visitQuery(new NumberRangeQuery("f", 1.0, 2.0, false, false)));
+        assertEquals(FloatPoint.newRangeQuery("f", 0.1f, Math.nextDown(0.2f)), visitor.visitQuery(new NumberRangeQuery("f", 0.1, 0.2)));
+        assertEquals(FloatPoint.newRangeQuery("f", 0.1f, Math.nextDown(0.2f)), visitor.visitQuery(new NumberRangeQuery("f", 0.1, 0.2, false, false)));
+        assertEquals(FloatPoint.newRangeQuery("f", Math.nextUp(0.7f), Float.POSITIVE_INFINITY), visitor.visitQuery(new NumberRangeQuery("f", 0.7, null)));
+        assertEquals(FloatPoint.newRangeQuery("f", Math.nextUp(0.7f), Float.POSITIVE_INFINITY), visitor.visitQuery(new NumberRangeQuery("f", 0.7, null, false, true)));
+        assertEquals(FloatPoint.newRangeQuery("f", Float.NEGATIVE_INFINITY, 0.7f), visitor.visitQuery(new NumberRangeQuery("f", null, 0.7)));
+        assertEquals(FloatPoint.newRangeQuery("f", Float.NEGATIVE_INFINITY, 0.7f), visitor.visitQuery(new NumberRangeQuery("f", null, 0.7, true, false)));
+        assertTrue(visitor.visitQuery(new NumberRangeQuery("f", 0.1, 0.1)) instanceof MatchNoDocsQuery);
+
+        try {
+            visitor.visitQuery(new NumberRangeQuery("x", 1, 5));
+            fail("unmapped range field");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnsupportedNumericType() {
+        new LuceneQueryVisitor().setNumericField("b", java.math.BigDecimal.class);
+    }
+
+    private static OrQuery createOrQuery(String field, int n) {
+        OrQuery q = new OrQuery();
+        for (int i = 0; i < n; i++) {
+            q.addQuery(new TermQuery(field, "t" + i));
+        }
+        return q;
+    }
+
+    /**
+     * Counts the term queries, checking that no boolean query has too many
+     * clauses.
+     */
+    private static int countTerms(Query query) {
+        if (!(query instanceof BooleanQuery)) {
+            return 1;
+        }
+        List<BooleanClause> clauses = new ArrayList<>(((BooleanQuery) query).clauses());
+        assertTrue(clauses.size() <= BooleanQuery.getMaxClauseCount());
+        int count = 0;
+        for (BooleanClause clause : clauses) {
+            count += countTerms(clause.getQuery());
+        }
+        return count;
+    }
+}
@@ -0,0 +1,89 @@
+package com.andrewgilmartin.common.query.visitor;
+
+import com.andrewgilmartin.common.query.AndQuery;
+import com.andrewgilmartin.common.query.FilterQuery;
+import com.andrewgilmartin.common.query.NotQuery;
+import com.andrewgilmartin.common.query.OrQuery;
+import com.andrewgilmartin.common.query.Query;
+import com.andrewgilmartin.common.query.TermQuery;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import org.junit.Test;
+
+public class OptimizeQueryVisitorTest {
+
+    private static final Query A = new TermQuery("f", "a");
+    private static final Query B = new TermQuery("f", "b");
+    private static final Query C = new TermQuery("f", "c");
+    private static final Query D = new TermQuery("f", "d");
+
+    @Test
+    public void testFlatten() {
+        assertEquals("(f: \"a\" AND f: \"b\" AND f: \"c\")", optimize(new AndQuery(A, new AndQuery(B, C))));
+        assertEquals("(f: \"a\" OR f: \"b\" OR f: \"c\")", optimize(new OrQuery(new OrQuery(A, B), C)));
+        assertEquals("NOT (f: \"a\" f: \"b\")", optimize(new NotQuery(new OrQuery(A, B))));
+    }
+
+    @Test
+    public void testDontFlatten() {
+        // weighted
+        assertEquals("(f: \"a\" AND (f: \"b\" AND f: \"c\") ^2.0)", optimize(new AndQuery(A, new AndQuery(2, B, C))));
+        // different class
+        assertEquals("(f: \"a\" AND (f: \"b\" OR f: \"c\"))", optimize(new AndQuery(A, new OrQuery(B, C))));
+        // not-query only applies to its siblings
+        assertEquals("(f: \"a\" OR (f: \"b\" OR NOT (f: \"c\")))", optimize(new OrQuery(A, new OrQuery(B, new NotQuery(C)))));
+    }
+
+    @Test
+    public void testMinimumShouldMatch() {
+        // each sub-query counts towards the minimum
+        assertEquals("(f: \"a\" OR f: \"a\" OR (f: \"b\" OR f: \"c\"))~2", optimize(minimumShouldMatch(2, new OrQuery(A, A, new OrQuery(B, C)))));
+        assertEquals("(f: \"a\" OR (f: \"b\" OR f: \"c\")~2)", optimize(new OrQuery(A, minimumShouldMatch(2, new OrQuery(B, C)))));
+    }
+
+    @Test
+    public void testDuplicates() {
+        assertEquals("(f: \"a\" OR f: \"b\")", optimize(new OrQuery(A, B, new TermQuery("f", "a"))));
+        assertEquals("(f: \"a\" AND f: \"b\")", optimize(new AndQuery(A, new AndQuery(B, A))));
+        assertEquals("(f: \"a\" OR f: \"a\" ^2.0)", optimize(new OrQuery(A, new TermQuery(2, "f", "a"))));
+    }
+
+    @Test
+    public void testAbsorption() {
+        assertEquals("f: \"a\"", optimize(new OrQuery(A, new AndQuery(A, B))));
+        assertEquals("f: \"a\"", optimize(new AndQuery(A, new OrQuery(A, B))));
+        assertEquals("(f: \"a\" OR (f: \"b\" AND f: \"c\"))", optimize(new OrQuery(A, new AndQuery(B, C))));
+    }
+
+    @Test
+    public void testDontAbsorb() {
+        // the not-query applies to its siblings, ie (a OR NOT (c)) is (a AND NOT (c))
+        assertEquals("(f: \"a\" AND (f: \"a\" OR NOT (f: \"c\")))", optimize(new AndQuery(A, new OrQuery(A, new NotQuery(C)))));
+        assertEquals("filter(f: \"a\" AND (f: \"a\" OR NOT (f: \"c\")))", optimize(new FilterQuery(A, new OrQuery(A, new NotQuery(C)))));
+        // each sub-query counts towards the minimum
+        assertEquals("(f: \"a\" AND (f: \"a\" OR f: \"b\")~2)", optimize(new AndQuery(A, minimumShouldMatch(2, new OrQuery(A, B)))));
+    }
+
+    @Test
+    public void testMergeNots() {
+        assertEquals("(f: \"a\" AND NOT (f: \"b\" f: \"c\"))", optimize(new AndQuery(A, new NotQuery(B), new NotQuery(C))));
+        assertEquals("(f: \"a\" AND NOT (f: \"b\" f: \"c\") AND f: \"d\")", optimize(new AndQuery(A, new NotQuery(B, C), D, new NotQuery(B))));
+        assertEquals("(f: \"a\" OR NOT (f: \"b\" f: \"c\"))", optimize(new OrQuery(A, new NotQuery(B), new NotQuery(C))));
+    }
+
+    @Test
+    public void testUnchangedIsSame() {
+        Query q = new AndQuery(A, new OrQuery(B, C), new NotQuery(D));
+        assertSame(q, new OptimizeQueryVisitor().visitQuery(q));
+    }
+
+    private static String optimize(Query query) {
+        return new SolrLuceneQueryVistor().visitQuery(new OptimizeQueryVisitor().visitQuery(query)).toString();
+    }
+
+    private static OrQuery minimumShouldMatch(int minimumShouldMatch, OrQuery query) {
+        query.setMinimumShouldMatch(minimumShouldMatch);
+        return query;
+    }
+}
+
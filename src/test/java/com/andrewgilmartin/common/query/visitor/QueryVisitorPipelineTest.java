@@ -0,0 +1,82 @@
+package com.andrewgilmartin.common.query.visitor;
+
+import com.andrewgilmartin.common.query.AndQuery;
+import com.andrewgilmartin.common.query.NotQuery;
+import com.andrewgilmartin.common.query.OrQuery;
+import com.andrewgilmartin.common.query.PhraseQuery;
+import com.andrewgilmartin.common.query.Query;
+import com.andrewgilmartin.common.query.TermQuery;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import org.junit.Test;
+
+public class QueryVisitorPipelineTest {
+
+    @Test
+    public void testSameAsSequential() {
+        Query sequential = createQuery();
+        sequential = new StandardAnalyzerQueryVisitor().visitQuery(sequential);
+        sequential = new HyphenatedTermQueryVisitor(0.5f).visitQuery(sequential);
+        sequential = new TermsRemovalQueryVisitor(Arrays.asList("the", "of")).visitQuery(sequential);
+        sequential = createVariantsVisitor().visitQuery(sequential);
+        sequential = new ReduceQueryVisitor().visitQuery(sequential);
+
+        Query pipelined = createPipeline().visitQuery(createQuery());
+
+        assertEquals(toString(sequential), toString(pipelined));
+    }
+
+    @Test
+    public void testUnchangedIsSame() {
+        Query q = new AndQuery(new TermQuery("f", "a"), new NotQuery(new PhraseQuery("f", "b", "c")));
+        assertSame(q, createPipeline().visitQuery(q));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCompoundRewriter() {
+        new QueryVisitorPipeline().addStage(new QueryVisitorAdaptor<Void>() {
+            @Override
+            protected Query visit(AndQuery query, Void data) {
+                return query;
+            }
+        });
+    }
+
+    private static QueryVisitorPipeline createPipeline() {
+        return new QueryVisitorPipeline()
+                .addStage(new StandardAnalyzerQueryVisitor())
+                .addStage(new HyphenatedTermQueryVisitor(0.5f))
+                .addStage(new TermsRemovalQueryVisitor(Arrays.asList("the", "of")))
+                .addStage(createVariantsVisitor())
+                .setReducer(new ReduceQueryVisitor());
+    }
+
+    private static VariantsQueryVistor createVariantsVisitor() {
+        Map<String, List<String>> variants = new HashMap<>();
+        variants.put("colour", Arrays.asList("color"));
+        variants.put("enterprise", Arrays.asList("business"));
+        return new VariantsQueryVistor(0.5f, variants);
+    }
+
+    private static Query createQuery() {
+        return new AndQuery(2,
+                new TermQuery("f", "The"),
+                new TermQuery("f", "Intelligent-Enterprise"),
+                new OrQuery(
+                        new TermQuery(3, "f", "Colour"),
+                        new TermQuery("f", "of")
+                ),
+                new NotQuery(
+                        new PhraseQuery("f", "THE", "I.B.M.", "Company's")
+                )
+        );
+    }
+
+    private static String toString(Query query) {
+        return new SolrLuceneQueryVistor().visitQuery(query).toString();
+    }
+}
@@ -0,0 +1,149 @@
+package com.andrewgilmartin.common.query.visitor;
+
+import com.andrewgilmartin.common.query.AndQuery;
+import com.andrewgilmartin.common.query.DelegatedQuery;
+import com.andrewgilmartin.common.query.FilterQuery;
+import com.andrewgilmartin.common.query.NotQuery;
+import com.andrewgilmartin.common.query.OrQuery;
+import com.andrewgilmartin.common.query.PhraseQuery;
+import com.andrewgilmartin.common.query.Query;
+import com.andrewgilmartin.common.query.QueryFingerprint;
+import com.andrewgilmartin.common.query.TermQuery;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.TreeSet;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+public class QueryVisitorTest {
+
+    @Test
+    public void testSubclass() {
+        Query q = new TermQuery("f", "a") {
+            // anonymous subclass
+        };
+        assertEquals("f: \"a\"", toString(q));
+    }
+
+    @Test
+    public void testDelegated() {
+        Query q = new AndQuery(
+                new DelegatedQuery(new TermQuery("f", "a")),
+                new NotQuery(new DelegatedQuery(new TermQuery("f", "b")))
+        );
+        assertEquals("(f: \"a\" AND NOT (f: \"b\"))", toString(q));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testUnknown() {
+        toString(new Query());
+    }
+
+    @Test
+    public void testIterativeSameAsRecursive() {
+        Query q = new AndQuery(2,
+                new TermQuery("x", "a"),
+                new OrQuery(new TermQuery("y", "b"), new AndQuery(), new PhraseQuery(3, "x", "c", "d")),
+                new NotQuery(4, new TermQuery(5, "x", "e"), new NotQuery(new TermQuery("y", "f"))),
+                new AndQuery(new TermQuery("x", "g")),
+                new FilterQuery(new TermQuery("x", "h"), new NotQuery(new TermQuery("y", "i")))
+        );
+        for (QueryVisitor<?, ?> visitor : new QueryVisitor<?, ?>[]{
+            new SolrLuceneQueryVistor(),
+            new LuceneQueryVisitor(),
+            new ReduceQueryVisitor(),
+            new StandardAnalyzerQueryVisitor(),
+            new TermsRemovalQueryVisitor(Arrays.asList("a", "c")),
+            new DebugQueryVisitor()
+        }) {
+            visitor.setIterative(false);
+            Object recursive = visitor.visitQuery(q);
+            visitor.setIterative(true);
+            Object iterative = visitor.visitQuery(q);
+            assertEquals(visitor.getClass().getName(), toString(recursive), toString(iterative));
+        }
+        for (boolean includeProhibitedTerms : new boolean[]{false, true}) {
+            TermsGatheringVisitor visitor = new TermsGatheringVisitor().setIncludeProhibitedTerms(includeProhibitedTerms);
+            Set<String> recursive = visitor.visit(q, new TreeSet<>());
+            visitor.setIterative(true);
+            Set<String> iterative = visitor.visit(q, new TreeSet<>());
+            assertEquals(recursive, iterative);
+        }
+        OrQuery mm = new OrQuery(q, new TermQuery("x", "j"), new OrQuery());
+        mm.setMinimumShouldMatch(2);
+        for (Query query : new Query[]{q, mm}) {
+            FingerprintQueryVisitor visitor = new FingerprintQueryVisitor();
+            QueryFingerprint recursive = visitor.fingerprint(query);
+            visitor.setIterative(true);
+            assertEquals(recursive, visitor.fingerprint(query));
+        }
+    }
+
+    @Test
+    public void testIterativeDeep() {
+        Query q = createDeepQuery(100000);
+
+        SolrLuceneQueryVistor solr = new SolrLuceneQueryVistor();
+        solr.setIterative(true);
+        assertTrue(solr.visitQuery(q).length() > 0);
+
+        ReduceQueryVisitor reduce = new ReduceQueryVisitor();
+        reduce.setIterative(true);
+        assertSame(q, reduce.visitQuery(q));
+
+        TermsGatheringVisitor gathering = new TermsGatheringVisitor();
+        gathering.setIterative(true);
+        Set<String> terms = gathering.visit(q, new HashSet<>());
+        assertTrue(terms.contains("a99999"));
+        assertFalse(terms.contains("x"));
+
+        FingerprintQueryVisitor fingerprint = new FingerprintQueryVisitor();
+        fingerprint.setIterative(true);
+        assertNotNull(fingerprint.fingerprint(q));
+    }
+
+    /**
+     * Lucene's own methods, eg BooleanQuery.hashCode(), recurse over the
+     * clauses and so the Lucene query is built from a shallower query.
+     */
+    @Test
+    public void testIterativeDeepLucene() {
+        LuceneQueryVisitor lucene = new LuceneQueryVisitor();
+        lucene.setIterative(true);
+        assertNotNull(lucene.visitQuery(createDeepQuery(1000)));
+    }
+
+    private static Query createDeepQuery(int depth) {
+        Query q = new TermQuery("f", "x");
+        for (int i = 0; i < depth; i++) {
+            switch (i % 3) {
+                case 0:
+                    q = new AndQuery(new TermQuery("f", "a" + i), q);
+                    break;
+                case 1:
+                    q = new OrQuery(new TermQuery("f", "o" + i), q);
+                    break;
+                default:
+                    q = new AndQuery(new TermQuery("f", "n" + i), new NotQuery(q));
+                    break;
+            }
+        }
+        return q;
+    }
+
+    private static String toString(Object result) {
+        if (result instanceof Query) {
+            return toString((Query) result);
+        }
+        return String.valueOf(result);
+    }
+
+    private static String toString(Query query) {
+        return new SolrLuceneQueryVistor().visitQuery(query).toString();
+    }
+}
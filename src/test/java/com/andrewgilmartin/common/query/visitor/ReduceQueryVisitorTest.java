@@ -1,6 +1,7 @@
 package com.andrewgilmartin.common.query.visitor;
 
 import com.andrewgilmartin.common.query.AndQuery;
+import com.andrewgilmartin.common.query.FilterQuery;
 import com.andrewgilmartin.common.query.NotQuery;
 import com.andrewgilmartin.common.query.NumberQuery;
 import com.andrewgilmartin.common.query.OrQuery;
@@ -176,4 +177,59 @@ public class ReduceQueryVisitorTest {
         assertEquals(NotQuery.class, r.getClass());
         assertEquals(2, ((NotQuery) r).getQueries().size());
     }
+
+    @Test
+    public void testFilterNotReduced() {
+        Query q = new FilterQuery(new AndQuery(), new NumberQuery("f", 1));
+
+        ReduceQueryVisitor v = new ReduceQueryVisitor();
+        Query r = v.visitQuery(q);
+
+        assertEquals(FilterQuery.class, r.getClass());
+        assertEquals(1, ((FilterQuery) r).getQueries().size());
+        Assert.assertNull(v.visitQuery(new FilterQuery(new AndQuery())));
+    }
+
+    @Test
+    public void testUnchangedIsSame() {
+        Query q = new OrQuery(2.0f,
+                new AndQuery(new NumberQuery("f", 1), new PhraseQuery("f", "a", "b")),
+                new NotQuery(new NumberQuery("f", 2))
+        );
+
+        ReduceQueryVisitor v = new ReduceQueryVisitor();
+        Query r = v.visitQuery(q);
+
+        Assert.assertSame(q, r);
+    }
+
+    @Test
+    public void testChangedIsCopy() {
+        AndQuery a = new AndQuery(new NumberQuery("f", 1), new NumberQuery("f", 2));
+        OrQuery q = new OrQuery(2.0f, a, new AndQuery(), new NumberQuery("f", 3));
+
+        ReduceQueryVisitor v = new ReduceQueryVisitor();
+        Query r = v.visitQuery(q);
+
+        Assert.assertNotSame(q, r);
+        assertEquals(3, q.getQueries().size());
+        assertEquals(2, ((OrQuery) r).getQueries().size());
+        assertEquals(2.0f, r.getWeight(), 0.0f);
+        Assert.assertSame(a, ((OrQuery) r).getQueries().get(0));
+    }
+
+    @Test
+    public void testCombinedWeightsDontChangeQuery() {
+        OrQuery o = new OrQuery(3.0f, new NumberQuery("f", 1), new NumberQuery("f", 2));
+        AndQuery q = new AndQuery(2.0f, o);
+
+        ReduceQueryVisitor v = new ReduceQueryVisitor();
+        v.setCombineWeights(true);
+        Query r = v.visitQuery(q);
+
+        assertEquals(OrQuery.class, r.getClass());
+        assertEquals(6.0f, r.getWeight(), 0.0f);
+        assertEquals(3.0f, o.getWeight(), 0.0f);
+        Assert.assertSame(o, q.getQueries().get(0));
+    }
 }
@@ -0,0 +1,88 @@
+package com.andrewgilmartin.common.query.visitor;
+
+import com.andrewgilmartin.common.query.AndQuery;
+import com.andrewgilmartin.common.query.NotQuery;
+import com.andrewgilmartin.common.query.OrQuery;
+import com.andrewgilmartin.common.query.PhraseQuery;
+import com.andrewgilmartin.common.query.Query;
+import com.andrewgilmartin.common.query.TermQuery;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+/**
+ * Stress tests the visitors when one instance of each is shared by many
+ * threads.
+ */
+public class SharedQueryVisitorTest {
+
+    private static final int THREADS = 16;
+    private static final int ITERATIONS = 2000;
+
+    private static final SolrLuceneQueryVistor SOLR = new SolrLuceneQueryVistor();
+    private static final DebugQueryVisitor DEBUG = new DebugQueryVisitor();
+    private static final ReduceQueryVisitor REDUCE = new ReduceQueryVisitor();
+    private static final StandardAnalyzerQueryVisitor ANALYZER = new StandardAnalyzerQueryVisitor();
+    private static final TermsRemovalQueryVisitor REMOVAL = new TermsRemovalQueryVisitor(Arrays.asList("the"));
+    private static final TermsGatheringVisitor GATHERING = new TermsGatheringVisitor();
+
+    @Test
+    public void testShared() throws Exception {
+        List<Query> queries = new ArrayList<>();
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            Query q = createQuery(i);
+            queries.add(q);
+            expected.add(describe(q));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<Integer>> futures = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                final int offset = t;
+                futures.add(executor.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() {
+                        int checked = 0;
+                        for (int i = 0; i < ITERATIONS; i++) {
+                            int n = (i + offset) % queries.size();
+                            assertEquals(expected.get(n), describe(queries.get(n)));
+                            checked++;
+                        }
+                        return checked;
+                    }
+                }));
+            }
+            for (Future<Integer> future : futures) {
+                assertEquals(ITERATIONS, (int) future.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static String describe(Query query) {
+        Query q = REDUCE.visitQuery(REMOVAL.visitQuery(ANALYZER.visitQuery(query)));
+        Set<String> terms = GATHERING.visit(query, new TreeSet<>());
+        return SOLR.visitQuery(q) + "\n" + terms + "\n" + DEBUG.visitQuery(query);
+    }
+
+    private static Query createQuery(int i) {
+        Query q = new TermQuery("f", "The" + i);
+        for (int j = 0; j < i; j++) {
+            q = j % 2 == 0
+                    ? new AndQuery(new TermQuery("f", "A" + j), new NotQuery(q, new TermQuery("f", "the")))
+                    : new OrQuery(new PhraseQuery("f", "the", "B" + j), q);
+        }
+        return q;
+    }
+}
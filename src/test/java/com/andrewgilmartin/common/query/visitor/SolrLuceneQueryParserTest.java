@@ -0,0 +1,120 @@
+package com.andrewgilmartin.common.query.visitor;
+
+import com.andrewgilmartin.common.query.AndQuery;
+import com.andrewgilmartin.common.query.BooleanQuery;
+import com.andrewgilmartin.common.query.FilterQuery;
+import com.andrewgilmartin.common.query.NotQuery;
+import com.andrewgilmartin.common.query.NumberQuery;
+import com.andrewgilmartin.common.query.NumberRangeQuery;
+import com.andrewgilmartin.common.query.OrQuery;
+import com.andrewgilmartin.common.query.PhraseQuery;
+import com.andrewgilmartin.common.query.Query;
+import com.andrewgilmartin.common.query.TermQuery;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class SolrLuceneQueryParserTest {
+
+    @Test
+    public void testRoundTrip() {
+        assertRoundTrip(new TermQuery("f", "a"));
+        assertRoundTrip(new TermQuery(2, "f", "a\"b\\c:d/e'\t\u00e9\u4e2d\ud83d\ude00"));
+        assertRoundTrip(new TermQuery("f", ""));
+        assertRoundTrip(new PhraseQuery(1.5f, "f", "a", "b", "c"));
+        assertRoundTrip(new NumberQuery("f", 1));
+        assertRoundTrip(new NumberQuery(3, "f", -12345678901L));
+        assertRoundTrip(new NumberQuery("f", 1.5));
+        assertRoundTrip(new BooleanQuery("f", true));
+        assertRoundTrip(new BooleanQuery(2, "f", false));
+        assertRoundTrip(new NumberRangeQuery("f", 1, 5));
+        assertRoundTrip(new NumberRangeQuery(2, "f", 1.5, null, false, true));
+        assertRoundTrip(new NumberRangeQuery("f", null, 5, true, false));
+        assertRoundTrip(new AndQuery(new TermQuery("f", "a")));
+        assertRoundTrip(new AndQuery(2, new TermQuery("f", "a"), new NumberQuery(3, "g", 1)));
+        assertRoundTrip(new OrQuery(new TermQuery("f", "a"), new TermQuery("f", "b")));
+        assertRoundTrip(new NotQuery(3, new NumberQuery(5, "f", 1), new NumberQuery(10, "f", 2)));
+        assertRoundTrip(new FilterQuery(new NumberQuery("f", 1)));
+        assertRoundTrip(new AndQuery(new AndQuery(new TermQuery("f", "a"), new TermQuery("f", "b"))));
+        {
+            OrQuery q = new OrQuery(3, new NumberQuery("f", 1), new NumberQuery("f", 2), new NumberQuery("f", 3));
+            q.setMinimumShouldMatch(2);
+            assertRoundTrip(q);
+        }
+        assertRoundTrip(new AndQuery(
+                new OrQuery(new TermQuery("f", "a"), new PhraseQuery("f", "b", "c")),
+                new FilterQuery(3, new NumberRangeQuery("g", 1, 10), new NotQuery(new NumberQuery("g", 2))),
+                new NotQuery(new OrQuery(new BooleanQuery("h", true), new AndQuery(new TermQuery("i", "x"))))));
+    }
+
+    @Test
+    public void testSyntax() {
+        SolrLuceneQueryParser parser = new SolrLuceneQueryParser();
+        assertNull(parser.parse(null));
+        assertNull(parser.parse("  "));
+        assertEquals(new TermQuery("f", "a"), parser.parse("f:a"));
+        assertEquals(new TermQuery("f", "a:b"), parser.parse("f: a\\:b"));
+        assertEquals(new TermQuery(2, "f", "a"), parser.parse("f:a^2"));
+        assertEquals(new AndQuery(new TermQuery("f", "a"), new NumberQuery("g", 1)), parser.parse(" f: a  AND g: 1 "));
+        assertEquals(
+                new OrQuery(new AndQuery(new TermQuery("f", "a"), new TermQuery("f", "b")), new TermQuery("f", "c")),
+                parser.parse("f: a AND f: b OR f: c"));
+        assertEquals(new NotQuery(new TermQuery("f", "a")), parser.parse("NOT(f: a)"));
+        assertEquals(new TermQuery("NOT", "a"), parser.parse("NOT: a"));
+        assertEquals(new TermQuery("f", "AND"), parser.parse("f: AND"));
+    }
+
+    @Test
+    public void testErrors() {
+        String[] inputs = {
+            "f",
+            "f:",
+            "f: \"a",
+            "f: \"\\u00\"",
+            "(f: a",
+            "()",
+            "f: a f: b",
+            "f: [1 TO]",
+            "f: [a TO 5]",
+            "f: a ^x",
+            "(f: a AND f: b)~2",
+            "(f: a OR f: b)~4294967297",
+            "(f: a OR f: b)~9999999999",
+            "NOT f: a"
+        };
+        SolrLuceneQueryParser parser = new SolrLuceneQueryParser();
+        for (String input : inputs) {
+            try {
+                parser.parse(input);
+                fail("parsed " + input);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    /**
+     * Parses a large query to check that parsing is linear in the size of
+     * the input and that the parser can be reused.
+     */
+    @Test
+    public void testThroughput() {
+        OrQuery q = new OrQuery();
+        for (int i = 0; i < 10000; i++) {
+            q.addQuery(new AndQuery(new TermQuery("f", "term" + i), new PhraseQuery(i, "g", "a", "b"), new NumberRangeQuery("h", i, i + 10)));
+        }
+        String rendered = new SolrLuceneQueryVistor().visitQuery(q).toString();
+        SolrLuceneQueryParser parser = new SolrLuceneQueryParser();
+        for (int i = 0; i < 10; i++) {
+            assertEquals(q, parser.parse(rendered));
+        }
+    }
+
+    private static void assertRoundTrip(Query query) {
+        String rendered = new SolrLuceneQueryVistor().visitQuery(query).toString();
+        Query parsed = new SolrLuceneQueryParser().parse(rendered);
+        assertEquals(rendered, query, parsed);
+        assertEquals(rendered, new SolrLuceneQueryVistor().visitQuery(parsed).toString());
+    }
+}
+
+// END
@@ -1,9 +1,16 @@
 package com.andrewgilmartin.common.query.visitor;
 
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.net.URLEncoder;
 import com.andrewgilmartin.common.query.AndQuery;
 import com.andrewgilmartin.common.query.BooleanQuery;
+import com.andrewgilmartin.common.query.FilterQuery;
 import com.andrewgilmartin.common.query.NotQuery;
 import com.andrewgilmartin.common.query.NumberQuery;
+import com.andrewgilmartin.common.query.NumberRangeQuery;
 import com.andrewgilmartin.common.query.OrQuery;
 import com.andrewgilmartin.common.query.PhraseQuery;
 import com.andrewgilmartin.common.query.Query;
@@ -26,6 +33,18 @@ public class SolrLuceneQueryVistorTest {
         }
     }
 
+    @Test
+    public void testNumberRange() {
+        {
+            Query q = new NumberRangeQuery("f", 1, 5);
+            assertEquals("f: [1 TO 5]", toString(q));
+        }
+        {
+            Query q = new NumberRangeQuery(2, "f", 1.5, null, false, true);
+            assertEquals("f: {1.5 TO *] ^2.0", toString(q));
+        }
+    }
+
     @Test
     public void testBoolean() {
         {
@@ -118,6 +137,16 @@ public class SolrLuceneQueryVistorTest {
         }
     }
 
+    @Test
+    public void testOrMinimumShouldMatch() {
+        OrQuery q = new OrQuery(3, new NumberQuery("f", 1), new NumberQuery("f", 2), new NumberQuery("f", 3));
+        q.setMinimumShouldMatch(2);
+        assertEquals("(f: 1 OR f: 2 OR f: 3)~2 ^3.0", toString(q));
+        SolrLuceneQueryVistor visitor = new SolrLuceneQueryVistor();
+        visitor.setIterative(true);
+        assertEquals("(f: 1 OR f: 2 OR f: 3)~2 ^3.0", visitor.visitQuery(q).toString());
+    }
+
     @Test
     public void testNot() {
         {
@@ -134,6 +163,70 @@ public class SolrLuceneQueryVistorTest {
         }
     }
 
+    @Test
+    public void testFilter() {
+        {
+            Query q = new FilterQuery(new NumberQuery("f", 1));
+            assertEquals("filter(f: 1)", toString(q));
+        }
+        {
+            Query q = new AndQuery(new TermQuery("f", "a"), new FilterQuery(3, new NumberQuery("g", 1), new NotQuery(new NumberQuery("g", 2))));
+            assertEquals("(f: \"a\" AND filter(g: 1 AND NOT (g: 2)) ^3.0)", toString(q));
+        }
+    }
+
+    @Test
+    public void testEscape() {
+        {
+            Query q = new PhraseQuery("f", "a\"b\\c", "d:e", "\u00e9\u4e2d\ud83d\ude00");
+            assertEquals("f: \"a\\\"b\\\\c d\\:e \\u00e9\\u4e2d\\ud83d\\ude00\"", toString(q));
+        }
+        {
+            SolrLuceneQueryVistor visitor = new SolrLuceneQueryVistor();
+            visitor.setEscapeNonAscii(false);
+            Query q = new PhraseQuery("f", "ab:c", "\u00e9\u4e2d\ud83d\ude00", "\ud83d\u0085x\ude00");
+            assertEquals("f: \"ab\\:c \u00e9\u4e2d\ud83d\ude00 \\ud83d\\u0085x\\ude00\"", visitor.visitQuery(q).toString());
+        }
+    }
+
+    @Test
+    public void testAppendable() throws IOException {
+        Query q = new AndQuery(new TermQuery("f", "a b"), new NumberQuery("g", 1));
+        {
+            StringWriter writer = new StringWriter();
+            assertSame(writer, new SolrLuceneQueryVistor().visitQuery(q, writer));
+            assertEquals("(f: \"a b\" AND g: 1)", writer.toString());
+        }
+        {
+            ByteBufferAppendable output = new ByteBufferAppendable(4, true);
+            output.appendRaw("q=");
+            new SolrLuceneQueryVistor().visitQuery(q, output);
+            assertEquals("q=%28f%3A+%22a+b%22+AND+g%3A+1%29", output.toString());
+            assertEquals("q=" + URLEncoder.encode(toString(q), "UTF-8"), output.toString());
+        }
+    }
+
+    @Test(expected = UncheckedIOException.class)
+    public void testAppendableException() {
+        Appendable output = new Appendable() {
+            @Override
+            public Appendable append(CharSequence value) throws IOException {
+                throw new IOException("closed");
+            }
+
+            @Override
+            public Appendable append(CharSequence value, int start, int end) throws IOException {
+                throw new IOException("closed");
+            }
+
+            @Override
+            public Appendable append(char value) throws IOException {
+                throw new IOException("closed");
+            }
+        };
+        new SolrLuceneQueryVistor().visitQuery(new TermQuery("f", "a"), output);
+    }
+
     private static String toString(Query query) {
         return new SolrLuceneQueryVistor().visitQuery(query).toString();
     }
@@ -0,0 +1,99 @@
+package com.andrewgilmartin.common.query.visitor;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class SortedTermSetTest {
+
+    @Test
+    public void testContains() {
+        SortedTermSet terms = SortedTermSet.create(Arrays.asList("the", "of", "a", "the", null, "", "\u00e9t\u00e9", "\u4e2d", "\ud83d\ude00", "\ud800"));
+        assertEquals(8, terms.size());
+        for (String term : new String[]{"the", "of", "a", "", "\u00e9t\u00e9", "\u4e2d", "\ud83d\ude00", "\ud800"}) {
+            assertTrue(term, terms.contains(term));
+        }
+        for (String term : new String[]{"th", "them", "b", "\u00e9", "\ud83d", "\ude00", "\uffff"}) {
+            assertFalse(term, terms.contains(term));
+        }
+        assertFalse(terms.contains(null));
+        assertFalse(SortedTermSet.create(new ArrayList<String>()).contains("a"));
+    }
+
+    @Test
+    public void testIterator() {
+        List<String> terms = new ArrayList<>();
+        for (String term : SortedTermSet.create(Arrays.asList("b", "\ud83d\ude00", "\uffff", "a", "\u00e9"))) {
+            terms.add(term);
+        }
+        // code point order, in which a supplementary character is after all others
+        assertEquals(Arrays.asList("a", "b", "\u00e9", "\uffff", "\ud83d\ude00"), terms);
+    }
+
+    /**
+     * Compares the set with a HashSet over a large corpus of random terms.
+     */
+    @Test
+    public void testEquivalence() {
+        String alphabet = "abcz09.'\u00e9\u00ff\u0100\u07ff\u0800\u4e2d\ud7ff\ue000\uffff\ud83d\ude00\ud800\udfff";
+        Random random = new Random(25);
+        Set<String> expected = new HashSet<>();
+        List<String> probes = new ArrayList<>();
+        for (int i = 0; i < 50000; i++) {
+            String term = randomTerm(random, alphabet);
+            if (i % 2 == 0) {
+                expected.add(term);
+            }
+            probes.add(term);
+        }
+        SortedTermSet terms = SortedTermSet.create(expected);
+        assertEquals(expected.size(), terms.size());
+        for (String probe : probes) {
+            assertEquals(probe, expected.contains(probe), terms.contains(probe));
+        }
+        Set<String> iterated = new HashSet<>();
+        for (String term : terms) {
+            iterated.add(term);
+        }
+        assertEquals(expected, iterated);
+    }
+
+    @Test
+    public void testLoad() throws Exception {
+        SortedTermSet terms = SortedTermSet.create(Arrays.asList("the", "of", "\u4e2d"));
+        Path path = Files.createTempFile("terms", ".tset");
+        try {
+            terms.write(path);
+            SortedTermSet loaded = SortedTermSet.load(path);
+            assertEquals(3, loaded.size());
+            assertTrue(loaded.contains("\u4e2d"));
+            assertFalse(loaded.contains("a"));
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalid() {
+        new SortedTermSet(ByteBuffer.wrap(new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16}));
+    }
+
+    private static String randomTerm(Random random, String alphabet) {
+        StringBuilder term = new StringBuilder();
+        int length = random.nextInt(6);
+        for (int i = 0; i < length; i++) {
+            term.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        return term.toString();
+    }
+}
+
+// END
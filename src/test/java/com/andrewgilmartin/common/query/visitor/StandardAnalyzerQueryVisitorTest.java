@@ -0,0 +1,99 @@
+package com.andrewgilmartin.common.query.visitor;
+
+import java.util.Locale;
+import java.util.Random;
+import java.util.regex.Pattern;
+import com.andrewgilmartin.common.query.AndQuery;
+import com.andrewgilmartin.common.query.PhraseQuery;
+import com.andrewgilmartin.common.query.Query;
+import com.andrewgilmartin.common.query.TermQuery;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class StandardAnalyzerQueryVisitorTest {
+
+    /**
+     * The regular expression based filter that normalize() replaces, with
+     * the letters of the pattern written as ranges.
+     */
+    private static final Pattern ACRONYM_PATTERN = Pattern.compile(
+            "^([\\x41-\\x5a\\x61-\\x7a\\xc0-\\xd6\\xd8-\\xf6\\xf8-\\xff\\u0100-\\u1fff\\u3040-\\u318f\\u3300-\\u337f\\u3400-\\u3d2d\\u4e00-\\u9fff\\uf900-\\ufaff])\\."
+            + "(?:[\\x41-\\x5a\\x61-\\x7a\\xc0-\\xd6\\xd8-\\xf6\\xf8-\\xff\\u0100-\\u1fff\\u3040-\\u318f\\u3300-\\u337f\\u3400-\\u3d2d\\u4e00-\\u9fff\\uf900-\\ufaff]\\.)+$");
+
+    private static String filter(String term) {
+        term = term.toLowerCase(Locale.ROOT);
+        if (term.endsWith("'s")) {
+            term = term.substring(0, term.length() - 2);
+        }
+        if (ACRONYM_PATTERN.matcher(term).matches()) {
+            StringBuilder t = new StringBuilder(term.length() / 2);
+            for (int i = 0; i < term.length(); i += 2) {
+                t.append(term.charAt(i));
+            }
+            term = t.toString();
+        }
+        return term;
+    }
+
+    @Test
+    public void testNormalize() {
+        assertEquals("abc", StandardAnalyzerQueryVisitor.normalize("ABC"));
+        assertEquals("john", StandardAnalyzerQueryVisitor.normalize("John's"));
+        assertEquals("usa", StandardAnalyzerQueryVisitor.normalize("U.S.A."));
+        assertEquals("usa", StandardAnalyzerQueryVisitor.normalize("U.S.A.'s"));
+        assertEquals("\u00e9t\u00e9", StandardAnalyzerQueryVisitor.normalize("\u00c9.T.\u00c9."));
+        assertEquals("a.", StandardAnalyzerQueryVisitor.normalize("a."));
+        assertEquals("a.1.", StandardAnalyzerQueryVisitor.normalize("a.1."));
+        String term = "unchanged";
+        assertSame(term, StandardAnalyzerQueryVisitor.normalize(term));
+    }
+
+    /**
+     * Compares normalize() with the regular expression based filter over a
+     * large corpus of random terms built from characters that exercise the
+     * lowercasing, possessive, and acronym rules.
+     */
+    @Test
+    public void testEquivalence() {
+        String alphabet = "aAbBsSzZ09.'-\u00e9\u00c9\u00d7\u00df\u0130\u03a3\u0100\u1fff\u2000\u3041\u4e2d\u9fff\ufa00\ufb00\ud83d\ude00";
+        Random random = new Random(17);
+        StringBuilder buffer = new StringBuilder();
+        for (int n = 0; n < 200000; n++) {
+            buffer.setLength(0);
+            int length = random.nextInt(10);
+            boolean acronym = random.nextBoolean();
+            for (int i = 0; i < length; i++) {
+                buffer.append(alphabet.charAt(random.nextInt(alphabet.length())));
+                if (acronym) {
+                    buffer.append(random.nextInt(10) != 0 ? '.' : alphabet.charAt(random.nextInt(alphabet.length())));
+                }
+            }
+            if (random.nextInt(4) == 0) {
+                buffer.append(random.nextBoolean() ? "'s" : "'S");
+            }
+            String term = buffer.toString();
+            assertEquals(term, filter(term), StandardAnalyzerQueryVisitor.normalize(term));
+        }
+    }
+
+    @Test
+    public void testVisit() {
+        Query q = new AndQuery(new TermQuery(2, "f", "U.S.A."), new TermQuery("f", "x"), new PhraseQuery("f", "a", "John's"));
+        for (int cacheSize : new int[]{0, 1, 100}) {
+            StandardAnalyzerQueryVisitor visitor = new StandardAnalyzerQueryVisitor();
+            visitor.setCacheSize(cacheSize);
+            for (int i = 0; i < 3; i++) {
+                assertEquals(new AndQuery(new TermQuery(2, "f", "usa"), new TermQuery("f", "x"), new PhraseQuery("f", "a", "john")), visitor.visit(q));
+            }
+        }
+        Query unchanged = new TermQuery("f", "x");
+        assertSame(unchanged, new StandardAnalyzerQueryVisitor().visit(unchanged));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeCacheSize() {
+        new StandardAnalyzerQueryVisitor().setCacheSize(-1);
+    }
+}
+
+// END
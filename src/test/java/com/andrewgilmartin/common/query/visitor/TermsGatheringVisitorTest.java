@@ -1,12 +1,18 @@
 package com.andrewgilmartin.common.query.visitor;
 
 import com.andrewgilmartin.common.query.AndQuery;
+import com.andrewgilmartin.common.query.BooleanQuery;
 import com.andrewgilmartin.common.query.NotQuery;
+import com.andrewgilmartin.common.query.NumberQuery;
+import com.andrewgilmartin.common.query.OrQuery;
 import com.andrewgilmartin.common.query.PhraseQuery;
 import com.andrewgilmartin.common.query.Query;
 import com.andrewgilmartin.common.query.TermQuery;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
 import java.util.Set;
 import java.util.TreeSet;
+import org.apache.lucene.util.BytesRef;
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
@@ -83,4 +89,60 @@ public class TermsGatheringVisitorTest {
                 .visit(q, new TreeSet<>());
         Assert.assertArrayEquals(new String[]{"b", "c", "e", "g", "j", "k"}, gatheredTerms.toArray());
     }
+
+    @Test
+    public void testFieldTerms() {
+        Query query = new OrQuery(2,
+                new TermQuery("x", "a"),
+                new TermQuery(3, "x", "a"),
+                new NumberQuery("x", 1),
+                new BooleanQuery("y", true),
+                new AndQuery(0.5f, new PhraseQuery("y", "b", "c"), new TermQuery("y", "b")),
+                new NotQuery(new TermQuery("z", "d"), new NotQuery(4, new TermQuery("z", "e"))));
+        for (boolean iterative : new boolean[]{false, true}) {
+            TermsGatheringVisitor visitor = new TermsGatheringVisitor();
+            visitor.setIterative(iterative);
+            FieldTerms fieldTerms = visitor.gatherFieldTerms(query, new FieldTerms());
+            Assert.assertEquals("FieldTerms(x:a^6.0, y:b^1.0(term,phrase), y:c^1.0(phrase), z:e^8.0)", fieldTerms.toString());
+            Assert.assertEquals(new LinkedHashSet<>(Arrays.asList("x", "y", "z")), fieldTerms.getFields());
+            FieldTerms.Field y = fieldTerms.getField("y");
+            Assert.assertEquals(1, y.find(new BytesRef("c")));
+            Assert.assertEquals(-1, y.find(new BytesRef("d")));
+            Assert.assertEquals("c", y.getTerm(1, new BytesRef()).utf8ToString());
+            Assert.assertTrue(y.isPhrase(1));
+            Assert.assertFalse(y.isTerm(1));
+        }
+    }
+
+    @Test
+    public void testFieldTermsConfigured() {
+        FieldTerms fieldTerms = new TermsGatheringVisitor()
+                .addExcludeField("x")
+                .setIncludeProhibitedTerms(true)
+                .gatherFieldTerms(q, new FieldTerms());
+        Assert.assertEquals(new LinkedHashSet<>(Arrays.asList("y", "z")), fieldTerms.getFields());
+        Assert.assertEquals(6, fieldTerms.size());
+        Assert.assertNull(fieldTerms.getField("x"));
+        fieldTerms.clear();
+        Assert.assertEquals(0, fieldTerms.size());
+        Assert.assertTrue(fieldTerms.getFields().isEmpty());
+        Assert.assertEquals(0, TermsGatheringVisitor.getFieldTerms(null).size());
+        Assert.assertEquals("FieldTerms(x:a^1.0)", new TermsGatheringVisitor().gatherFieldTerms(new TermQuery("x", "a"), fieldTerms).toString());
+    }
+
+    @Test
+    public void testFieldTermsReused() {
+        FieldTerms fieldTerms = new FieldTerms();
+        fieldTerms.add("f", "a", 1, false);
+        fieldTerms.clear();
+        Assert.assertNull(fieldTerms.getField("f"));
+        Assert.assertEquals(0, fieldTerms.add("f", "b", 2, true));
+        FieldTerms.Field f = fieldTerms.getField("f");
+        Assert.assertEquals(1, f.size());
+        Assert.assertEquals(-1, f.find(new BytesRef("a")));
+        Assert.assertEquals("b", f.getTerm(0, new BytesRef()).utf8ToString());
+        Assert.assertEquals(2, f.getWeight(0), 0);
+        Assert.assertTrue(f.isPhrase(0));
+        Assert.assertFalse(f.isTerm(0));
+    }
 }
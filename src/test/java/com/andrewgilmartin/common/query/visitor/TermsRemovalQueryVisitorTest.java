@@ -6,6 +6,7 @@ import com.andrewgilmartin.common.query.Query;
 import com.andrewgilmartin.common.query.TermQuery;
 import java.util.Arrays;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -40,6 +41,23 @@ public class TermsRemovalQueryVisitorTest {
         assertEquals("(y: \"b\" AND x: \"a b\" AND y: \"c\")", toString(result));
     }
 
+    @Test
+    public void testUnchangedIsSame() {
+        TermsRemovalQueryVisitor vistor = new TermsRemovalQueryVisitor(Arrays.asList("z"));
+        Query result = vistor.visit(query);
+        assertSame(query, result);
+    }
+
+    @Test
+    public void testTermSets() {
+        TermsRemovalQueryVisitor vistor = new TermsRemovalQueryVisitor(
+                SortedTermSet.create(Arrays.asList("a")),
+                new HashTermSet(Arrays.asList("d")));
+        Query result = vistor.visit(query);
+        assertEquals("(y: \"b\" AND x: \"a b\" AND y: \"c\")", toString(result));
+        assertSame(query, new TermsRemovalQueryVisitor((TermSet) null).visit(query));
+    }
+
     private static String toString(Query query) {
         return new SolrLuceneQueryVistor().visitQuery(query).toString();
     }